@@ -0,0 +1,70 @@
+package bench;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@code IF} with an expensive branch: when the branch is not taken, evaluation should cost about
+ * as much as the cheap branch on its own.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ConditionalBenchmark {
+
+    private static final String CHEAP = "a + b * 2";
+
+    @Param({"7", "34", "128"})
+    public int precision;
+
+    private Object cheap;
+    private Object untaken;
+    private Object taken;
+
+    @Setup
+    public void setUp() throws Throwable {
+        String expensive = Shapes.text(Shapes.FUNCTIONS);
+        cheap = expression(CHEAP);
+        untaken = expression("IF(a > 0, " + CHEAP + ", " + expensive + ")");
+        taken = expression("IF(a < 0, " + CHEAP + ", " + expensive + ")");
+    }
+
+    private Object expression(String text) throws Throwable {
+        Object expression = Engine.setPrecision(Engine.newExpression(text), precision);
+        String[] variables = Shapes.variables(Shapes.FUNCTIONS);
+        for (int i = 0; i < variables.length; i++) {
+            Engine.with(expression, variables[i], Shapes.value(i));
+        }
+        return expression;
+    }
+
+    @Benchmark
+    public BigDecimal cheapOnly() throws Throwable {
+        return Engine.evalExpression(cheap);
+    }
+
+    @Benchmark
+    public BigDecimal expensiveUntaken() throws Throwable {
+        return Engine.evalExpression(untaken);
+    }
+
+    @Benchmark
+    public BigDecimal expensiveTaken() throws Throwable {
+        return Engine.evalExpression(taken);
+    }
+}
@@ -0,0 +1,154 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Calls into the engine, whose classes live in the default package with package-private members.
+ * <p>
+ * JMH will not generate code for benchmarks in the default package, and a named package cannot
+ * import from it, so the entry points are looked up once by reflection and held in static final
+ * method handles. The JIT treats those as constants and inlines through them, so the indirection
+ * does not show up in the measurements.
+ */
+final class Engine {
+
+    static final Object REGISTRY;
+    private static final MethodHandle NEW_SCANNER;
+    private static final MethodHandle SCAN;
+    private static final MethodHandle PARSE;
+    private static final MethodHandle CONSTANTS;
+    private static final MethodHandle COMPILE;
+    private static final MethodHandle NEW_BINDINGS;
+    private static final MethodHandle BIND;
+    private static final MethodHandle EVAL_BINDINGS;
+    private static final MethodHandle NEW_EXPRESSION;
+    private static final MethodHandle SET_PRECISION;
+    private static final MethodHandle WITH;
+    private static final MethodHandle EVAL;
+    private static final MethodHandle EVAL_DOUBLE;
+    private static final MethodHandle SOLVE;
+
+    static {
+        try {
+            Class<?> registry = Class.forName("Registry");
+            Class<?> scanner = Class.forName("TokenScanner");
+            Class<?> parser = Class.forName("Parser");
+            Class<?> program = Class.forName("Program");
+            Class<?> compiled = Class.forName("CompiledExpression");
+            Class<?> bindings = Class.forName("Bindings");
+            Class<?> expression = Class.forName("Expression");
+
+            REGISTRY = open(registry.getDeclaredField("DEFAULT")).get(null);
+            NEW_SCANNER = constructor(scanner);
+            SCAN = method(scanner, "scan", CharSequence.class, registry, List.class);
+            PARSE = method(parser, "parse", String.class, registry);
+            CONSTANTS = method(registry, "getConstants");
+            COMPILE = constructor(compiled, program, Map.class, MathContext.class);
+            NEW_BINDINGS = method(compiled, "newBindings");
+            BIND = method(bindings, "with", String.class, BigDecimal.class);
+            EVAL_BINDINGS = method(bindings, "eval");
+            NEW_EXPRESSION = constructor(expression, String.class);
+            SET_PRECISION = method(expression, "setPrecision", int.class);
+            WITH = method(expression, "with", String.class, BigDecimal.class);
+            EVAL = method(expression, "eval");
+            EVAL_DOUBLE = method(expression, "evalDouble");
+            SOLVE = method(expression, "solve", String.class, BigDecimal.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Engine() {
+    }
+
+    static Object newScanner() throws Throwable {
+        return (Object) NEW_SCANNER.invokeExact();
+    }
+
+    static void scan(Object scanner, String text) throws Throwable {
+        SCAN.invokeExact(scanner, (CharSequence) text, REGISTRY, (List<?>) null);
+    }
+
+    static Object parse(String text) throws Throwable {
+        return (Object) PARSE.invokeExact(text, REGISTRY);
+    }
+
+    @SuppressWarnings("unchecked")
+    static Object compile(Object program, MathContext mc) throws Throwable {
+        Map<String, BigDecimal> constants = (Map<String, BigDecimal>) (Object) CONSTANTS.invokeExact(REGISTRY);
+        return (Object) COMPILE.invokeExact(program, constants, mc);
+    }
+
+    static Object newBindings(Object compiled) throws Throwable {
+        return (Object) NEW_BINDINGS.invokeExact(compiled);
+    }
+
+    static Object bind(Object bindings, String variable, BigDecimal value) throws Throwable {
+        return (Object) BIND.invokeExact(bindings, variable, value);
+    }
+
+    static BigDecimal eval(Object bindings) throws Throwable {
+        return (BigDecimal) (Object) EVAL_BINDINGS.invokeExact(bindings);
+    }
+
+    static Object newExpression(String text) throws Throwable {
+        return (Object) NEW_EXPRESSION.invokeExact(text);
+    }
+
+    static Object setPrecision(Object expression, int precision) throws Throwable {
+        return (Object) SET_PRECISION.invokeExact(expression, precision);
+    }
+
+    static Object with(Object expression, String variable, BigDecimal value) throws Throwable {
+        return (Object) WITH.invokeExact(expression, variable, value);
+    }
+
+    static BigDecimal evalExpression(Object expression) throws Throwable {
+        return (BigDecimal) (Object) EVAL.invokeExact(expression);
+    }
+
+    static double evalDouble(Object expression) throws Throwable {
+        return (double) EVAL_DOUBLE.invokeExact(expression);
+    }
+
+    static BigDecimal solve(Object expression, String variable, BigDecimal guess) throws Throwable {
+        return (BigDecimal) (Object) SOLVE.invokeExact(expression, variable, guess);
+    }
+
+    private static MethodHandle constructor(Class<?> owner, Class<?>... parameters) throws ReflectiveOperationException {
+        Constructor<?> constructor = open(owner.getDeclaredConstructor(parameters));
+        return erase(MethodHandles.lookup().unreflectConstructor(constructor));
+    }
+
+    private static MethodHandle method(Class<?> owner, String name, Class<?>... parameters) throws ReflectiveOperationException {
+        Method method = open(owner.getDeclaredMethod(name, parameters));
+        return erase(MethodHandles.lookup().unreflect(method));
+    }
+
+    private static MethodHandle erase(MethodHandle handle) {
+        MethodType type = handle.type();
+        for (int i = 0; i < type.parameterCount(); i++) {
+            if (!type.parameterType(i).isPrimitive() && !type.parameterType(i).getName().startsWith("java.")) {
+                type = type.changeParameterType(i, Object.class);
+            }
+        }
+        if (!type.returnType().isPrimitive()) {
+            type = type.changeReturnType(Object.class);
+        }
+        return handle.asType(type);
+    }
+
+    private static <T extends AccessibleObject> T open(T member) {
+        member.setAccessible(true);
+        return member;
+    }
+}
@@ -0,0 +1,72 @@
+package bench;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Evaluation at several precisions, both through {@code Expression.eval()} and through a
+ * compiled expression with per-call bindings, plus the double fast path.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EvalBenchmark {
+
+    @Param({Shapes.SHORT, Shapes.NESTED, Shapes.FUNCTIONS, Shapes.VARIABLES})
+    public String shape;
+
+    @Param({"7", "16", "34", "128"})
+    public int precision;
+
+    private Object expression;
+    private Object bindings;
+    private String[] variables;
+    private BigDecimal[] values;
+
+    @Setup
+    public void setUp() throws Throwable {
+        String text = Shapes.text(shape);
+        variables = Shapes.variables(shape);
+        values = new BigDecimal[variables.length];
+        expression = Engine.setPrecision(Engine.newExpression(text), precision);
+        for (int i = 0; i < variables.length; i++) {
+            values[i] = Shapes.value(i);
+            Engine.with(expression, variables[i], values[i]);
+        }
+        bindings = Engine.newBindings(Engine.compile(Engine.parse(text), new MathContext(precision)));
+    }
+
+    @Benchmark
+    public BigDecimal eval() throws Throwable {
+        return Engine.evalExpression(expression);
+    }
+
+    @Benchmark
+    public BigDecimal evalBindings() throws Throwable {
+        for (int i = 0; i < variables.length; i++) {
+            Engine.bind(bindings, variables[i], values[i]);
+        }
+        return Engine.eval(bindings);
+    }
+
+    @Benchmark
+    public double evalDouble() throws Throwable {
+        return Engine.evalDouble(expression);
+    }
+}
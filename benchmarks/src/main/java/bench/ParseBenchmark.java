@@ -0,0 +1,59 @@
+package bench;
+
+import java.math.MathContext;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Front-end phases, bypassing the process-wide parse cache. Validation is done by the parser as
+ * it emits code, so {@link #parse()} covers both shunting-yard and validation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParseBenchmark {
+
+    @Param({Shapes.SHORT, Shapes.NESTED, Shapes.FUNCTIONS, Shapes.VARIABLES})
+    public String shape;
+
+    private String text;
+    private Object scanner;
+    private Object program;
+
+    @Setup
+    public void setUp() throws Throwable {
+        text = Shapes.text(shape);
+        scanner = Engine.newScanner();
+        program = Engine.parse(text);
+    }
+
+    @Benchmark
+    public Object tokenize() throws Throwable {
+        Engine.scan(scanner, text);
+        return scanner;
+    }
+
+    @Benchmark
+    public Object parse() throws Throwable {
+        return Engine.parse(text);
+    }
+
+    @Benchmark
+    public Object compile() throws Throwable {
+        return Engine.compile(program, MathContext.DECIMAL32);
+    }
+}
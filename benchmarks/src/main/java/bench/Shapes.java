@@ -0,0 +1,52 @@
+package bench;
+
+import java.math.BigDecimal;
+
+/**
+ * The expression shapes every benchmark is parameterised over.
+ */
+final class Shapes {
+
+    static final String SHORT = "short";
+    static final String NESTED = "nested";
+    static final String FUNCTIONS = "functions";
+    static final String VARIABLES = "variables";
+
+    private static final String[] VARIABLE_NAMES = new String[32];
+
+    static {
+        for (int i = 0; i < VARIABLE_NAMES.length; i++) {
+            VARIABLE_NAMES[i] = "v" + i;
+        }
+    }
+
+    private Shapes() {
+    }
+
+    static String text(String shape) {
+        switch (shape) {
+            case SHORT:
+                return "a + b * 2";
+            case NESTED:
+                return "((((a + 1) * (b - 2)) / ((c + 3) * (a - 4))) + (((b * 5) - (c / 6)) * ((a + 7) - (b * 8))))"
+                        + " * (((a - c) / (b + 9)) - ((c * a) / (b - 10)))";
+            case FUNCTIONS:
+                return "SQRT(ABS(SIN(a) * COS(b))) + LOG(ABS(c) + 1) - TAN(RAD(a)) * FLOOR(b / 3) + CEILING(c)";
+            case VARIABLES:
+                return String.join(" + ", VARIABLE_NAMES);
+            default:
+                throw new IllegalArgumentException("Unknown shape " + shape);
+        }
+    }
+
+    static String[] variables(String shape) {
+        if (VARIABLES.equals(shape)) {
+            return VARIABLE_NAMES.clone();
+        }
+        return SHORT.equals(shape) ? new String[]{"a", "b"} : new String[]{"a", "b", "c"};
+    }
+
+    static BigDecimal value(int i) {
+        return new BigDecimal("1.25").add(BigDecimal.valueOf(i));
+    }
+}
@@ -0,0 +1,56 @@
+package bench;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One root of a small equation, against a single evaluation of the same expression: a solve should
+ * cost a handful of evaluations.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SolverBenchmark {
+
+    private static final BigDecimal GUESS = BigDecimal.ONE;
+
+    @Param({"x^3 - a*x - 1", "COS(x) - x / a", "LOG(x) + SQRT(x) - a"})
+    public String equation;
+
+    @Param({"16", "34"})
+    public int precision;
+
+    private Object expression;
+
+    @Setup
+    public void setUp() throws Throwable {
+        expression = Engine.setPrecision(Engine.newExpression(equation), precision);
+        Engine.with(expression, "a", new BigDecimal("2.5"));
+        Engine.with(expression, "x", GUESS);
+    }
+
+    @Benchmark
+    public BigDecimal eval() throws Throwable {
+        return Engine.evalExpression(expression);
+    }
+
+    @Benchmark
+    public BigDecimal solve() throws Throwable {
+        return Engine.solve(expression, "x", GUESS);
+    }
+}
@@ -0,0 +1,502 @@
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Arbitrary-precision kernels behind the built-in functions and the {@code ^} operator.
+ * <p>
+ * Up to {@link #DOUBLE_PRECISION} digits a result is computed in {@code double} and rounded, which
+ * is faster and as accurate as the precision asks for. Above that, every kernel works a few guard
+ * digits beyond the requested precision and rounds once at the end: {@code SQRT} uses
+ * {@link BigDecimal#sqrt}, integer powers use binary exponentiation, and the transcendental
+ * functions reduce their argument (exact modulo 90 degrees for trigonometry, powers of ten and two
+ * for logarithms, halving for exponentials and arctangents) before summing a short series in
+ * binary fixed point. PI, e, ln 2 and ln 10 are known to 50 digits and computed once per working
+ * precision beyond that.
+ */
+final class BigMath {
+
+    static final int DOUBLE_PRECISION = 15;
+
+    static final BigDecimal PI = new BigDecimal("3.14159265358979323846264338327950288419716939937510");
+    static final BigDecimal E = new BigDecimal("2.71828182845904523536028747135266249775724709369995");
+    private static final BigDecimal LN2 = new BigDecimal("0.69314718055994530941723212145817656807550013436026");
+    private static final BigDecimal LN10 = new BigDecimal("2.30258509299404568401799145468436420760110148862877");
+    private static final int KNOWN_DIGITS = 50;
+    private static final int GUARD_DIGITS = 10;
+
+    private static final BigDecimal TWO = BigDecimal.valueOf(2);
+    private static final BigDecimal HALF = new BigDecimal("0.5");
+    private static final BigDecimal D90 = BigDecimal.valueOf(90);
+    private static final BigDecimal D180 = BigDecimal.valueOf(180);
+    private static final BigDecimal D360 = BigDecimal.valueOf(360);
+
+    private static final Map<Integer, BigDecimal> pis = new ConcurrentHashMap<>();
+    private static final Map<Integer, BigDecimal> es = new ConcurrentHashMap<>();
+    private static final Map<Integer, BigDecimal> ln2s = new ConcurrentHashMap<>();
+    private static final Map<Integer, BigDecimal> ln10s = new ConcurrentHashMap<>();
+
+    private BigMath() {
+    }
+
+    /**
+     * Replaces the registry's PI and e by their value at {@code mc}; any other value is returned as is.
+     */
+    static BigDecimal constant(BigDecimal value, MathContext mc) {
+        if (value == PI && mc.getPrecision() > KNOWN_DIGITS) {
+            return pi(mc.getPrecision());
+        }
+        if (value == E && mc.getPrecision() > KNOWN_DIGITS) {
+            return e(mc.getPrecision());
+        }
+        return value;
+    }
+
+    static BigDecimal sqrt(BigDecimal x, MathContext mc) {
+        if (x.signum() < 0) {
+            throw new ArithmeticException("Square root of a negative number");
+        }
+        if (isDouble(mc)) {
+            return new BigDecimal(Math.sqrt(x.doubleValue()), mc);
+        }
+        return x.sqrt(working(mc)).round(mc);
+    }
+
+    static BigDecimal pow(BigDecimal x, BigDecimal y, MathContext mc) {
+        if (isInteger(y) && y.abs().compareTo(BigDecimal.valueOf(999999999)) <= 0) {
+            int n = y.intValueExact();
+            if (mc.getPrecision() == 0 && n >= 0) {
+                return x.pow(n);
+            }
+            return x.pow(n, working(mc)).round(mc);
+        }
+        if (x.signum() < 0) {
+            throw new ArithmeticException("Non-integer power of a negative number");
+        }
+        if (x.signum() == 0) {
+            if (y.signum() < 0) {
+                throw new ArithmeticException("Division by zero");
+            }
+            return BigDecimal.ZERO;
+        }
+        if (isDouble(mc)) {
+            double result = Math.pow(x.doubleValue(), y.doubleValue());
+            // beyond the range of double, or from an operand that was: take the precise path
+            if (Double.isFinite(result) && result != 0) {
+                return new BigDecimal(result, mc);
+            }
+        }
+        MathContext wc = working(mc);
+        BigDecimal exponent = y.multiply(ln(x, wc), wc);
+        wc = new MathContext(wc.getPrecision() + Math.max(0, magnitude(exponent)), RoundingMode.HALF_EVEN);
+        return exp(y.multiply(ln(x, wc), wc), wc).round(mc);
+    }
+
+    static BigDecimal exp(BigDecimal x, MathContext mc) {
+        if (isDouble(mc)) {
+            return new BigDecimal(Math.exp(x.doubleValue()), mc);
+        }
+        return expKernel(x, working(mc)).round(mc);
+    }
+
+    static BigDecimal log(BigDecimal x, MathContext mc) {
+        checkLogarithm(x);
+        if (isDouble(mc)) {
+            return new BigDecimal(Math.log(x.doubleValue()), mc);
+        }
+        return ln(x, working(mc)).round(mc);
+    }
+
+    static BigDecimal log10(BigDecimal x, MathContext mc) {
+        checkLogarithm(x);
+        if (isDouble(mc)) {
+            return new BigDecimal(Math.log10(x.doubleValue()), mc);
+        }
+        MathContext wc = working(mc);
+        return ln(x, wc).divide(ln10(wc.getPrecision()), wc).round(mc);
+    }
+
+    static BigDecimal sin(BigDecimal degrees, MathContext mc) {
+        if (isDouble(mc)) {
+            return new BigDecimal(Math.sin(Math.toRadians(degrees.doubleValue())), mc);
+        }
+        return sinDegrees(degrees, 0, working(mc)).round(mc);
+    }
+
+    static BigDecimal cos(BigDecimal degrees, MathContext mc) {
+        if (isDouble(mc)) {
+            return new BigDecimal(Math.cos(Math.toRadians(degrees.doubleValue())), mc);
+        }
+        return sinDegrees(degrees, 1, working(mc)).round(mc);
+    }
+
+    static BigDecimal tan(BigDecimal degrees, MathContext mc) {
+        if (isDouble(mc)) {
+            return new BigDecimal(Math.tan(Math.toRadians(degrees.doubleValue())), mc);
+        }
+        MathContext wc = working(mc);
+        return sinDegrees(degrees, 0, wc).divide(sinDegrees(degrees, 1, wc), wc).round(mc);
+    }
+
+    static BigDecimal asin(BigDecimal x, MathContext mc) {
+        checkUnit(x);
+        if (isDouble(mc)) {
+            return new BigDecimal(Math.toDegrees(Math.asin(x.doubleValue())), mc);
+        }
+        if (x.abs().compareTo(BigDecimal.ONE) == 0) {
+            return D90.multiply(BigDecimal.valueOf(x.signum())).round(mc);
+        }
+        MathContext wc = working(mc);
+        BigDecimal cos = BigDecimal.ONE.subtract(x).multiply(BigDecimal.ONE.add(x)).sqrt(wc);
+        return toDegrees(atanRadians(x.divide(cos, wc), wc), wc).round(mc);
+    }
+
+    static BigDecimal acos(BigDecimal x, MathContext mc) {
+        checkUnit(x);
+        if (isDouble(mc)) {
+            return new BigDecimal(Math.toDegrees(Math.acos(x.doubleValue())), mc);
+        }
+        if (x.signum() == 0) {
+            return D90.round(mc);
+        }
+        if (x.signum() < 0) {
+            MathContext wc = working(mc);
+            return D180.subtract(acos(x.negate(), wc), wc).round(mc);
+        }
+        if (x.compareTo(BigDecimal.ONE) == 0) {
+            return BigDecimal.ZERO;
+        }
+        MathContext wc = working(mc);
+        BigDecimal sin = BigDecimal.ONE.subtract(x).multiply(BigDecimal.ONE.add(x)).sqrt(wc);
+        return toDegrees(atanRadians(sin.divide(x, wc), wc), wc).round(mc);
+    }
+
+    static BigDecimal atan(BigDecimal x, MathContext mc) {
+        if (isDouble(mc)) {
+            return new BigDecimal(Math.toDegrees(Math.atan(x.doubleValue())), mc);
+        }
+        MathContext wc = working(mc);
+        return toDegrees(atanRadians(x, wc), wc).round(mc);
+    }
+
+    static BigDecimal sinh(BigDecimal x, MathContext mc) {
+        if (isDouble(mc)) {
+            return new BigDecimal(Math.sinh(x.doubleValue()), mc);
+        }
+        return sinhKernel(x, working(mc)).round(mc);
+    }
+
+    static BigDecimal cosh(BigDecimal x, MathContext mc) {
+        if (isDouble(mc)) {
+            return new BigDecimal(Math.cosh(x.doubleValue()), mc);
+        }
+        MathContext wc = working(mc);
+        BigDecimal ex = expKernel(x.abs(), wc);
+        return ex.add(BigDecimal.ONE.divide(ex, wc), wc).divide(TWO, wc).round(mc);
+    }
+
+    static BigDecimal tanh(BigDecimal x, MathContext mc) {
+        if (isDouble(mc)) {
+            return new BigDecimal(Math.tanh(x.doubleValue()), mc);
+        }
+        MathContext wc = working(mc);
+        BigDecimal ex = expKernel(x.abs(), wc);
+        BigDecimal cosh = ex.add(BigDecimal.ONE.divide(ex, wc), wc).divide(TWO, wc);
+        return sinhKernel(x, wc).divide(cosh, wc).round(mc);
+    }
+
+    static BigDecimal radians(BigDecimal degrees, MathContext mc) {
+        if (isDouble(mc)) {
+            return new BigDecimal(Math.toRadians(degrees.doubleValue()), mc);
+        }
+        MathContext wc = working(mc);
+        return radians(degrees, wc.getPrecision(), wc).round(mc);
+    }
+
+    static BigDecimal degrees(BigDecimal radians, MathContext mc) {
+        if (isDouble(mc)) {
+            return new BigDecimal(Math.toDegrees(radians.doubleValue()), mc);
+        }
+        MathContext wc = working(mc);
+        return toDegrees(radians, wc).round(mc);
+    }
+
+    static BigDecimal pi(int precision) {
+        if (precision <= KNOWN_DIGITS) {
+            return PI;
+        }
+        return pis.computeIfAbsent(precision, p -> {
+            MathContext wc = new MathContext(p + GUARD_DIGITS, RoundingMode.HALF_EVEN);
+            BigDecimal a = atanSeries(BigDecimal.ONE.divide(BigDecimal.valueOf(5), wc), wc);
+            BigDecimal b = atanSeries(BigDecimal.ONE.divide(BigDecimal.valueOf(239), wc), wc);
+            return a.multiply(BigDecimal.valueOf(16)).subtract(b.multiply(BigDecimal.valueOf(4)))
+                    .round(new MathContext(p, RoundingMode.HALF_EVEN));
+        });
+    }
+
+    static BigDecimal e(int precision) {
+        if (precision <= KNOWN_DIGITS) {
+            return E;
+        }
+        return es.computeIfAbsent(precision, p -> expSeries(BigDecimal.ONE,
+                new MathContext(p + GUARD_DIGITS, RoundingMode.HALF_EVEN)).round(new MathContext(p, RoundingMode.HALF_EVEN)));
+    }
+
+    private static BigDecimal ln2(int precision) {
+        if (precision <= KNOWN_DIGITS) {
+            return LN2;
+        }
+        return ln2s.computeIfAbsent(precision, p -> {
+            MathContext wc = new MathContext(p + GUARD_DIGITS, RoundingMode.HALF_EVEN);
+            return atanhSeries(BigDecimal.ONE.divide(BigDecimal.valueOf(3), wc), wc).multiply(TWO)
+                    .round(new MathContext(p, RoundingMode.HALF_EVEN));
+        });
+    }
+
+    private static BigDecimal ln10(int precision) {
+        if (precision <= KNOWN_DIGITS) {
+            return LN10;
+        }
+        return ln10s.computeIfAbsent(precision, p -> {
+            MathContext wc = new MathContext(p + GUARD_DIGITS, RoundingMode.HALF_EVEN);
+            BigDecimal ln125 = atanhSeries(BigDecimal.ONE.divide(BigDecimal.valueOf(9), wc), wc).multiply(TWO);
+            return ln2(p + GUARD_DIGITS).multiply(BigDecimal.valueOf(3)).add(ln125)
+                    .round(new MathContext(p, RoundingMode.HALF_EVEN));
+        });
+    }
+
+    private static BigDecimal expKernel(BigDecimal x, MathContext wc) {
+        if (x.signum() == 0) {
+            return BigDecimal.ONE;
+        }
+        if (x.signum() < 0) {
+            return BigDecimal.ONE.divide(expKernel(x.negate(), wc), wc);
+        }
+        BigInteger whole = x.toBigInteger();
+        BigDecimal fraction = x.subtract(new BigDecimal(whole));
+        BigDecimal result = expSeries(fraction, wc);
+        if (whole.signum() != 0) {
+            MathContext wide = new MathContext(wc.getPrecision() + whole.toString().length(), RoundingMode.HALF_EVEN);
+            result = result.multiply(e(wide.getPrecision()).pow(whole.intValueExact(), wide), wc);
+        }
+        return result;
+    }
+
+    /**
+     * e^x for 0 <= x <= 1: the series runs on x / 2^8 and the sum is squared back up.
+     */
+    private static BigDecimal expSeries(BigDecimal x, MathContext wc) {
+        int halvings = 8;
+        int bits = bits(BigDecimal.ONE, wc) + halvings;
+        BigInteger one = BigInteger.ONE.shiftLeft(bits);
+        BigInteger r = fixed(x, bits).shiftRight(halvings);
+        BigInteger sum = one;
+        BigInteger term = one;
+        for (int n = 1; ; n++) {
+            term = term.multiply(r).shiftRight(bits).divide(BigInteger.valueOf(n));
+            if (term.signum() == 0) {
+                break;
+            }
+            sum = sum.add(term);
+        }
+        for (int i = 0; i < halvings; i++) {
+            sum = sum.multiply(sum).shiftRight(bits);
+        }
+        return decimal(sum, bits, wc);
+    }
+
+    private static BigDecimal ln(BigDecimal x, MathContext wc) {
+        int tens = 0;
+        if (x.compareTo(HALF) < 0 || x.compareTo(TWO) >= 0) {
+            tens = x.precision() - x.scale() - 1;
+        }
+        BigDecimal m = x.movePointLeft(tens);
+        int twos = (int) Math.round(Math.log(m.doubleValue()) / Math.log(2));
+        BigDecimal t = twos >= 0 ? m.divide(BigDecimal.valueOf(1L << twos), wc) : m.multiply(BigDecimal.valueOf(1L << -twos));
+        BigDecimal z = t.subtract(BigDecimal.ONE).divide(t.add(BigDecimal.ONE), wc);
+        BigDecimal result = atanhSeries(z, wc).multiply(TWO);
+        if (twos != 0) {
+            result = result.add(ln2(wc.getPrecision()).multiply(BigDecimal.valueOf(twos)), wc);
+        }
+        if (tens != 0) {
+            result = result.add(ln10(wc.getPrecision()).multiply(BigDecimal.valueOf(tens)), wc);
+        }
+        return result;
+    }
+
+    private static BigDecimal atanhSeries(BigDecimal z, MathContext wc) {
+        if (z.signum() == 0) {
+            return BigDecimal.ZERO;
+        }
+        int bits = bits(z, wc);
+        BigInteger x = fixed(z, bits);
+        BigInteger x2 = x.multiply(x).shiftRight(bits);
+        BigInteger power = x;
+        BigInteger sum = x;
+        for (int n = 3; ; n += 2) {
+            power = power.multiply(x2).shiftRight(bits);
+            BigInteger term = power.divide(BigInteger.valueOf(n));
+            if (term.signum() == 0) {
+                break;
+            }
+            sum = sum.add(term);
+        }
+        return decimal(sum, bits, wc);
+    }
+
+    private static BigDecimal sinDegrees(BigDecimal degrees, int quarterTurns, MathContext wc) {
+        BigDecimal d = degrees.remainder(D360);
+        if (d.signum() < 0) {
+            d = d.add(D360);
+        }
+        int quadrant = d.divideToIntegralValue(D90).intValue();
+        BigDecimal r = d.subtract(D90.multiply(BigDecimal.valueOf(quadrant)));
+        quadrant += quarterTurns;
+        boolean cos = (quadrant & 1) != 0;
+        if (r.compareTo(BigDecimal.valueOf(45)) > 0) {
+            r = D90.subtract(r);
+            cos = !cos;
+        }
+        if (r.signum() == 0) {
+            return cos ? BigDecimal.valueOf((quadrant & 2) != 0 ? -1 : 1) : BigDecimal.ZERO;
+        }
+        BigDecimal value = sinCosSeries(radians(r, wc.getPrecision(), wc), cos, wc);
+        return (quadrant & 2) != 0 ? value.negate() : value;
+    }
+
+    /**
+     * sin x or cos x for 0 < x <= PI/4.
+     */
+    private static BigDecimal sinCosSeries(BigDecimal radians, boolean cos, MathContext wc) {
+        int bits = bits(radians, wc);
+        BigInteger x = fixed(radians, bits);
+        BigInteger x2 = x.multiply(x).shiftRight(bits);
+        BigInteger term = cos ? BigInteger.ONE.shiftLeft(bits) : x;
+        BigInteger sum = term;
+        for (long n = cos ? 1 : 2; ; n += 2) {
+            term = term.multiply(x2).shiftRight(bits).divide(BigInteger.valueOf(n * (n + 1))).negate();
+            if (term.signum() == 0) {
+                break;
+            }
+            sum = sum.add(term);
+        }
+        return decimal(sum, bits, wc);
+    }
+
+    private static BigDecimal atanRadians(BigDecimal x, MathContext wc) {
+        if (x.signum() == 0) {
+            return BigDecimal.ZERO;
+        }
+        if (x.signum() < 0) {
+            return atanRadians(x.negate(), wc).negate();
+        }
+        if (x.compareTo(BigDecimal.ONE) > 0) {
+            return pi(wc.getPrecision()).divide(TWO, wc).subtract(atanRadians(BigDecimal.ONE.divide(x, wc), wc), wc);
+        }
+        return atanSeries(x, wc);
+    }
+
+    /**
+     * atan x for 0 < |x| <= 1: two half-angle steps, x / (1 + sqrt(1 + x^2)), bring x under 0.2
+     * before the series.
+     */
+    private static BigDecimal atanSeries(BigDecimal value, MathContext wc) {
+        int bits = bits(value, wc);
+        BigInteger one = BigInteger.ONE.shiftLeft(bits);
+        BigInteger x = fixed(value, bits);
+        int halvings = value.abs().compareTo(new BigDecimal("0.2")) > 0 ? 2 : 0;
+        for (int i = 0; i < halvings; i++) {
+            BigInteger root = one.shiftLeft(bits).add(x.multiply(x)).sqrt();
+            x = x.shiftLeft(bits).divide(one.add(root));
+        }
+        BigInteger x2 = x.multiply(x).shiftRight(bits);
+        BigInteger power = x;
+        BigInteger sum = x;
+        for (int n = 3; ; n += 2) {
+            power = power.multiply(x2).shiftRight(bits).negate();
+            BigInteger term = power.divide(BigInteger.valueOf(n));
+            if (term.signum() == 0) {
+                break;
+            }
+            sum = sum.add(term);
+        }
+        return decimal(sum.shiftLeft(halvings), bits, wc);
+    }
+
+    private static BigDecimal sinhKernel(BigDecimal x, MathContext wc) {
+        if (x.signum() != 0 && x.abs().compareTo(BigDecimal.ONE) < 0) {
+            int bits = bits(x, wc);
+            BigInteger fixed = fixed(x, bits);
+            BigInteger x2 = fixed.multiply(fixed).shiftRight(bits);
+            BigInteger term = fixed;
+            BigInteger sum = fixed;
+            for (long n = 2; ; n += 2) {
+                term = term.multiply(x2).shiftRight(bits).divide(BigInteger.valueOf(n * (n + 1)));
+                if (term.signum() == 0) {
+                    break;
+                }
+                sum = sum.add(term);
+            }
+            return decimal(sum, bits, wc);
+        }
+        BigDecimal ex = expKernel(x, wc);
+        return ex.subtract(BigDecimal.ONE.divide(ex, wc), wc).divide(TWO, wc);
+    }
+
+    private static BigDecimal radians(BigDecimal degrees, int precision, MathContext wc) {
+        return degrees.multiply(pi(precision), wc).divide(D180, wc);
+    }
+
+    private static BigDecimal toDegrees(BigDecimal radians, MathContext wc) {
+        return radians.multiply(D180, wc).divide(pi(wc.getPrecision()), wc);
+    }
+
+    /**
+     * Fraction bits for a fixed-point series whose result has the magnitude of {@code x}, enough
+     * for the working precision relative to that result.
+     */
+    private static int bits(BigDecimal x, MathContext wc) {
+        return (int) ((wc.getPrecision() + Math.max(0, -magnitude(x))) * 3.33) + 32;
+    }
+
+    private static BigInteger fixed(BigDecimal x, int bits) {
+        return x.multiply(new BigDecimal(BigInteger.ONE.shiftLeft(bits))).setScale(0, RoundingMode.HALF_EVEN)
+                .unscaledValue();
+    }
+
+    private static BigDecimal decimal(BigInteger fixed, int bits, MathContext wc) {
+        return new BigDecimal(fixed).divide(new BigDecimal(BigInteger.ONE.shiftLeft(bits)), wc);
+    }
+
+    private static int magnitude(BigDecimal x) {
+        return x.precision() - x.scale();
+    }
+
+    private static boolean isInteger(BigDecimal x) {
+        return x.signum() == 0 || x.scale() <= 0 || x.stripTrailingZeros().scale() <= 0;
+    }
+
+    private static boolean isDouble(MathContext mc) {
+        return mc.getPrecision() > 0 && mc.getPrecision() <= DOUBLE_PRECISION;
+    }
+
+    private static MathContext working(MathContext mc) {
+        int precision = mc.getPrecision() == 0 ? MathContext.DECIMAL128.getPrecision() : mc.getPrecision();
+        return new MathContext(precision + GUARD_DIGITS, RoundingMode.HALF_EVEN);
+    }
+
+    private static void checkLogarithm(BigDecimal x) {
+        if (x.signum() <= 0) {
+            throw new ArithmeticException("Logarithm of a non-positive number");
+        }
+    }
+
+    private static void checkUnit(BigDecimal x) {
+        if (x.abs().compareTo(BigDecimal.ONE) > 0) {
+            throw new ArithmeticException("Argument outside [-1, 1]");
+        }
+    }
+}
@@ -0,0 +1,49 @@
+import java.math.BigDecimal;
+
+/**
+ * Variable values for one evaluation of a {@link CompiledExpression}.
+ * <p>
+ * A Bindings object is cheap to create and is not thread-safe: give each thread (or each
+ * request) its own, and reuse it across evaluations on that thread. It starts out with the
+ * values the expression was compiled with, including the {@code PI} and {@code e} constants.
+ */
+public final class Bindings {
+
+    private final CompiledExpression compiled;
+    private final BigDecimal[] values;
+
+    Bindings(CompiledExpression compiled, BigDecimal[] values) {
+        this.compiled = compiled;
+        this.values = values;
+    }
+
+    Bindings with(String variable, BigDecimal value) {
+        int slot = compiled.indexOf(variable);
+        if (slot < 0) {
+            throw new IllegalArgumentException("Unknown variable: " + variable);
+        }
+        values[slot] = value;
+        return this;
+    }
+
+    Bindings with(int slot, BigDecimal value) {
+        values[slot] = value;
+        return this;
+    }
+
+    Bindings and(String variable, BigDecimal value) {
+        return with(variable, value);
+    }
+
+    BigDecimal eval() {
+        return compiled.eval(this);
+    }
+
+    CompiledExpression getCompiled() {
+        return compiled;
+    }
+
+    BigDecimal[] getValues() {
+        return values;
+    }
+}
@@ -0,0 +1,431 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class BytecodeCompiler {
+
+    private static final String CLASS_NAME = "GeneratedFormula";
+    private static final String OPERATORS_DESC = "[LOperator;";
+    private static final String FUNCTIONS_DESC = "[LLazyFunction;";
+    private static final String ARGUMENTS_DESC = "[D";
+    private static final int MAX_U2 = 65535;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_PRIVATE = 0x0002;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    private static final int DCONST_0 = 0x0e;
+    private static final int DCONST_1 = 0x0f;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int LDC2_W = 0x14;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int ALOAD_2 = 0x2c;
+    private static final int ALOAD_3 = 0x2d;
+    private static final int DLOAD = 0x18;
+    private static final int DALOAD = 0x31;
+    private static final int DSTORE = 0x39;
+    private static final int AALOAD = 0x32;
+    private static final int DASTORE = 0x52;
+    private static final int DUP2 = 0x5c;
+    private static final int DRETURN = 0xaf;
+    private static final int RETURN = 0xb1;
+    private static final int GETFIELD = 0xb4;
+    private static final int PUTFIELD = 0xb5;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int WIDE = 0xc4;
+
+    private final ConstantPool pool = new ConstantPool();
+    private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+    private final List<Operator> operators = new ArrayList<>();
+    private final List<LazyFunction> functions = new ArrayList<>();
+    private final Map<CompiledExpression.Node, Integer> locals = new IdentityHashMap<>();
+    private int arguments;
+    private int depth;
+    private int maxDepth;
+
+    private BytecodeCompiler() {
+    }
+
+    /**
+     * Generates an evaluator for {@code compiled}, or falls back to a {@link DoubleExpression} when
+     * the expression is too large for one class file: a method body, a constant pool, the operand
+     * stack and the locals are each limited to 65535 entries.
+     */
+    static DoubleEvaluator compile(CompiledExpression compiled) {
+        BytecodeCompiler compiler = new BytecodeCompiler();
+        byte[] bytes = compiler.generate(compiled.getRoot());
+        if (bytes == null) {
+            DoubleExpression interpreter = new DoubleExpression(compiled);
+            double[] stack = interpreter.newStack();
+            return values -> interpreter.eval(values, stack);
+        }
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            return (DoubleEvaluator) lookup.findConstructor(lookup.lookupClass(),
+                    MethodType.methodType(void.class, Operator[].class, LazyFunction[].class, double[].class))
+                    .invoke(compiler.operators.toArray(new Operator[0]),
+                            compiler.functions.toArray(new LazyFunction[0]), new double[compiler.arguments]);
+        } catch (Throwable t) {
+            throw new IllegalStateException("Cannot define generated class", t);
+        }
+    }
+
+    private byte[] generate(CompiledExpression.Node root) {
+        int thisClass = pool.classRef(CLASS_NAME);
+        int superClass = pool.classRef("java/lang/Object");
+        int evaluatorInterface = pool.classRef("DoubleEvaluator");
+        int operatorsField = pool.fieldRef(CLASS_NAME, "operators", OPERATORS_DESC);
+        int functionsField = pool.fieldRef(CLASS_NAME, "functions", FUNCTIONS_DESC);
+        int argumentsField = pool.fieldRef(CLASS_NAME, "arguments", ARGUMENTS_DESC);
+
+        emit(root);
+        op(DRETURN);
+        byte[] evaluateCode = code.toByteArray();
+        int evaluateStack = maxDepth;
+        int evaluateLocals = 2 + 2 * locals.size();
+        if (evaluateCode.length > MAX_U2 || evaluateStack > MAX_U2 || evaluateLocals > MAX_U2) {
+            return null;
+        }
+
+        code.reset();
+        op(ALOAD_0);
+        op(INVOKESPECIAL);
+        u2(pool.methodRef("java/lang/Object", "<init>", "()V"));
+        op(ALOAD_0);
+        op(ALOAD_1);
+        op(PUTFIELD);
+        u2(operatorsField);
+        op(ALOAD_0);
+        op(ALOAD_2);
+        op(PUTFIELD);
+        u2(functionsField);
+        op(ALOAD_0);
+        op(ALOAD_3);
+        op(PUTFIELD);
+        u2(argumentsField);
+        op(RETURN);
+        byte[] initCode = code.toByteArray();
+
+        int codeAttribute = pool.utf8("Code");
+        int initDescriptor = pool.utf8("(" + OPERATORS_DESC + FUNCTIONS_DESC + ARGUMENTS_DESC + ")V");
+        int evaluateName = pool.utf8("evaluate");
+        int evaluateDescriptor = pool.utf8("([D)D");
+        int initName = pool.utf8("<init>");
+        int[] fieldNames = {pool.utf8("operators"), pool.utf8("functions"), pool.utf8("arguments")};
+        int[] fieldDescriptors = {pool.utf8(OPERATORS_DESC), pool.utf8(FUNCTIONS_DESC), pool.utf8(ARGUMENTS_DESC)};
+        if (pool.size() > MAX_U2) {
+            return null;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            pool.write(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(evaluatorInterface);
+
+            out.writeShort(fieldNames.length);
+            for (int i = 0; i < fieldNames.length; i++) {
+                writeMember(out, ACC_PRIVATE | ACC_FINAL, fieldNames[i], fieldDescriptors[i]);
+                out.writeShort(0);
+            }
+
+            out.writeShort(2);
+            writeMember(out, ACC_PUBLIC, initName, initDescriptor);
+            writeCode(out, codeAttribute, initCode, 2, 4);
+            writeMember(out, ACC_PUBLIC, evaluateName, evaluateDescriptor);
+            writeCode(out, codeAttribute, evaluateCode, evaluateStack, evaluateLocals);
+
+            out.writeShort(0);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void writeMember(DataOutputStream out, int access, int name, int descriptor) throws IOException {
+        out.writeShort(access);
+        out.writeShort(name);
+        out.writeShort(descriptor);
+    }
+
+    private void writeCode(DataOutputStream out, int codeAttribute, byte[] body, int maxStack, int maxLocals)
+            throws IOException {
+        out.writeShort(1);
+        out.writeShort(codeAttribute);
+        out.writeInt(12 + body.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(body.length);
+        out.write(body);
+        out.writeShort(0);
+        out.writeShort(0);
+    }
+
+    private void emit(CompiledExpression.Node node) {
+        if (node instanceof CompiledExpression.Constant) {
+            double value = ((CompiledExpression.Constant) node).value.doubleValue();
+            if (Double.doubleToRawLongBits(value) == 0L) {
+                op(DCONST_0);
+            } else if (value == 1.0) {
+                op(DCONST_1);
+            } else {
+                op(LDC2_W);
+                u2(pool.doubleConstant(value));
+            }
+            push(2);
+        } else if (node instanceof CompiledExpression.Variable) {
+            op(ALOAD_1);
+            push(1);
+            pushInt(((CompiledExpression.Variable) node).slot);
+            op(DALOAD);
+        } else if (node instanceof CompiledExpression.Shared) {
+            Integer local = locals.get(node);
+            if (local == null) {
+                emit(((CompiledExpression.Shared) node).node);
+                local = 2 + 2 * locals.size();
+                locals.put(node, local);
+                op(DUP2);
+                push(2);
+                local(DSTORE, local);
+                push(-2);
+            } else {
+                local(DLOAD, local);
+                push(2);
+            }
+        } else if (node instanceof CompiledExpression.Binary) {
+            CompiledExpression.Binary binary = (CompiledExpression.Binary) node;
+            loadReference(OPERATORS_DESC, "operators", operators.size());
+            operators.add(binary.operator);
+            emit(binary.left);
+            emit(binary.right);
+            op(INVOKEVIRTUAL);
+            u2(pool.methodRef("Operator", "eval", "(DD)D"));
+            push(-3);
+        } else {
+            CompiledExpression.Node[] params;
+            LazyFunction function;
+            if (node instanceof CompiledExpression.Call) {
+                params = ((CompiledExpression.Call) node).params;
+                function = ((CompiledExpression.Call) node).function;
+            } else {
+                params = ((CompiledExpression.LazyCall) node).params;
+                function = ((CompiledExpression.LazyCall) node).function;
+            }
+            loadReference(FUNCTIONS_DESC, "functions", functions.size());
+            functions.add(function);
+            // each call site has its own range of the arguments array, so nested calls keep theirs
+            int offset = arguments;
+            arguments += params.length;
+            for (int i = 0; i < params.length; i++) {
+                loadArguments();
+                pushInt(offset + i);
+                emit(params[i]);
+                op(DASTORE);
+                push(-4);
+            }
+            loadArguments();
+            pushInt(offset);
+            pushInt(params.length);
+            op(INVOKEVIRTUAL);
+            u2(pool.methodRef("LazyFunction", "eval", "([DII)D"));
+            push(-2);
+        }
+    }
+
+    private void loadArguments() {
+        op(ALOAD_0);
+        op(GETFIELD);
+        u2(pool.fieldRef(CLASS_NAME, "arguments", ARGUMENTS_DESC));
+        push(1);
+    }
+
+    private void loadReference(String descriptor, String field, int index) {
+        op(ALOAD_0);
+        op(GETFIELD);
+        u2(pool.fieldRef(CLASS_NAME, field, descriptor));
+        push(1);
+        pushInt(index);
+        op(AALOAD);
+        push(-1);
+    }
+
+    private void pushInt(int value) {
+        if (value >= -1 && value <= 5) {
+            op(0x03 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            op(BIPUSH);
+            op(value & 0xff);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            op(SIPUSH);
+            u2(value);
+        } else {
+            op(LDC_W);
+            u2(pool.intConstant(value));
+        }
+        push(1);
+    }
+
+    private void local(int opcode, int index) {
+        if (index > 255) {
+            op(WIDE);
+            op(opcode);
+            u2(index);
+        } else {
+            op(opcode);
+            op(index);
+        }
+    }
+
+    private void push(int slots) {
+        depth += slots;
+        maxDepth = Math.max(maxDepth, depth);
+    }
+
+    private void op(int opcode) {
+        code.write(opcode);
+    }
+
+    private void u2(int value) {
+        code.write(value >>> 8);
+        code.write(value);
+    }
+
+    private static final class ConstantPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> entries = new HashMap<>();
+        private int count = 1;
+
+        int utf8(String value) {
+            Integer index = entries.get("U" + value);
+            if (index == null) {
+                index = add("U" + value, 1);
+                write(() -> {
+                    out.writeByte(1);
+                    out.writeUTF(value);
+                });
+            }
+            return index;
+        }
+
+        int classRef(String name) {
+            int nameIndex = utf8(name);
+            Integer index = entries.get("C" + name);
+            if (index == null) {
+                index = add("C" + name, 1);
+                write(() -> {
+                    out.writeByte(7);
+                    out.writeShort(nameIndex);
+                });
+            }
+            return index;
+        }
+
+        int fieldRef(String owner, String name, String descriptor) {
+            return memberRef(9, owner, name, descriptor);
+        }
+
+        int methodRef(String owner, String name, String descriptor) {
+            return memberRef(10, owner, name, descriptor);
+        }
+
+        int intConstant(int value) {
+            Integer index = entries.get("I" + value);
+            if (index == null) {
+                index = add("I" + value, 1);
+                write(() -> {
+                    out.writeByte(3);
+                    out.writeInt(value);
+                });
+            }
+            return index;
+        }
+
+        int doubleConstant(double value) {
+            long bits = Double.doubleToRawLongBits(value);
+            Integer index = entries.get("D" + bits);
+            if (index == null) {
+                index = add("D" + bits, 2);
+                write(() -> {
+                    out.writeByte(6);
+                    out.writeLong(bits);
+                });
+            }
+            return index;
+        }
+
+        private int memberRef(int tag, String owner, String name, String descriptor) {
+            int ownerIndex = classRef(owner);
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            String key = "N" + name + ":" + descriptor;
+            Integer nameAndType = entries.get(key);
+            if (nameAndType == null) {
+                nameAndType = add(key, 1);
+                write(() -> {
+                    out.writeByte(12);
+                    out.writeShort(nameIndex);
+                    out.writeShort(descriptorIndex);
+                });
+            }
+            int nameAndTypeIndex = nameAndType;
+            String refKey = tag + owner + "." + name + ":" + descriptor;
+            Integer index = entries.get(refKey);
+            if (index == null) {
+                index = add(refKey, 1);
+                write(() -> {
+                    out.writeByte(tag);
+                    out.writeShort(ownerIndex);
+                    out.writeShort(nameAndTypeIndex);
+                });
+            }
+            return index;
+        }
+
+        private int add(String key, int size) {
+            int index = count;
+            entries.put(key, index);
+            count += size;
+            return index;
+        }
+
+        private void write(Entry entry) {
+            try {
+                entry.write();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        int size() {
+            return count;
+        }
+
+        void write(DataOutputStream target) throws IOException {
+            target.writeShort(count);
+            bytes.writeTo(target);
+        }
+
+        private interface Entry {
+            void write() throws IOException;
+        }
+    }
+}
@@ -0,0 +1,496 @@
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.*;
+
+/**
+ * Immutable, compiled form of an {@link Expression}.
+ * <p>
+ * Instances are safe to share between any number of threads once built: the node tree, the
+ * {@link MathContext} and the snapshot of variable values taken at compile time never change.
+ * Per-call state lives in a {@link Bindings} object from {@link #newBindings()}, which must be
+ * confined to one thread at a time. Custom operators and functions must be stateless for these
+ * guarantees to hold; all built-ins are.
+ * <p>
+ * Variables are resolved to integer slots at compile time. Hot loops can look a slot up once with
+ * {@link #indexOf(String)}, fill a caller-owned array from {@link #newSlots()} row by row, and
+ * call {@link #eval(BigDecimal[])} without any name lookups.
+ * <p>
+ * The tree is simplified by {@link Optimizer} when it is built; {@link #getRemovedNodes()} tells
+ * how many nodes that saved. Repeated subexpressions are evaluated once per call and their
+ * values kept in memo slots after the variable slots, so {@link #newSlots()} returns an array
+ * longer than {@link #getVariableCount()} when {@link #getSharedNodes()} is non-zero.
+ * <p>
+ * A {@link LazyFunction} such as {@code IF} receives its parameters unevaluated, so a branch it
+ * does not take costs nothing, in batch evaluation too, and a repeated subexpression is only
+ * evaluated once something actually asks for it.
+ */
+public class CompiledExpression {
+
+    private final Node root;
+    private final String[] variableNames;
+    private final Map<String, Integer> slots;
+    private final BigDecimal[] defaults;
+    private final MathContext mc;
+    private final int removedNodes;
+    private final int sharedNodes;
+    private final int reusedNodes;
+    private final int frameSize;
+    private final String source;
+
+    CompiledExpression(Program program, Map<String, BigDecimal> variables, MathContext mc) {
+        this(Metrics.start(), build(program, mc), program.variables(), variables, mc, program.source);
+    }
+
+    /**
+     * Compiles a tree built elsewhere, such as a derivative, whose variable slots are those of
+     * {@code template}; variables take the same default values.
+     */
+    CompiledExpression(Node tree, CompiledExpression template) {
+        this(Metrics.start(), tree, template.variableNames, template.getDefaults(), template.mc, null);
+    }
+
+    private CompiledExpression(long start, Node tree, String[] variableNames, Map<String, BigDecimal> variables,
+                               MathContext mc, String source) {
+        Optimizer optimizer = new Optimizer(mc);
+        this.root = optimizer.share(optimizer.optimize(tree), variableNames.length);
+        this.removedNodes = optimizer.getRemoved();
+        this.sharedNodes = optimizer.getShared();
+        this.reusedNodes = optimizer.getReused();
+        this.frameSize = variableNames.length + sharedNodes;
+        this.variableNames = variableNames;
+        Map<String, Integer> slots = new HashMap<>();
+        for (int i = 0; i < variableNames.length; i++) {
+            slots.put(variableNames[i], i);
+        }
+        this.slots = Collections.unmodifiableMap(slots);
+        this.defaults = new BigDecimal[frameSize];
+        for (int i = 0; i < variableNames.length; i++) {
+            BigDecimal value = variables.get(variableNames[i]);
+            defaults[i] = value == null ? null : BigMath.constant(value, mc).round(mc);
+        }
+        this.mc = mc;
+        this.source = source;
+        Metrics.record(Metrics.COMPILE, start);
+    }
+
+    private static Node build(Program program, MathContext mc) {
+        Node[] stack = new Node[program.length()];
+        int sp = 0;
+
+        Program.Reader reader = program.reader();
+        while (reader.next()) {
+            switch (reader.opcode) {
+                case Program.LITERAL:
+                    stack[sp++] = new Constant(reader.literal.round(mc));
+                    break;
+                case Program.VARIABLE:
+                    stack[sp++] = new Variable(reader.index, mc);
+                    break;
+                case Program.OPERATOR:
+                    if (sp < 2) {
+                        throw new EmptyStackException();
+                    }
+                    sp -= 2;
+                    stack[sp] = new Binary(reader.operator, stack[sp], stack[sp + 1], mc);
+                    sp++;
+                    break;
+                default:
+                    LazyFunction f = reader.function;
+                    int count = reader.arguments;
+                    if (sp < count) {
+                        throw new EmptyStackException();
+                    }
+                    sp -= count;
+                    Node[] params = Arrays.copyOfRange(stack, sp, sp + count);
+                    stack[sp++] = f instanceof Function ? new Call((Function) f, params, mc) : new LazyCall(f, params, mc);
+            }
+        }
+        if (sp == 0) {
+            throw new EmptyStackException();
+        }
+        return stack[sp - 1];
+    }
+
+    /**
+     * Returns this expression with every variable that {@code links} maps to a formula replaced by
+     * that formula's tree, recursively, so that only plain values are left to bind; they default
+     * to {@code variables}. Throws {@link IllegalStateException} on a circular reference.
+     */
+    CompiledExpression inline(Map<String, CompiledExpression> links, Map<String, BigDecimal> variables) {
+        Map<String, Integer> names = new LinkedHashMap<>();
+        Node tree = inline(root, variableNames, links, names, new HashSet<>(), new IdentityHashMap<>());
+        return new CompiledExpression(Metrics.start(), tree, names.keySet().toArray(new String[0]), variables, mc,
+                source);
+    }
+
+    private static Node inline(Node node, String[] variableNames, Map<String, CompiledExpression> links,
+                               Map<String, Integer> names, Set<String> path, Map<Node, Node> done) {
+        Node result = done.get(node);
+        if (result != null) {
+            return result;
+        }
+        if (node instanceof Shared) {
+            result = inline(((Shared) node).node, variableNames, links, names, path, done);
+        } else if (node instanceof Variable) {
+            Variable variable = (Variable) node;
+            String name = variableNames[variable.slot];
+            CompiledExpression link = links.get(name);
+            if (link == null) {
+                result = new Variable(names.computeIfAbsent(name, k -> names.size()), variable.mc);
+            } else {
+                if (!path.add(name)) {
+                    throw new IllegalStateException("Circular reference through variable " + name);
+                }
+                result = inline(link.root, link.variableNames, links, names, path, new IdentityHashMap<>());
+                path.remove(name);
+            }
+        } else if (node instanceof Binary) {
+            Binary binary = (Binary) node;
+            result = new Binary(binary.operator, inline(binary.left, variableNames, links, names, path, done),
+                    inline(binary.right, variableNames, links, names, path, done), binary.mc);
+        } else if (node instanceof Call) {
+            Call call = (Call) node;
+            result = new Call(call.function, inline(call.params, variableNames, links, names, path, done), call.mc);
+        } else if (node instanceof LazyCall) {
+            LazyCall call = (LazyCall) node;
+            result = new LazyCall(call.function, inline(call.params, variableNames, links, names, path, done), call.mc);
+        } else {
+            result = node;
+        }
+        done.put(node, result);
+        return result;
+    }
+
+    private static Node[] inline(Node[] nodes, String[] variableNames, Map<String, CompiledExpression> links,
+                                 Map<String, Integer> names, Set<String> path, Map<Node, Node> done) {
+        Node[] result = new Node[nodes.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = inline(nodes[i], variableNames, links, names, path, done);
+        }
+        return result;
+    }
+
+    private Map<String, BigDecimal> getDefaults() {
+        Map<String, BigDecimal> values = new HashMap<>();
+        for (int i = 0; i < variableNames.length; i++) {
+            values.put(variableNames[i], defaults[i]);
+        }
+        return values;
+    }
+
+    String[] getVariableNames() {
+        return variableNames.clone();
+    }
+
+    int getVariableCount() {
+        return variableNames.length;
+    }
+
+    String getVariableName(int slot) {
+        return variableNames[slot];
+    }
+
+    int indexOf(String variable) {
+        Integer slot = slots.get(variable);
+        return slot == null ? -1 : slot;
+    }
+
+    String getSource() {
+        return source;
+    }
+
+    MathContext getMathContext() {
+        return mc;
+    }
+
+    int getRemovedNodes() {
+        return removedNodes;
+    }
+
+    int getSharedNodes() {
+        return sharedNodes;
+    }
+
+    int getReusedNodes() {
+        return reusedNodes;
+    }
+
+    Node getRoot() {
+        return root;
+    }
+
+    Bindings newBindings() {
+        return new Bindings(this, newSlots());
+    }
+
+    BigDecimal[] newSlots() {
+        return defaults.clone();
+    }
+
+    /**
+     * Evaluates with the values captured at compile time, in a frame of its own, so that
+     * concurrent calls never share memo slots.
+     */
+    BigDecimal eval() {
+        return eval(newBindings());
+    }
+
+    BigDecimal eval(Bindings bindings) {
+        if (bindings.getCompiled() != this) {
+            throw new IllegalArgumentException("Bindings belong to a different compiled expression");
+        }
+        BigDecimal[] values = bindings.getValues();
+        for (int i = 0; i < variableNames.length; i++) {
+            if (values[i] == null) {
+                throw new IllegalStateException("Unknown variable: " + variableNames[i]);
+            }
+        }
+        return eval(values);
+    }
+
+    BigDecimal eval(BigDecimal[] slots) {
+        if (sharedNodes > 0) {
+            if (slots.length < frameSize) {
+                slots = Arrays.copyOf(slots, frameSize);
+            } else {
+                Arrays.fill(slots, variableNames.length, frameSize, null);
+            }
+        }
+        if (Metrics.enabled) {
+            ExpressionEvalEvent event = new ExpressionEvalEvent();
+            event.begin();
+            long start = Metrics.start();
+            BigDecimal result = root.eval(slots).stripTrailingZeros();
+            Metrics.record(Metrics.EVAL, start);
+            commit(event, "BigDecimal");
+            return result;
+        }
+        return root.eval(slots).stripTrailingZeros();
+    }
+
+    void commit(ExpressionEvalEvent event, String mode) {
+        if (event.shouldCommit()) {
+            event.expression = source;
+            event.mode = mode;
+            event.commit();
+        }
+    }
+
+    BigDecimal[] evalBatch(BigDecimal[][] columns, int rows) {
+        if (sharedNodes > 0) {
+            columns = Arrays.copyOf(columns, frameSize);
+            Arrays.fill(columns, variableNames.length, frameSize, null);
+        }
+        if (Metrics.enabled) {
+            ExpressionEvalEvent event = new ExpressionEvalEvent();
+            event.begin();
+            long start = Metrics.start();
+            BigDecimal[] result = root.evalBatch(columns, rows);
+            Metrics.record(Metrics.EVAL_BATCH, start);
+            commit(event, "BigDecimal batch");
+            return result;
+        }
+        return root.evalBatch(columns, rows);
+    }
+
+    abstract static class Node {
+        abstract BigDecimal eval(BigDecimal[] values);
+
+        abstract BigDecimal[] evalBatch(BigDecimal[][] columns, int rows);
+    }
+
+    static final class Constant extends Node {
+        final BigDecimal value;
+
+        Constant(BigDecimal value) {
+            this.value = value;
+        }
+
+        @Override
+        BigDecimal eval(BigDecimal[] values) {
+            return value;
+        }
+
+        @Override
+        BigDecimal[] evalBatch(BigDecimal[][] columns, int rows) {
+            BigDecimal[] result = new BigDecimal[rows];
+            Arrays.fill(result, value);
+            return result;
+        }
+    }
+
+    static final class Variable extends Node {
+        final int slot;
+        final MathContext mc;
+
+        Variable(int slot, MathContext mc) {
+            this.slot = slot;
+            this.mc = mc;
+        }
+
+        @Override
+        BigDecimal eval(BigDecimal[] values) {
+            return values[slot].round(mc);
+        }
+
+        @Override
+        BigDecimal[] evalBatch(BigDecimal[][] columns, int rows) {
+            return columns[slot];
+        }
+    }
+
+    static final class Shared extends Node {
+        final int memo;
+        final Node node;
+
+        Shared(int memo, Node node) {
+            this.memo = memo;
+            this.node = node;
+        }
+
+        @Override
+        BigDecimal eval(BigDecimal[] values) {
+            BigDecimal value = values[memo];
+            if (value == null) {
+                value = node.eval(values);
+                values[memo] = value;
+            }
+            return value;
+        }
+
+        @Override
+        BigDecimal[] evalBatch(BigDecimal[][] columns, int rows) {
+            BigDecimal[] value = columns[memo];
+            if (value == null) {
+                value = node.evalBatch(columns, rows);
+                columns[memo] = value;
+            }
+            return value;
+        }
+    }
+
+    static final class Binary extends Node {
+        final Operator operator;
+        final Node left;
+        final Node right;
+        final MathContext mc;
+
+        Binary(Operator operator, Node left, Node right, MathContext mc) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+            this.mc = mc;
+        }
+
+        @Override
+        BigDecimal eval(BigDecimal[] values) {
+            if (Metrics.enabled) {
+                Metrics.call(operator.getOper(), 1);
+            }
+            return operator.eval(left.eval(values), right.eval(values), mc);
+        }
+
+        @Override
+        BigDecimal[] evalBatch(BigDecimal[][] columns, int rows) {
+            BigDecimal[] v1 = left.evalBatch(columns, rows);
+            BigDecimal[] v2 = right.evalBatch(columns, rows);
+            if (Metrics.enabled) {
+                Metrics.call(operator.getOper(), rows);
+            }
+            BigDecimal[] result = new BigDecimal[rows];
+            for (int i = 0; i < rows; i++) {
+                result[i] = operator.eval(v1[i], v2[i], mc);
+            }
+            return result;
+        }
+    }
+
+    static final class Call extends Node {
+        final Function function;
+        final Node[] params;
+        final MathContext mc;
+
+        Call(Function function, Node[] params, MathContext mc) {
+            this.function = function;
+            this.params = params;
+            this.mc = mc;
+        }
+
+        @Override
+        BigDecimal eval(BigDecimal[] values) {
+            if (Metrics.enabled) {
+                Metrics.call(function.getName(), 1);
+            }
+            BigDecimal[] args = new BigDecimal[params.length];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = params[i].eval(values);
+            }
+            return function.eval(Arrays.asList(args), mc);
+        }
+
+        @Override
+        BigDecimal[] evalBatch(BigDecimal[][] columns, int rows) {
+            BigDecimal[][] args = new BigDecimal[params.length][];
+            for (int p = 0; p < args.length; p++) {
+                args[p] = params[p].evalBatch(columns, rows);
+            }
+            if (Metrics.enabled) {
+                Metrics.call(function.getName(), rows);
+            }
+            BigDecimal[] result = new BigDecimal[rows];
+            for (int i = 0; i < rows; i++) {
+                BigDecimal[] row = new BigDecimal[args.length];
+                for (int p = 0; p < row.length; p++) {
+                    row[p] = args[p][i];
+                }
+                result[i] = function.eval(Arrays.asList(row), mc);
+            }
+            return result;
+        }
+    }
+
+    static final class LazyCall extends Node {
+        final LazyFunction function;
+        final Node[] params;
+        final MathContext mc;
+
+        LazyCall(LazyFunction function, Node[] params, MathContext mc) {
+            this.function = function;
+            this.params = params;
+            this.mc = mc;
+        }
+
+        @Override
+        BigDecimal eval(BigDecimal[] values) {
+            if (Metrics.enabled) {
+                Metrics.call(function.getName(), 1);
+            }
+            List<LazyNumber> p = new ArrayList<>(params.length);
+            for (Node param : params) {
+                p.add(() -> param.eval(values));
+            }
+            return function.lazyEval(p, mc).eval();
+        }
+
+        @Override
+        BigDecimal[] evalBatch(BigDecimal[][] columns, int rows) {
+            if (Metrics.enabled) {
+                Metrics.call(function.getName(), rows);
+            }
+            // row by row, so that parameters the function never asks for are not evaluated either
+            BigDecimal[] result = new BigDecimal[rows];
+            BigDecimal[] frame = new BigDecimal[columns.length];
+            List<LazyNumber> p = new ArrayList<>(params.length);
+            for (Node param : params) {
+                p.add(() -> param.eval(frame));
+            }
+            for (int i = 0; i < rows; i++) {
+                for (int slot = 0; slot < frame.length; slot++) {
+                    frame[slot] = columns[slot] == null ? null : columns[slot][i];
+                }
+                result[i] = function.lazyEval(p, mc).eval();
+            }
+            return result;
+        }
+    }
+}
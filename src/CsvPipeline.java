@@ -0,0 +1,364 @@
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streams a CSV file of variable values through one expression and writes each line back out
+ * with the result appended as an extra column.
+ * <p>
+ * The first line names the columns; columns whose name matches a variable of the expression are
+ * parsed, all others are copied through untouched. Formula links of the expression are inlined, so
+ * the columns bind the plain values they read. Fields may be quoted, and a quoted field may hold
+ * separators, line breaks and doubled quotes; the input is read and the output written as UTF-8.
+ * The input is memory-mapped window by window and numbers are decoded straight from the bytes into
+ * {@code BigDecimal}s, with no intermediate {@code String}s. Rows are evaluated
+ * {@link #chunkSize(int)} at a time with {@link CompiledExpression#evalBatch(BigDecimal[][], int)}
+ * and written through one reusable buffer, so memory use does not grow with the size of the file.
+ * An empty field, or a variable with no column, takes the value the expression was compiled with.
+ */
+public class CsvPipeline {
+
+    private static final int WINDOW = 64 << 20;
+    private static final int OUTPUT_BUFFER = 256 << 10;
+
+    private final CompiledExpression compiled;
+    private final MathContext mc;
+    private char separator = ',';
+    private String resultColumn = "result";
+    private int chunkSize = 4096;
+
+    private ByteBuffer out;
+    private FileChannel output;
+    private BigDecimal[][] columns;
+    private int[] lineStarts;
+    private int[] lineEnds;
+    private char[] digits = new char[64];
+
+    CsvPipeline(Expression expression) {
+        this.compiled = expression.getLinkedCompiled();
+        this.mc = compiled.getMathContext();
+    }
+
+    CsvPipeline separator(char separator) {
+        if (separator >= 128 || separator == '"' || separator == '\n' || separator == '\r') {
+            throw new IllegalArgumentException("Separator must be an ASCII character other than a quote or line break");
+        }
+        this.separator = separator;
+        return this;
+    }
+
+    CsvPipeline resultColumn(String resultColumn) {
+        this.resultColumn = resultColumn;
+        return this;
+    }
+
+    CsvPipeline chunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    /**
+     * Evaluates every data line of {@code input} and writes the result file; returns the number of
+     * rows evaluated.
+     */
+    long run(Path input, Path output) throws IOException {
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(output, StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            this.output = out;
+            this.out = ByteBuffer.allocate(OUTPUT_BUFFER);
+            this.columns = new BigDecimal[compiled.getVariableCount()][chunkSize];
+            this.lineStarts = new int[chunkSize];
+            this.lineEnds = new int[chunkSize];
+            try {
+                return stream(in);
+            } finally {
+                this.output = null;
+                this.out = null;
+                this.columns = null;
+            }
+        }
+    }
+
+    private long stream(FileChannel in) throws IOException {
+        long size = in.size();
+        long position = 0;
+        long rows = 0;
+        int[] slotOfColumn = null;
+        BigDecimal[] defaults = compiled.newSlots();
+        boolean[] bound = new boolean[compiled.getVariableCount()];
+
+        while (position < size) {
+            int length = (int) Math.min(WINDOW, size - position);
+            boolean last = position + length == size;
+            MappedByteBuffer window = in.map(FileChannel.MapMode.READ_ONLY, position, length);
+            int p = 0;
+            int count = 0;
+            while (p < length) {
+                int end = p;
+                boolean quoted = false;
+                for (byte b; end < length && ((b = window.get(end)) != '\n' || quoted); end++) {
+                    if (b == '"') {
+                        quoted = !quoted;
+                    }
+                }
+                if (end == length && !last) {
+                    break;
+                }
+                int next = end + 1;
+                if (end > p && window.get(end - 1) == '\r') {
+                    end--;
+                }
+                if (slotOfColumn == null) {
+                    slotOfColumn = header(window, p, end, bound, defaults);
+                    write(window, p, end);
+                    writeField(quote(resultColumn));
+                } else if (end > p) {
+                    parseRow(window, p, end, count, slotOfColumn, bound, defaults, rows + count + 2);
+                    lineStarts[count] = p;
+                    lineEnds[count] = end;
+                    if (++count == chunkSize) {
+                        flushChunk(window, count);
+                        rows += count;
+                        count = 0;
+                    }
+                }
+                p = next;
+            }
+            if (count > 0) {
+                flushChunk(window, count);
+                rows += count;
+            }
+            if (p == 0) {
+                throw new IllegalStateException("Line longer than " + WINDOW + " bytes at offset " + position);
+            }
+            position += Math.min(p, length);
+        }
+        drain();
+        return rows;
+    }
+
+    private int[] header(ByteBuffer window, int start, int end, boolean[] bound, BigDecimal[] defaults) {
+        List<String> names = new ArrayList<>();
+        for (int p = start; p <= end; ) {
+            int fieldEnd = fieldEnd(window, p, end);
+            byte[] bytes = new byte[fieldEnd - p];
+            window.get(p, bytes);
+            String name = new String(bytes, StandardCharsets.UTF_8).trim();
+            if (name.length() > 1 && name.charAt(0) == '"' && name.charAt(name.length() - 1) == '"') {
+                name = name.substring(1, name.length() - 1).replace("\"\"", "\"");
+            }
+            names.add(name);
+            p = fieldEnd + 1;
+        }
+        int[] slotOfColumn = new int[names.size()];
+        for (int i = 0; i < slotOfColumn.length; i++) {
+            slotOfColumn[i] = compiled.indexOf(names.get(i));
+            if (slotOfColumn[i] >= 0) {
+                bound[slotOfColumn[i]] = true;
+            }
+        }
+        for (int slot = 0; slot < bound.length; slot++) {
+            if (!bound[slot] && defaults[slot] == null) {
+                throw new IllegalStateException("Unknown variable: " + compiled.getVariableName(slot));
+            }
+        }
+        return slotOfColumn;
+    }
+
+    private void parseRow(ByteBuffer window, int start, int end, int row, int[] slotOfColumn,
+                          boolean[] bound, BigDecimal[] defaults, long line) {
+        for (int slot = 0; slot < bound.length; slot++) {
+            if (!bound[slot]) {
+                columns[slot][row] = defaults[slot].round(mc);
+            }
+        }
+        int column = 0;
+        int p = start;
+        while (p <= end && column < slotOfColumn.length) {
+            int fieldEnd = fieldEnd(window, p, end);
+            int slot = slotOfColumn[column];
+            if (slot >= 0) {
+                BigDecimal value = parseNumber(window, p, fieldEnd, line);
+                if (value == null) {
+                    value = defaults[slot];
+                    if (value == null) {
+                        throw new IllegalStateException("Missing value for " + compiled.getVariableName(slot)
+                                + " at line " + line);
+                    }
+                }
+                columns[slot][row] = value.round(mc);
+            }
+            column++;
+            p = fieldEnd + 1;
+        }
+        for (; column < slotOfColumn.length; column++) {
+            int slot = slotOfColumn[column];
+            if (slot >= 0) {
+                if (defaults[slot] == null) {
+                    throw new IllegalStateException("Missing value for " + compiled.getVariableName(slot)
+                            + " at line " + line);
+                }
+                columns[slot][row] = defaults[slot].round(mc);
+            }
+        }
+    }
+
+    /**
+     * Returns the end of the field starting at {@code start}: the first separator outside quotes,
+     * or {@code end}.
+     */
+    private int fieldEnd(ByteBuffer window, int start, int end) {
+        boolean quoted = false;
+        int p = start;
+        for (byte b; p < end && ((b = window.get(p)) != separator || quoted); p++) {
+            if (b == '"') {
+                quoted = !quoted;
+            }
+        }
+        return p;
+    }
+
+    private BigDecimal parseNumber(ByteBuffer window, int start, int end, long line) {
+        while (start < end && window.get(start) == ' ') start++;
+        while (end > start && window.get(end - 1) == ' ') end--;
+        if (end - start >= 2 && window.get(start) == '"' && window.get(end - 1) == '"') {
+            start++;
+            end--;
+        }
+        if (start == end) {
+            return null;
+        }
+        int p = start;
+        boolean negative = false;
+        byte b = window.get(p);
+        if (b == '-' || b == '+') {
+            negative = b == '-';
+            p++;
+        }
+        long unscaled = 0;
+        boolean digit = false;
+        int digitCount = 0;
+        int scale = 0;
+        boolean point = false;
+        for (; p < end; p++) {
+            b = window.get(p);
+            if (b >= '0' && b <= '9') {
+                digit = true;
+                if (digitCount > 0 || b != '0') {
+                    digitCount++;
+                }
+                unscaled = unscaled * 10 + (b - '0');
+                if (point) {
+                    scale++;
+                }
+            } else if (b == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (digit && p < end && (window.get(p) == 'e' || window.get(p) == 'E')) {
+            int exponent = 0;
+            boolean negativeExponent = false;
+            int q = p + 1;
+            if (q < end && (window.get(q) == '-' || window.get(q) == '+')) {
+                negativeExponent = window.get(q) == '-';
+                q++;
+            }
+            if (q == end) {
+                throw invalid(window, start, end, line);
+            }
+            for (; q < end; q++) {
+                b = window.get(q);
+                if (b < '0' || b > '9' || exponent > 99999999) {
+                    throw invalid(window, start, end, line);
+                }
+                exponent = exponent * 10 + (b - '0');
+            }
+            scale += negativeExponent ? exponent : -exponent;
+            p = end;
+        }
+        if (p != end || !digit) {
+            throw invalid(window, start, end, line);
+        }
+        if (digitCount > 18) {
+            return slowParse(window, start, end);
+        }
+        return BigDecimal.valueOf(negative ? -unscaled : unscaled, scale);
+    }
+
+    private BigDecimal slowParse(ByteBuffer window, int start, int end) {
+        if (digits.length < end - start) {
+            digits = new char[Math.max(digits.length * 2, end - start)];
+        }
+        for (int i = start; i < end; i++) {
+            digits[i - start] = (char) window.get(i);
+        }
+        return new BigDecimal(digits, 0, end - start);
+    }
+
+    private NumberFormatException invalid(ByteBuffer window, int start, int end, long line) {
+        byte[] bytes = new byte[end - start];
+        window.get(start, bytes);
+        return new NumberFormatException("Invalid number '" + new String(bytes, StandardCharsets.UTF_8)
+                + "' at line " + line);
+    }
+
+    private void flushChunk(ByteBuffer window, int count) throws IOException {
+        BigDecimal[] results = compiled.evalBatch(columns, count);
+        for (int row = 0; row < count; row++) {
+            write(window, lineStarts[row], lineEnds[row]);
+            writeField(results[row].stripTrailingZeros().toString());
+        }
+    }
+
+    private void write(ByteBuffer window, int start, int end) throws IOException {
+        if (end - start > out.remaining()) {
+            drain();
+            if (end - start > out.capacity()) {
+                output.write(window.slice(start, end - start));
+                return;
+            }
+        }
+        out.put(out.position(), window, start, end - start);
+        out.position(out.position() + end - start);
+    }
+
+    private String quote(String field) {
+        if (field.indexOf(separator) < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0
+                && field.indexOf('\r') < 0) {
+            return field;
+        }
+        return '"' + field.replace("\"", "\"\"") + '"';
+    }
+
+    private void writeField(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length + 2 > out.remaining()) {
+            drain();
+        }
+        out.put((byte) separator);
+        out.put(bytes);
+        out.put((byte) '\n');
+    }
+
+    private void drain() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            output.write(out);
+        }
+        out.clear();
+    }
+}
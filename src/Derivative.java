@@ -0,0 +1,308 @@
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Differentiates a compiled node tree symbolically with respect to one variable slot.
+ * <p>
+ * The chain rule is applied across the built-in arithmetic operators and the functions that have
+ * a derivative; trigonometric functions work in degrees, so their rules carry a factor of
+ * {@code PI/180}. Comparisons, {@code FLOOR}, {@code CEILING} and the boolean functions are
+ * piecewise constant and differentiate to zero; {@code IF} and {@code SWITCH} keep their
+ * conditions and differentiate their results. Operators and functions are matched by identity
+ * against {@link Registry#DEFAULT}, like {@link Optimizer}, so a replaced built-in, a custom
+ * function or {@code %} is rejected with an {@link IllegalArgumentException}.
+ * <p>
+ * Zeros and ones are dropped while the tree is built; the result is meant to be compiled through
+ * {@link CompiledExpression#CompiledExpression(CompiledExpression.Node, CompiledExpression)},
+ * which folds and shares the rest.
+ */
+final class Derivative {
+
+    private static final Map<String, Operator> OPERATORS = Registry.DEFAULT.getOperators();
+    private static final Map<String, LazyFunction> FUNCTIONS = Registry.DEFAULT.getFunctions();
+
+    private static final CompiledExpression.Constant ZERO = new CompiledExpression.Constant(BigDecimal.ZERO);
+    private static final CompiledExpression.Constant ONE = new CompiledExpression.Constant(BigDecimal.ONE);
+
+    private final int slot;
+    private final MathContext mc;
+    private CompiledExpression.Node radians;
+    private CompiledExpression.Node degrees;
+    private final Map<CompiledExpression.Node, CompiledExpression.Node> plain = new IdentityHashMap<>();
+    private final Map<CompiledExpression.Node, CompiledExpression.Node> derived = new IdentityHashMap<>();
+
+    private Derivative(int slot, MathContext mc) {
+        this.slot = slot;
+        this.mc = mc;
+    }
+
+    /**
+     * Returns the derivative of {@code f} with respect to the variable in {@code slot}, compiled
+     * with the variables, defaults and precision of {@code f}.
+     */
+    static CompiledExpression of(CompiledExpression f, int slot) {
+        return new CompiledExpression(new Derivative(slot, f.getMathContext()).derive(f.getRoot()), f);
+    }
+
+    /**
+     * Returns {@code node} without its memo wrappers, which only make sense in the frame of the
+     * expression they were compiled for.
+     */
+    static CompiledExpression.Node unshare(CompiledExpression.Node node) {
+        return new Derivative(-1, MathContext.UNLIMITED).strip(node);
+    }
+
+    private CompiledExpression.Node strip(CompiledExpression.Node node) {
+        CompiledExpression.Node result = plain.get(node);
+        if (result != null) {
+            return result;
+        }
+        if (node instanceof CompiledExpression.Shared) {
+            result = strip(((CompiledExpression.Shared) node).node);
+        } else if (node instanceof CompiledExpression.Binary) {
+            CompiledExpression.Binary binary = (CompiledExpression.Binary) node;
+            result = new CompiledExpression.Binary(binary.operator, strip(binary.left), strip(binary.right), binary.mc);
+        } else if (node instanceof CompiledExpression.Call) {
+            CompiledExpression.Call call = (CompiledExpression.Call) node;
+            result = new CompiledExpression.Call(call.function, strip(call.params), call.mc);
+        } else if (node instanceof CompiledExpression.LazyCall) {
+            CompiledExpression.LazyCall call = (CompiledExpression.LazyCall) node;
+            result = new CompiledExpression.LazyCall(call.function, strip(call.params), call.mc);
+        } else {
+            result = node;
+        }
+        plain.put(node, result);
+        return result;
+    }
+
+    private CompiledExpression.Node[] strip(CompiledExpression.Node[] nodes) {
+        CompiledExpression.Node[] result = new CompiledExpression.Node[nodes.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = strip(nodes[i]);
+        }
+        return result;
+    }
+
+    private CompiledExpression.Node derive(CompiledExpression.Node node) {
+        CompiledExpression.Node result = derived.get(node);
+        if (result == null) {
+            result = differentiate(node);
+            derived.put(node, result);
+        }
+        return result;
+    }
+
+    private CompiledExpression.Node differentiate(CompiledExpression.Node node) {
+        if (node instanceof CompiledExpression.Shared) {
+            return derive(((CompiledExpression.Shared) node).node);
+        }
+        if (node instanceof CompiledExpression.Constant) {
+            return ZERO;
+        }
+        if (node instanceof CompiledExpression.Variable) {
+            return ((CompiledExpression.Variable) node).slot == slot ? ONE : ZERO;
+        }
+        if (node instanceof CompiledExpression.Binary) {
+            return differentiate((CompiledExpression.Binary) node);
+        }
+        LazyFunction function;
+        CompiledExpression.Node[] params;
+        if (node instanceof CompiledExpression.Call) {
+            function = ((CompiledExpression.Call) node).function;
+            params = ((CompiledExpression.Call) node).params;
+        } else {
+            function = ((CompiledExpression.LazyCall) node).function;
+            params = ((CompiledExpression.LazyCall) node).params;
+        }
+        if (FUNCTIONS.get(function.getName()) != function) {
+            throw new IllegalArgumentException("Cannot differentiate function " + function.getName());
+        }
+        switch (function.getName()) {
+            case "FLOOR":
+            case "CEILING":
+            case "NOT":
+            case "AND":
+            case "OR":
+                return ZERO;
+            case "IF": {
+                CompiledExpression.Node then = derive(params[1]);
+                CompiledExpression.Node otherwise = derive(params[2]);
+                if (isZero(then) && isZero(otherwise)) {
+                    return ZERO;
+                }
+                return new CompiledExpression.LazyCall(function,
+                        new CompiledExpression.Node[]{strip(params[0]), then, otherwise}, mc);
+            }
+            case "SWITCH": {
+                CompiledExpression.Node[] results = strip(params);
+                boolean constant = true;
+                for (int i = 2; i < results.length; i += 2) {
+                    results[i] = derive(params[i]);
+                    constant &= isZero(results[i]);
+                }
+                if (results.length % 2 == 0) {
+                    results[results.length - 1] = derive(params[params.length - 1]);
+                    constant &= isZero(results[results.length - 1]);
+                }
+                return constant ? ZERO : new CompiledExpression.LazyCall(function, results, mc);
+            }
+            default:
+                return chain(function, strip(params[0]), derive(params[0]));
+        }
+    }
+
+    private CompiledExpression.Node differentiate(CompiledExpression.Binary node) {
+        Operator operator = node.operator;
+        if (OPERATORS.get(operator.getOper()) != operator) {
+            throw new IllegalArgumentException("Cannot differentiate operator " + operator.getOper());
+        }
+        switch (operator.getOper()) {
+            case "+":
+                return add(derive(node.left), derive(node.right));
+            case "-":
+                return subtract(derive(node.left), derive(node.right));
+            case "*":
+                return add(multiply(derive(node.left), strip(node.right)),
+                        multiply(strip(node.left), derive(node.right)));
+            case "/": {
+                CompiledExpression.Node denominator = strip(node.right);
+                CompiledExpression.Node dr = derive(node.right);
+                if (isZero(dr)) {
+                    return divide(derive(node.left), denominator);
+                }
+                return divide(subtract(multiply(derive(node.left), denominator), multiply(strip(node.left), dr)),
+                        multiply(denominator, denominator));
+            }
+            case "^": {
+                CompiledExpression.Node base = strip(node.left);
+                CompiledExpression.Node exponent = strip(node.right);
+                CompiledExpression.Node dl = derive(node.left);
+                CompiledExpression.Node dr = derive(node.right);
+                if (isZero(dr)) {
+                    // r * l^(r-1) * l'
+                    return multiply(multiply(exponent, binary("^", base, subtract(exponent, ONE))), dl);
+                }
+                // l^r * (r' * LOG(l) + r * l' / l)
+                return multiply(strip(node), add(multiply(dr, call("LOG", base)),
+                        divide(multiply(exponent, dl), base)));
+            }
+            case "=":
+            case "==":
+            case "!=":
+            case "<>":
+            case "<":
+            case "<=":
+            case ">":
+            case ">=":
+            case "&&":
+            case "||":
+                return ZERO;
+            default:
+                throw new IllegalArgumentException("Cannot differentiate operator " + operator.getOper());
+        }
+    }
+
+    /**
+     * The derivative of {@code function(u)}, given {@code du}.
+     */
+    private CompiledExpression.Node chain(LazyFunction function, CompiledExpression.Node u, CompiledExpression.Node du) {
+        if (isZero(du)) {
+            return ZERO;
+        }
+        switch (function.getName()) {
+            case "SIN":
+                return multiply(multiply(call("COS", u), radians()), du);
+            case "COS":
+                return subtract(ZERO, multiply(multiply(call("SIN", u), radians()), du));
+            case "TAN": {
+                CompiledExpression.Node cos = call("COS", u);
+                return divide(multiply(radians(), du), multiply(cos, cos));
+            }
+            case "ASIN":
+                return divide(multiply(degrees(), du), call("SQRT", subtract(ONE, multiply(u, u))));
+            case "ACOS":
+                return subtract(ZERO, divide(multiply(degrees(), du), call("SQRT", subtract(ONE, multiply(u, u)))));
+            case "ATAN":
+                return divide(multiply(degrees(), du), add(ONE, multiply(u, u)));
+            case "SINH":
+                return multiply(call("COSH", u), du);
+            case "COSH":
+                return multiply(call("SINH", u), du);
+            case "TANH": {
+                CompiledExpression.Node cosh = call("COSH", u);
+                return divide(du, multiply(cosh, cosh));
+            }
+            case "RAD":
+                return multiply(radians(), du);
+            case "DEG":
+                return multiply(degrees(), du);
+            case "ABS":
+                return divide(multiply(u, du), call("ABS", u));
+            case "LOG":
+                return divide(du, u);
+            case "LOG10":
+                return divide(du, multiply(u, new CompiledExpression.Constant(BigMath.log(BigDecimal.TEN, mc))));
+            case "SQRT":
+                return divide(du, multiply(new CompiledExpression.Constant(BigDecimal.valueOf(2)), call("SQRT", u)));
+            default:
+                throw new IllegalArgumentException("Cannot differentiate function " + function.getName());
+        }
+    }
+
+    /**
+     * {@code PI/180}, the derivative of a radian angle with respect to its value in degrees.
+     */
+    private CompiledExpression.Node radians() {
+        if (radians == null) {
+            radians = new CompiledExpression.Constant(BigMath.constant(BigMath.PI, mc).divide(BigDecimal.valueOf(180), mc));
+        }
+        return radians;
+    }
+
+    private CompiledExpression.Node degrees() {
+        if (degrees == null) {
+            degrees = new CompiledExpression.Constant(BigDecimal.valueOf(180).divide(BigMath.constant(BigMath.PI, mc), mc));
+        }
+        return degrees;
+    }
+
+    private CompiledExpression.Node add(CompiledExpression.Node left, CompiledExpression.Node right) {
+        if (isZero(left)) {
+            return right;
+        }
+        return isZero(right) ? left : binary("+", left, right);
+    }
+
+    private CompiledExpression.Node subtract(CompiledExpression.Node left, CompiledExpression.Node right) {
+        return isZero(right) ? left : binary("-", left, right);
+    }
+
+    private CompiledExpression.Node multiply(CompiledExpression.Node left, CompiledExpression.Node right) {
+        if (isZero(left) || isZero(right)) {
+            return ZERO;
+        }
+        if (left == ONE) {
+            return right;
+        }
+        return right == ONE ? left : binary("*", left, right);
+    }
+
+    private CompiledExpression.Node divide(CompiledExpression.Node left, CompiledExpression.Node right) {
+        return isZero(left) ? ZERO : binary("/", left, right);
+    }
+
+    private CompiledExpression.Node binary(String oper, CompiledExpression.Node left, CompiledExpression.Node right) {
+        return new CompiledExpression.Binary(OPERATORS.get(oper), left, right, mc);
+    }
+
+    private CompiledExpression.Node call(String name, CompiledExpression.Node param) {
+        return new CompiledExpression.Call((Function) FUNCTIONS.get(name), new CompiledExpression.Node[]{param}, mc);
+    }
+
+    private static boolean isZero(CompiledExpression.Node node) {
+        return node instanceof CompiledExpression.Constant
+                && ((CompiledExpression.Constant) node).value.signum() == 0;
+    }
+}
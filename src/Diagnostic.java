@@ -0,0 +1,86 @@
+import java.util.List;
+
+/**
+ * One problem found while scanning or parsing an expression: what went wrong, where, and the
+ * offending symbol if there is one.
+ * <p>
+ * {@link Expression#validate()} collects every diagnostic of an expression in one pass without
+ * throwing or printing anything; the message text is only built when {@link #getMessage()} is
+ * called.
+ */
+final class Diagnostic {
+
+    enum Code {
+        UNKNOWN_OPERATOR("Unknown operator '", "'"),
+        INVALID_NUMBER("Invalid number '", "'"),
+        MISSING_OPERAND("Missing parameter(s) for operator ", ""),
+        MISSING_OPERATOR("Missing operator", null),
+        MISPLACED_COMMA("Parse error for function '", "'"),
+        MISMATCHED_PARENTHESES("Mismatched parentheses", null),
+        UNKNOWN_FUNCTION("Unknown operator or function: ", ""),
+        TOO_MANY_FUNCTION_CALLS("Too many function calls, maximum scope exceeded", null),
+        TOO_MANY_PARAMETERS("Too many parameters for function ", ""),
+        UNCLOSED_FUNCTION("Too many unhandled function parameter lists", null),
+        TOO_MANY_VALUES("Too many numbers or variables", null),
+        EMPTY_EXPRESSION("Empty expression", null);
+
+        private final String prefix;
+        private final String suffix;
+
+        Code(String prefix, String suffix) {
+            this.prefix = prefix;
+            this.suffix = suffix;
+        }
+    }
+
+    private final Code code;
+    private final int position;
+    private final String symbol;
+
+    Diagnostic(Code code, int position, String symbol) {
+        this.code = code;
+        this.position = position;
+        this.symbol = symbol;
+    }
+
+    /**
+     * Adds a diagnostic to {@code diagnostics}, or prints it as a stackless
+     * {@link ExpressionException} when there is no list to collect into.
+     */
+    static void report(List<Diagnostic> diagnostics, Code code, int position, String symbol) {
+        Diagnostic diagnostic = new Diagnostic(code, position, symbol);
+        if (diagnostics != null) {
+            diagnostics.add(diagnostic);
+        } else {
+            new ExpressionException(diagnostic.getMessage()).printStackTrace();
+        }
+    }
+
+    Code getCode() {
+        return code;
+    }
+
+    /**
+     * Zero-based character offset into the expression text.
+     */
+    int getPosition() {
+        return position;
+    }
+
+    String getSymbol() {
+        return symbol;
+    }
+
+    String getMessage() {
+        StringBuilder message = new StringBuilder(code.prefix);
+        if (code.suffix != null) {
+            message.append(symbol).append(code.suffix);
+        }
+        return message.append(" at character position ").append(position).toString();
+    }
+
+    @Override
+    public String toString() {
+        return code + ": " + getMessage();
+    }
+}
@@ -0,0 +1,7 @@
+/**
+ * A {@code double} evaluator generated by {@link BytecodeCompiler}. Function arguments are passed
+ * through an array owned by the instance, so an instance must be confined to one thread at a time.
+ */
+public interface DoubleEvaluator {
+    double evaluate(double[] values);
+}
@@ -0,0 +1,193 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class DoubleExpression {
+
+    private static final int CONSTANT = 0;
+    private static final int VARIABLE = 1;
+    private static final int OPERATOR = 2;
+    private static final int FUNCTION = 3;
+    private static final int STORE = 4;
+    private static final int LOAD = 5;
+
+    private final int[] code;
+    private final double[] constants;
+    private final Operator[] operators;
+    private final LazyFunction[] functions;
+    private final String[] variableNames;
+    private final int maxStack;
+    private final int memoCount;
+
+    DoubleExpression(CompiledExpression compiled) {
+        Emitter emitter = new Emitter();
+        emitter.emit(compiled.getRoot());
+
+        this.code = new int[emitter.code.size()];
+        for (int i = 0; i < this.code.length; i++) {
+            this.code[i] = emitter.code.get(i);
+        }
+        this.constants = new double[emitter.constants.size()];
+        for (int i = 0; i < this.constants.length; i++) {
+            this.constants[i] = emitter.constants.get(i);
+        }
+        this.operators = emitter.operators.toArray(new Operator[0]);
+        this.functions = emitter.functions.toArray(new LazyFunction[0]);
+        this.variableNames = compiled.getVariableNames();
+        this.maxStack = emitter.stackMax;
+        this.memoCount = emitter.memos.size();
+    }
+
+    String[] getVariableNames() {
+        return variableNames.clone();
+    }
+
+    double[] newStack() {
+        return new double[Math.max(maxStack, 1) + memoCount];
+    }
+
+    double eval(double[] values) {
+        return eval(values, newStack());
+    }
+
+    double eval(double[] values, double[] stack) {
+        int sp = 0;
+        int memo = Math.max(maxStack, 1);
+        for (int pc = 0; pc < code.length; ) {
+            switch (code[pc++]) {
+                case CONSTANT:
+                    stack[sp++] = constants[code[pc++]];
+                    break;
+                case VARIABLE:
+                    stack[sp++] = values[code[pc++]];
+                    break;
+                case STORE:
+                    stack[memo + code[pc++]] = stack[sp - 1];
+                    break;
+                case LOAD:
+                    stack[sp++] = stack[memo + code[pc++]];
+                    break;
+                case OPERATOR:
+                    sp--;
+                    stack[sp - 1] = operators[code[pc++]].eval(stack[sp - 1], stack[sp]);
+                    break;
+                default:
+                    LazyFunction function = functions[code[pc++]];
+                    int count = code[pc++];
+                    sp -= count;
+                    stack[sp] = function.eval(stack, sp, count);
+                    sp++;
+            }
+        }
+        return stack[0];
+    }
+
+    double[] evalBatch(double[][] columns, int rows) {
+        double[][] scratch = new double[Math.max(maxStack, 1)][rows];
+        double[][] stack = new double[scratch.length][];
+        double[][] memo = new double[memoCount][];
+        int sp = 0;
+        for (int pc = 0; pc < code.length; ) {
+            switch (code[pc++]) {
+                case CONSTANT:
+                    Arrays.fill(scratch[sp], 0, rows, constants[code[pc++]]);
+                    stack[sp] = scratch[sp];
+                    sp++;
+                    break;
+                case VARIABLE:
+                    stack[sp++] = columns[code[pc++]];
+                    break;
+                case STORE:
+                    memo[code[pc++]] = Arrays.copyOf(stack[sp - 1], rows);
+                    break;
+                case LOAD:
+                    stack[sp++] = memo[code[pc++]];
+                    break;
+                case OPERATOR:
+                    sp--;
+                    operators[code[pc++]].eval(stack[sp - 1], stack[sp], scratch[sp - 1], rows);
+                    stack[sp - 1] = scratch[sp - 1];
+                    break;
+                default:
+                    LazyFunction function = functions[code[pc++]];
+                    int count = code[pc++];
+                    sp -= count;
+                    function.eval(stack, sp, count, scratch[sp], rows);
+                    stack[sp] = scratch[sp];
+                    sp++;
+            }
+        }
+        return stack[0] == scratch[0] ? scratch[0] : Arrays.copyOf(stack[0], rows);
+    }
+
+    /**
+     * The program as it is being built; only used by the constructor.
+     */
+    private static final class Emitter {
+        private final List<Integer> code = new ArrayList<>();
+        private final List<Double> constants = new ArrayList<>();
+        private final List<Operator> operators = new ArrayList<>();
+        private final List<LazyFunction> functions = new ArrayList<>();
+        private final Map<CompiledExpression.Node, Integer> memos = new IdentityHashMap<>();
+        private int stackDepth;
+        private int stackMax;
+
+        void emit(CompiledExpression.Node node) {
+            if (node instanceof CompiledExpression.Constant) {
+                constants.add(((CompiledExpression.Constant) node).value.doubleValue());
+                code.add(CONSTANT);
+                code.add(constants.size() - 1);
+                push(1);
+            } else if (node instanceof CompiledExpression.Variable) {
+                code.add(VARIABLE);
+                code.add(((CompiledExpression.Variable) node).slot);
+                push(1);
+            } else if (node instanceof CompiledExpression.Shared) {
+                Integer memo = memos.get(node);
+                if (memo == null) {
+                    emit(((CompiledExpression.Shared) node).node);
+                    memo = memos.size();
+                    memos.put(node, memo);
+                    code.add(STORE);
+                } else {
+                    code.add(LOAD);
+                    push(1);
+                }
+                code.add(memo);
+            } else if (node instanceof CompiledExpression.Binary) {
+                CompiledExpression.Binary binary = (CompiledExpression.Binary) node;
+                emit(binary.left);
+                emit(binary.right);
+                operators.add(binary.operator);
+                code.add(OPERATOR);
+                code.add(operators.size() - 1);
+                push(-1);
+            } else {
+                CompiledExpression.Node[] params;
+                LazyFunction function;
+                if (node instanceof CompiledExpression.Call) {
+                    params = ((CompiledExpression.Call) node).params;
+                    function = ((CompiledExpression.Call) node).function;
+                } else {
+                    params = ((CompiledExpression.LazyCall) node).params;
+                    function = ((CompiledExpression.LazyCall) node).function;
+                }
+                for (CompiledExpression.Node param : params) {
+                    emit(param);
+                }
+                functions.add(function);
+                code.add(FUNCTION);
+                code.add(functions.size() - 1);
+                code.add(params.length);
+                push(1 - params.length);
+            }
+        }
+
+        private void push(int delta) {
+            stackDepth += delta;
+            stackMax = Math.max(stackMax, stackDepth);
+        }
+    }
+}
@@ -6,420 +6,284 @@ import java.util.*;
 
 public class Expression {
 
-    private static final BigDecimal PI = new BigDecimal("3.14159");
-    private static final BigDecimal e = new BigDecimal("2.71");
     private MathContext mc = null;
     private String expression = null;
-    private List<String> rpn = null;
-    private Map<String, Operator> operators = new HashMap<>();
-    private Map<String,LazyFunction> functions = new HashMap<>();
-    private Map<String, BigDecimal> variables = new HashMap<>();
+    private Program program = null;
+    private CompiledExpression compiled = null;
+    private BigDecimal[] values = null;
+    private DoubleExpression doubleExpression = null;
+    private double[] doubleValues = null;
+    private boolean doubleValuesBound = false;
+    private double[] doubleStack = null;
+    private DoubleEvaluator bytecode = null;
+    private CompiledExpression adaptive = null;
+    private BigDecimal[] adaptiveValues = null;
+    private IntervalExpression interval = null;
+    private ScaledExpression scaled = null;
+    private boolean scaledCompiled = false;
+    private Solver solver = null;
+    private Registry registry;
+    private Map<String, BigDecimal> variables;
+    private Map<String, String> formulas = null;
+    private Map<String, CompiledExpression> links = null;
     private static final char decimalSeparator = '.';
-
-    private static final LazyNumber PARAMS_START = () -> null;
+    private static final int ADAPTIVE_GUARD_DIGITS = 10;
 
     Expression(String expression) {
-        this(expression, MathContext.DECIMAL32);
+        this(expression, MathContext.DECIMAL32, Registry.DEFAULT);
     }
 
-    private Expression(String expression, MathContext defaultMathContext) {
+    Expression(String expression, Registry registry) {
+        this(expression, MathContext.DECIMAL32, registry);
+    }
 
+    private Expression(String expression, MathContext defaultMathContext, Registry registry) {
         this.mc = defaultMathContext;
         this.expression = expression;
+        setRegistry(registry);
+        this.variables = registry.getConstants();
+    }
 
-        addOperator(new Operator("+", 2, true) {
-            @Override
-            public BigDecimal eval(BigDecimal v1, BigDecimal v2) {
-                return v1.add(v2, mc);
-            }
-        });
-
-        addOperator(new Operator("-", 2, true) {
-            @Override
-            public BigDecimal eval(BigDecimal v1, BigDecimal v2) {
-                return v1.subtract(v2, mc);
-            }
-        });
-
-        addOperator(new Operator("*", 3, true) {
-            @Override
-            public BigDecimal eval(BigDecimal v1, BigDecimal v2) {
-                return v1.multiply(v2, mc);
-            }
-        });
-
-        addOperator(new Operator("/", 3, true) {
-            @Override
-            public BigDecimal eval(BigDecimal v1, BigDecimal v2) {
-                return v1.divide(v2, mc);
-            }
-        });
-
-        addOperator(new Operator("%", 3, true) {
-            @Override
-            public BigDecimal eval(BigDecimal v1, BigDecimal v2) {
-                return v1.remainder(v2, mc);
-            }
-        });
-
-        addOperator(new Operator("^", 4, false) {
-            @Override
-            public BigDecimal eval(BigDecimal v1, BigDecimal v2) {
-                double n1 = v1.doubleValue();
-                double n2 = v2.doubleValue();
-                double res = Math.pow(n1,n2);
-                return new BigDecimal(res,mc);
-            }
-        });
-
-        addFunction(new Function("SIN") {
-            @Override
-            public BigDecimal eval(List<BigDecimal> parameters) {
-                double d = Math.sin(Math.toRadians(parameters.get(0).doubleValue()));
-                return new BigDecimal(d, mc);
-            }
-        });
-
-        addFunction(new Function("COS") {
-            @Override
-            public BigDecimal eval(List<BigDecimal> parameters) {
-                double d = Math.cos(Math.toRadians(parameters.get(0).doubleValue()));
-                return new BigDecimal(d, mc);
-            }
-        });
-
-        addFunction(new Function("TAN") {
-            @Override
-            public BigDecimal eval(List<BigDecimal> parameters) {
-                double d = Math.tan(Math.toRadians(parameters.get(0)
-                        .doubleValue()));
-                return new BigDecimal(d, mc);
-            }
-        });
-
-        addFunction(new Function("ASIN") { // added by av
-            @Override
-            public BigDecimal eval(List<BigDecimal> parameters) {
-                double d = Math.toDegrees(Math.asin(parameters.get(0)
-                        .doubleValue()));
-                return new BigDecimal(d, mc);
-            }
-        });
-
-        addFunction(new Function("ACOS") { // added by av
-            @Override
-            public BigDecimal eval(List<BigDecimal> parameters) {
-                double d = Math.toDegrees(Math.acos(parameters.get(0)
-                        .doubleValue()));
-                return new BigDecimal(d, mc);
-            }
-        });
-
-        addFunction(new Function("ATAN") { // added by av
-            @Override
-            public BigDecimal eval(List<BigDecimal> parameters) {
-                double d = Math.toDegrees(Math.atan(parameters.get(0)
-                        .doubleValue()));
-                return new BigDecimal(d, mc);
-            }
-        });
-
-        addFunction(new Function("SINH") {
-            @Override
-            public BigDecimal eval(List<BigDecimal> parameters) {
-                double d = Math.sinh(parameters.get(0).doubleValue());
-                return new BigDecimal(d, mc);
-            }
-        });
-
-        addFunction(new Function("COSH") {
-            @Override
-            public BigDecimal eval(List<BigDecimal> parameters) {
-                double d = Math.cosh(parameters.get(0).doubleValue());
-                return new BigDecimal(d, mc);
-            }
-        });
-
-        addFunction(new Function("TANH") {
-            @Override
-            public BigDecimal eval(List<BigDecimal> parameters) {
-                double d = Math.tanh(parameters.get(0).doubleValue());
-                return new BigDecimal(d, mc);
-            }
-        });
-
-        addFunction(new Function("RAD") {
-            @Override
-            public BigDecimal eval(List<BigDecimal> parameters) {
-                double d = Math.toRadians(parameters.get(0).doubleValue());
-                return new BigDecimal(d, mc);
-            }
-        });
+    private boolean isNumber(String st) {
+        if (st.charAt(0) == '-' && st.length() == 1) return false;
+        if (st.charAt(0) == '+' && st.length() == 1) return false;
+        if (st.charAt(0) == 'e' ||  st.charAt(0) == 'E') return false;
+        for (char ch : st.toCharArray())
+            if (!Character.isDigit(ch) && ch != '-' && ch != decimalSeparator && ch != 'e' && ch != 'E' && ch != '+')
+                return false;
+        return true;
+    }
 
-        addFunction(new Function("DEG") {
-            @Override
-            public BigDecimal eval(List<BigDecimal> parameters) {
-                double d = Math.toDegrees(parameters.get(0).doubleValue());
-                return new BigDecimal(d, mc);
-            }
-        });
+    BigDecimal eval() {
+        CompiledExpression compiled = getCompiled();
+        for (int i = 0; i < compiled.getVariableCount(); i++) {
+            values[i] = resolve(compiled.getVariableName(i), 0);
+        }
+        return compiled.eval(values);
+    }
 
-        addFunction(new Function("ABS") {
-            @Override
-            public BigDecimal eval(List<BigDecimal> parameters) {
-                return parameters.get(0).abs(mc);
+    /**
+     * Evaluates like {@link #eval()}, but first in {@code double} interval arithmetic, falling back
+     * to {@code BigDecimal} only when the interval cannot decide the rounded result; see
+     * {@link IntervalExpression}. Either way the result is the value of the expression rounded
+     * to the precision: the fallback works with a few guard digits and rounds at the end, so unlike
+     * {@link #eval()} intermediate results are not rounded to the requested precision.
+     * <p>
+     * That only holds for {@code HALF_EVEN} and {@code HALF_UP}. Under any other rounding mode
+     * the guard digits cannot tell a value just below a boundary from one exactly on it, so
+     * this returns what {@link #eval()} does.
+     */
+    BigDecimal evalAdaptive() {
+        if (mc.getRoundingMode() != RoundingMode.HALF_EVEN && mc.getRoundingMode() != RoundingMode.HALF_UP) {
+            return eval();
+        }
+        CompiledExpression adaptive = getAdaptive();
+        for (int i = 0; i < adaptive.getVariableCount(); i++) {
+            adaptiveValues[i] = resolve(adaptive.getVariableName(i), 0).round(mc);
+        }
+        if (interval != null) {
+            BigDecimal result = interval.eval(adaptiveValues, mc);
+            if (result != null) {
+                return result;
             }
-        });
+        } else {
+            IntervalExpression.miss();
+        }
+        return adaptive.eval(adaptiveValues).round(mc).stripTrailingZeros();
+    }
 
-        addFunction(new Function("LOG") {
-            @Override
-            public BigDecimal eval(List<BigDecimal> parameters) {
-                double d = Math.log(parameters.get(0).doubleValue());
-                return new BigDecimal(d, mc);
+    /**
+     * Evaluates like {@link #eval()} and returns the same result, but works on scaled
+     * {@code long} values when the expression only uses {@code + - * / %}, falling back to
+     * {@code BigDecimal} on overflow or any step that needs it; see {@link ScaledExpression}.
+     */
+    BigDecimal evalScaled() {
+        CompiledExpression compiled = getCompiled();
+        for (int i = 0; i < compiled.getVariableCount(); i++) {
+            values[i] = resolve(compiled.getVariableName(i), 0);
+        }
+        if (!scaledCompiled) {
+            scaled = ScaledExpression.compile(compiled);
+            scaledCompiled = true;
+        }
+        if (scaled != null) {
+            BigDecimal result = scaled.eval(values);
+            if (result != null) {
+                return result;
             }
-        });
+        } else {
+            ScaledExpression.miss();
+        }
+        return compiled.eval(values);
+    }
 
-        addFunction(new Function("LOG10") {
-            @Override
-            public BigDecimal eval(List<BigDecimal> parameters) {
-                double d = Math.log10(parameters.get(0).doubleValue());
-                return new BigDecimal(d, mc);
+    /**
+     * Returns the value of {@code variable} near {@code guess} that makes this expression zero, or
+     * both sides of it equal if it is an equation; the other variables are bound as for
+     * {@link #eval()}. See {@link Solver}.
+     */
+    BigDecimal solve(String variable, BigDecimal guess) {
+        CompiledExpression compiled = getCompiled();
+        Solver solver = getSolver(compiled, variable);
+        BigDecimal[] slots = compiled.newSlots();
+        for (int i = 0; i < compiled.getVariableCount(); i++) {
+            if (!compiled.getVariableName(i).equals(variable)) {
+                slots[i] = resolve(compiled.getVariableName(i), 0);
             }
-        });
+        }
+        return solver.solve(slots, BigMath.constant(guess, mc));
+    }
 
-        addFunction(new Function("FLOOR") {
-            @Override
-            public BigDecimal eval(List<BigDecimal> parameters) {
-                BigDecimal toRound = parameters.get(0);
-                return toRound.setScale(0, RoundingMode.FLOOR);
-            }
-        });
+    private Solver getSolver(CompiledExpression compiled, String variable) {
+        if (solver == null || !solver.getVariable().equals(variable)) {
+            solver = new Solver(compiled, variable);
+        }
+        return solver;
+    }
 
-        addFunction(new Function("CEILING") {
-            @Override
-            public BigDecimal eval(List<BigDecimal> parameters) {
-                BigDecimal toRound = parameters.get(0);
-                return toRound.setScale(0, RoundingMode.CEILING);
-            }
-        });
-
-        addFunction(new Function("SQRT") {
-            @Override
-            public BigDecimal eval(List<BigDecimal> parameters) {
-                double n1 = parameters.get(0).doubleValue();
-                double res = Math.sqrt(n1);
-                return new BigDecimal(res,mc);
+    /**
+     * Evaluates in {@code double}; see {@link DoubleExpression}. Variables are resolved once and
+     * kept until one of them is set again, so repeated calls only run the program.
+     */
+    double evalDouble() {
+        DoubleExpression doubleExpression = getDoubleExpression();
+        if (!doubleValuesBound) {
+            for (int i = 0; i < doubleValues.length; i++) {
+                doubleValues[i] = resolve(compiled.getVariableName(i), 0).doubleValue();
             }
-        });
-
-        variables.put("e", e);
-        variables.put("PI", PI);
-
+            doubleValuesBound = true;
+        }
+        if (Metrics.enabled) {
+            ExpressionEvalEvent event = new ExpressionEvalEvent();
+            event.begin();
+            long start = Metrics.start();
+            double result = doubleExpression.eval(doubleValues, doubleStack);
+            Metrics.record(Metrics.EVAL_DOUBLE, start);
+            compiled.commit(event, "double");
+            return result;
+        }
+        return doubleExpression.eval(doubleValues, doubleStack);
     }
 
-    private boolean isNumber(String st) {
-        if (st.charAt(0) == '-' && st.length() == 1) return false;
-        if (st.charAt(0) == '+' && st.length() == 1) return false;
-        if (st.charAt(0) == 'e' ||  st.charAt(0) == 'E') return false;
-        for (char ch : st.toCharArray())
-            if (!Character.isDigit(ch) && ch != '-' && ch != decimalSeparator && ch != 'e' && ch != 'E' && ch != '+')
-                return false;
-        return true;
+    BigDecimal[] evalBatch(Map<String, BigDecimal[]> columns, int rows) {
+        BigDecimal[] result = evalBatch(getCompiled(), columns, rows, 0);
+        for (int row = 0; row < rows; row++) {
+            result[row] = result[row].stripTrailingZeros();
+        }
+        return result;
     }
 
-    private List<String> shuntingYard(String expression) {
-
-        List<String> outputQueue = new ArrayList<>();
-        Stack<String> stack = new Stack<>();
-        Tokenizer tokenizer = new Tokenizer(expression, operators);
-
-        String lastFunction = null;
-        String previousToken = null;
-
-        while (tokenizer.hasNext()) {
-            String token = tokenizer.next();
-            if (isNumber(token)) {
-                outputQueue.add(token);
-            } else if (variables.containsKey(token)) {
-                outputQueue.add(token);
-            } else if (functions.containsKey(token.toUpperCase(Locale.ROOT))) {
-                stack.push(token);
-                lastFunction = token;
-            } else if (Character.isLetter(token.charAt(0))) {
-                stack.push(token);
-            } else if (",".equals(token)) {
-                if (operators.containsKey(previousToken)) {
-                    try {
-                        throw new ExpressionException("Missing parameter(s) for operator " + previousToken +
-                                " at character position " + (tokenizer.getPos() - 1 - previousToken.length()));
-                    } catch (ExpressionException e1) {
-                        e1.printStackTrace();
-                    }
-                }
-                while (!stack.isEmpty() && !"(".equals(stack.peek())) {
-                    outputQueue.add(stack.pop());
-                }
-                if (stack.isEmpty()) {
-                    try {
-                        throw new ExpressionException("Parse error for function '"
-                                + lastFunction + "'");
-                    } catch (ExpressionException e1) {
-                        e1.printStackTrace();
-                    }
-                }
-            } else if (operators.containsKey(token)) {
-                if (",".equals(previousToken) || "(".equals(previousToken)) {
-                    try {
-                        throw new ExpressionException("Missing parameter(s) for operator " + token +
-                                " at character position " + (tokenizer.getPos() - token.length()));
-                    } catch (ExpressionException e1) {
-                        e1.printStackTrace();
-                    }
-                }
-                Operator o1 = operators.get(token);
-                String token2 = stack.isEmpty() ? null : stack.peek();
-                while (token2!=null &&
-                        operators.containsKey(token2)
-                        && ((o1.isLeftAssoc() && o1.getPrecedence() <= operators
-                        .get(token2).getPrecedence()) || (o1
-                        .getPrecedence() < operators.get(token2)
-                        .getPrecedence()))) {
-                    outputQueue.add(stack.pop());
-                    token2 = stack.isEmpty() ? null : stack.peek();
-                }
-                stack.push(token);
-            } else if ("(".equals(token)) {
-                if (previousToken != null) {
-                    if (isNumber(previousToken)) {
-                        try {
-                            throw new ExpressionException(
-                                    "Missing operator at character position "
-                                            + tokenizer.getPos());
-                        } catch (ExpressionException e1) {
-                            e1.printStackTrace();
-                        }
-                    }
-                    if (functions.containsKey(previousToken.toUpperCase(Locale.ROOT))) {
-                        outputQueue.add(token);
-                    }
-                }
-                stack.push(token);
-            } else if (")".equals(token)) {
-                if (operators.containsKey(previousToken)) {
-                    try {
-                        throw new ExpressionException("Missing parameter(s) for operator " + previousToken +
-                                " at character position " + (tokenizer.getPos() - 1 - previousToken.length()));
-                    } catch (ExpressionException e1) {
-                        e1.printStackTrace();
-                    }
-                }
-                while (!stack.isEmpty() && !"(".equals(stack.peek())) {
-                    outputQueue.add(stack.pop());
-                }
-                if (stack.isEmpty()) {
-                    try {
-                        throw new ExpressionException("Mismatched parentheses");
-                    } catch (ExpressionException e1) {
-                        e1.printStackTrace();
-                    }
-                }
-                stack.pop();
-                if (!stack.isEmpty()
-                        && functions.containsKey(stack.peek().toUpperCase(
-                        Locale.ROOT))) {
-                    outputQueue.add(stack.pop());
-                }
-            }
-            previousToken = token;
-        }
-        while (!stack.isEmpty()) {
-            String element = stack.pop();
-            if ("(".equals(element) || ")".equals(element)) {
-                try {
-                    throw new ExpressionException("Mismatched parentheses");
-                } catch (ExpressionException e1) {
-                    e1.printStackTrace();
-                }
-            }
-            if (!operators.containsKey(element)) {
-                try {
-                    throw new ExpressionException("Unknown operator or function: "
-                            + element);
-                } catch (ExpressionException e1) {
-                    e1.printStackTrace();
+    private BigDecimal[] evalBatch(CompiledExpression compiled, Map<String, BigDecimal[]> columns, int rows, int depth) {
+        BigDecimal[][] bound = new BigDecimal[compiled.getVariableCount()][];
+        for (int i = 0; i < bound.length; i++) {
+            String name = compiled.getVariableName(i);
+            BigDecimal[] column = columns.get(name);
+            CompiledExpression link = column == null ? getLink(name, depth) : null;
+            if (link != null) {
+                bound[i] = evalBatch(link, columns, rows, depth + 1);
+            } else if (column == null) {
+                bound[i] = new BigDecimal[rows];
+                Arrays.fill(bound[i], getVariable(name).round(mc));
+            } else {
+                bound[i] = new BigDecimal[rows];
+                for (int row = 0; row < rows; row++) {
+                    bound[i][row] = column[row].round(mc);
                 }
             }
-            outputQueue.add(element);
         }
-        return outputQueue;
+        return compiled.evalBatch(bound, rows);
     }
 
-    BigDecimal eval() {
+    double[] evalDoubleBatch(Map<String, double[]> columns, int rows) {
+        if (Metrics.enabled) {
+            ExpressionEvalEvent event = new ExpressionEvalEvent();
+            event.begin();
+            long start = Metrics.start();
+            double[] result = evalDoubleBatch(getDoubleExpression(), getCompiled(), columns, rows, 0);
+            Metrics.record(Metrics.EVAL_BATCH, start);
+            compiled.commit(event, "double batch");
+            return result;
+        }
+        return evalDoubleBatch(getDoubleExpression(), getCompiled(), columns, rows, 0);
+    }
 
-        Stack<LazyNumber> stack = new Stack<>();
-
-        for (final String token : getRPN()) {
-            if (operators.containsKey(token)) {
-                final LazyNumber v1 = stack.pop();
-                final LazyNumber v2 = stack.pop();
-                LazyNumber number = () -> operators.get(token).eval(v2.eval(), v1.eval());
-                stack.push(number);
-            } else if (variables.containsKey(token)) {
-                stack.push(() -> variables.get(token).round(mc));
-            } else if (functions.containsKey(token.toUpperCase(Locale.ROOT))) {
-                LazyFunction f = functions.get(token.toUpperCase(Locale.ROOT));
-                ArrayList<LazyNumber> p = new ArrayList<>();
-                while (!stack.isEmpty() && stack.peek() != PARAMS_START) {
-                    p.add(0, stack.pop());
-                }
-                if (stack.peek() == PARAMS_START) {
-                    stack.pop();
-                }
-                LazyNumber fResult = f.lazyEval(p);
-                stack.push(fResult);
-            } else if ("(".equals(token)) {
-                stack.push(PARAMS_START);
-            } else {
-                stack.push(() -> new BigDecimal(token, mc));
+    private double[] evalDoubleBatch(DoubleExpression doubleExpression, CompiledExpression compiled,
+                                     Map<String, double[]> columns, int rows, int depth) {
+        double[][] bound = new double[compiled.getVariableCount()][];
+        for (int i = 0; i < bound.length; i++) {
+            String name = compiled.getVariableName(i);
+            bound[i] = columns.get(name);
+            CompiledExpression link = bound[i] == null ? getLink(name, depth) : null;
+            if (link != null) {
+                bound[i] = evalDoubleBatch(new DoubleExpression(link), link, columns, rows, depth + 1);
+            } else if (bound[i] == null) {
+                bound[i] = new double[rows];
+                Arrays.fill(bound[i], getVariable(name).doubleValue());
             }
         }
-        return stack.pop().eval().stripTrailingZeros();
+        return doubleExpression.evalBatch(bound, rows);
     }
 
     Expression setPrecision(int precision) {
         this.mc = new MathContext(precision);
+        compiled = null;
+        links = null;
         return this;
     }
 
     Expression setRoundingMode(RoundingMode roundingMode) {
         this.mc = new MathContext(mc.getPrecision(), roundingMode);
+        compiled = null;
+        links = null;
         return this;
     }
 
-    private void addOperator(Operator operator) {
-        operators.put(operator.getOper(), operator);
+    Expression addOperator(Operator operator) {
+        setRegistry(registry.withOperator(operator));
+        return this;
+    }
+
+    Expression addFunction(Function function) {
+        setRegistry(registry.withFunction(function));
+        return this;
     }
 
-    private void addFunction(Function function) {
-        functions.put(function.getName(), function);
+    Expression addLazyFunction(LazyFunction function) {
+        setRegistry(registry.withFunction(function));
+        return this;
     }
 
-    private void addLazyFunction(LazyFunction function) {
-        functions.put(function.getName(), function);
+    private void setRegistry(Registry registry) {
+        this.registry = registry;
+        program = null;
+        compiled = null;
+        links = null;
     }
 
     private Expression setVariable(String variable, BigDecimal value) {
-        variables.put(variable, value);
+        if (variables == registry.getConstants()) {
+            variables = new HashMap<>(variables);
+        }
+        if (variables.put(variable, value) == null) {
+            compiled = null;
+        }
+        doubleValuesBound = false;
+        if (formulas != null && formulas.remove(variable) != null) {
+            links = null;
+        }
         return this;
     }
 
     private Expression setVariable(String variable, String value) {
         if (isNumber(value))
-            variables.put(variable, new BigDecimal(value));
+            setVariable(variable, new BigDecimal(value));
         else {
-            expression = expression.replaceAll("(?i)\\b" + variable + "\\b", "("
-                    + value + ")");
-            rpn = null;
+            if (formulas == null) {
+                formulas = new HashMap<>();
+            }
+            formulas.put(variable, value);
+            links = null;
+            doubleValuesBound = false;
         }
         return this;
     }
@@ -440,68 +304,126 @@ public class Expression {
         return setVariable(variable, value);
     }
 
-    private List<String> getRPN() {
-        if (rpn == null) {
-            rpn = shuntingYard(this.expression);
-            validate(rpn);
-        }
-        return rpn;
+    /**
+     * Checks the expression without evaluating it and returns every problem found, in order of
+     * position; an empty list means it parses. Nothing is thrown or printed.
+     */
+    List<Diagnostic> validate() {
+        return Parser.validate(expression, registry);
     }
 
-    private void validate(List<String> rpn) {
-		Stack<Integer> stack = new Stack<>();
+    private Program getProgram() {
+        if (program == null) {
+            final String expression = this.expression;
+            final Registry registry = this.registry;
+            program = ParseCache.shared().get(expression, registry,
+                    () -> Parser.parse(expression, registry));
+        }
+        return program;
+    }
 
-        stack.push(0);
+    private BigDecimal resolve(String variable, int depth) {
+        CompiledExpression link = getLink(variable, depth);
+        if (link == null) {
+            return getVariable(variable);
+        }
+        BigDecimal[] slots = link.newSlots();
+        for (int i = 0; i < link.getVariableCount(); i++) {
+            slots[i] = resolve(link.getVariableName(i), depth + 1);
+        }
+        return link.eval(slots);
+    }
 
-        for (final String token : rpn) {
-            if (operators.containsKey(token)) {
-                if (stack.peek() < 2) {
-                    try {
-                        throw new ExpressionException("Missing parameter(s) for operator " + token);
-                    } catch (ExpressionException e1) {
-                        e1.printStackTrace();
-                    }
-                }
-                stack.set(stack.size() - 1, stack.peek() - 2 + 1);
-            } else if (variables.containsKey(token)) {
-                stack.set(stack.size() - 1, stack.peek() + 1);
-            } else if (functions.containsKey(token.toUpperCase(Locale.ROOT))) {
-                functions.get(token.toUpperCase(Locale.ROOT));
-                stack.pop();
-                if (stack.size() <= 0) {
-                    try {
-                        throw new ExpressionException("Too many function calls, maximum scope exceeded");
-                    } catch (ExpressionException e1) {
-                        e1.printStackTrace();
-                    }
-                }
-                stack.set(stack.size() - 1, stack.peek() + 1);
-            } else if ("(".equals(token)) {
-                stack.push(0);
-            } else {
-                stack.set(stack.size() - 1, stack.peek() + 1);
+    private CompiledExpression getLink(String variable, int depth) {
+        if (formulas == null) {
+            return null;
+        }
+        if (links == null) {
+            links = new HashMap<>();
+            final Registry registry = this.registry;
+            final MathContext mc = this.mc;
+            for (Map.Entry<String, String> formula : formulas.entrySet()) {
+                final String text = formula.getValue();
+                links.put(formula.getKey(), ParseCache.compiled().get(text, registry, mc, () ->
+                        new CompiledExpression(ParseCache.shared().get(text, registry,
+                                () -> Parser.parse(text, registry)), registry.getConstants(), mc)));
             }
         }
+        CompiledExpression link = links.get(variable);
+        if (link != null && depth > formulas.size()) {
+            throw new IllegalStateException("Circular reference through variable " + variable);
+        }
+        return link;
+    }
 
-        if (stack.size() > 1) {
-            try {
-                throw new ExpressionException("Too many unhandled function parameter lists");
-            } catch (ExpressionException e1) {
-                e1.printStackTrace();
-            }
-        } else if (stack.peek() > 1) {
-            try {
-                throw new ExpressionException("Too many numbers or variables");
-            } catch (ExpressionException e1) {
-                e1.printStackTrace();
-            }
-        } else if (stack.peek() < 1) {
-            try {
-                throw new ExpressionException("Empty expression");
-            } catch (ExpressionException e1) {
-                e1.printStackTrace();
-            }
+    /**
+     * The compiled form with every formula link inlined, for evaluators that only see a
+     * {@link CompiledExpression}: its variables are the plain values the links end up reading,
+     * and a variable defined by a formula can no longer be bound directly.
+     */
+    CompiledExpression getLinkedCompiled() {
+        CompiledExpression compiled = getCompiled();
+        if (formulas == null || formulas.isEmpty()) {
+            return compiled;
+        }
+        Map<String, CompiledExpression> linked = new HashMap<>();
+        for (String name : formulas.keySet()) {
+            linked.put(name, getLink(name, 0));
+        }
+        return compiled.inline(linked, variables);
+    }
+
+    private BigDecimal getVariable(String variable) {
+        BigDecimal value = variables.get(variable);
+        if (value == null) {
+            throw new IllegalStateException("Unknown variable: " + variable);
+        }
+        return BigMath.constant(value, mc);
+    }
+
+    CompiledExpression getCompiled() {
+        if (compiled == null) {
+            compiled = new CompiledExpression(getProgram(), variables, mc);
+            values = compiled.newSlots();
+            doubleExpression = null;
+            bytecode = null;
+            adaptive = null;
+            scaled = null;
+            scaledCompiled = false;
+            solver = null;
+        }
+        return compiled;
+    }
+
+    private CompiledExpression getAdaptive() {
+        getCompiled();
+        if (adaptive == null) {
+            MathContext wide = mc.getPrecision() == 0 ? mc
+                    : new MathContext(mc.getPrecision() + ADAPTIVE_GUARD_DIGITS, RoundingMode.HALF_EVEN);
+            adaptive = new CompiledExpression(getProgram(), variables, wide);
+            adaptiveValues = adaptive.newSlots();
+            interval = IntervalExpression.supports(mc) ? new IntervalExpression(adaptive) : null;
+        }
+        return adaptive;
+    }
+
+    DoubleEvaluator getBytecode() {
+        CompiledExpression compiled = getCompiled();
+        if (bytecode == null) {
+            bytecode = BytecodeCompiler.compile(compiled);
+        }
+        return bytecode;
+    }
+
+    DoubleExpression getDoubleExpression() {
+        CompiledExpression compiled = getCompiled();
+        if (doubleExpression == null) {
+            doubleExpression = new DoubleExpression(compiled);
+            doubleValues = new double[compiled.getVariableCount()];
+            doubleValuesBound = false;
+            doubleStack = doubleExpression.newStack();
         }
+        return doubleExpression;
     }
 
     @Override
@@ -0,0 +1,238 @@
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Evaluates a fixed list of expressions over a stream of binding rows on many threads.
+ * <p>
+ * Each expression is compiled once, up front, with its formula links inlined; worker threads only
+ * fill slot arrays and call {@link CompiledExpression#eval(BigDecimal[])}. A row is a {@code BigDecimal[]} aligned with
+ * {@link #getVariableNames()}, the union of every expression's variables; a {@code null} entry
+ * falls back to the value the expression was compiled with (such as {@code PI}). Rows are cut
+ * into chunks and at most {@link #maxInFlight(int)} chunks are queued or running at any time, so
+ * memory stays bounded however long the input is. Results come back in input order unless
+ * {@link #unordered()} is set, in which case each chunk is handed back as soon as it finishes.
+ * <p>
+ * Rows must not be modified after they have been handed to the batch.
+ */
+public class ExpressionBatch {
+
+    private final CompiledExpression[] compiled;
+    private final int[][] columns;
+    private final String[] variableNames;
+    private Executor executor = ForkJoinPool.commonPool();
+    private int chunkSize = 1024;
+    private int maxInFlight = 2 * Runtime.getRuntime().availableProcessors();
+    private boolean ordered = true;
+
+    ExpressionBatch(List<Expression> expressions) {
+        Map<String, Integer> names = new LinkedHashMap<>();
+        this.compiled = new CompiledExpression[expressions.size()];
+        this.columns = new int[compiled.length][];
+        for (int e = 0; e < compiled.length; e++) {
+            compiled[e] = expressions.get(e).getLinkedCompiled();
+            columns[e] = new int[compiled[e].getVariableCount()];
+            for (int s = 0; s < columns[e].length; s++) {
+                String name = compiled[e].getVariableName(s);
+                Integer column = names.get(name);
+                if (column == null) {
+                    column = names.size();
+                    names.put(name, column);
+                }
+                columns[e][s] = column;
+            }
+        }
+        this.variableNames = names.keySet().toArray(new String[0]);
+    }
+
+    String[] getVariableNames() {
+        return variableNames.clone();
+    }
+
+    int indexOf(String variable) {
+        return Arrays.asList(variableNames).indexOf(variable);
+    }
+
+    ExpressionBatch executor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    ExpressionBatch chunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    ExpressionBatch maxInFlight(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("Chunks in flight must be positive");
+        }
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
+    ExpressionBatch unordered() {
+        this.ordered = false;
+        return this;
+    }
+
+    Iterator<Result> eval(Iterator<BigDecimal[]> rows) {
+        return new Results(rows);
+    }
+
+    Stream<Result> eval(Stream<BigDecimal[]> rows) {
+        Iterator<Result> results = eval(rows.iterator());
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(results,
+                ordered ? Spliterator.ORDERED | Spliterator.NONNULL : Spliterator.NONNULL), false)
+                .onClose(rows::close);
+    }
+
+    private Result[] evalChunk(long first, BigDecimal[][] rows, int count) {
+        BigDecimal[][] slots = new BigDecimal[compiled.length][];
+        BigDecimal[][] defaults = new BigDecimal[compiled.length][];
+        for (int e = 0; e < compiled.length; e++) {
+            slots[e] = compiled[e].newSlots();
+            defaults[e] = compiled[e].newSlots();
+        }
+        Result[] results = new Result[count];
+        for (int r = 0; r < count; r++) {
+            BigDecimal[] row = rows[r];
+            BigDecimal[] values = new BigDecimal[compiled.length];
+            for (int e = 0; e < compiled.length; e++) {
+                int[] map = columns[e];
+                for (int s = 0; s < map.length; s++) {
+                    BigDecimal value = map[s] < row.length ? row[map[s]] : null;
+                    if (value == null) {
+                        value = defaults[e][s];
+                        if (value == null) {
+                            throw new IllegalStateException("Unknown variable: " + variableNames[map[s]]);
+                        }
+                    }
+                    slots[e][s] = value;
+                }
+                values[e] = compiled[e].eval(slots[e]);
+            }
+            results[r] = new Result(first + r, values);
+        }
+        return results;
+    }
+
+    /**
+     * The values of every expression for one input row, in the order the expressions were given.
+     */
+    static final class Result {
+        private final long row;
+        private final BigDecimal[] values;
+
+        Result(long row, BigDecimal[] values) {
+            this.row = row;
+            this.values = values;
+        }
+
+        long getRow() {
+            return row;
+        }
+
+        BigDecimal getValue(int expression) {
+            return values[expression];
+        }
+
+        BigDecimal[] getValues() {
+            return values.clone();
+        }
+    }
+
+    private final class Results implements Iterator<Result> {
+        private final Iterator<BigDecimal[]> rows;
+        private final ArrayDeque<Future<Result[]>> pending = new ArrayDeque<>();
+        private final CompletionService<Result[]> completed;
+        private int inFlight;
+        private long submitted;
+        private Result[] current = new Result[0];
+        private int next;
+
+        Results(Iterator<BigDecimal[]> rows) {
+            this.rows = rows;
+            this.completed = ordered ? null : new ExecutorCompletionService<>(executor);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == current.length) {
+                fill();
+                if (inFlight == 0) {
+                    return false;
+                }
+                current = take();
+                next = 0;
+            }
+            return true;
+        }
+
+        @Override
+        public Result next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current[next++];
+        }
+
+        private void fill() {
+            while (inFlight < maxInFlight && rows.hasNext()) {
+                BigDecimal[][] chunk = new BigDecimal[chunkSize][];
+                int count = 0;
+                while (count < chunkSize && rows.hasNext()) {
+                    chunk[count++] = rows.next();
+                }
+                long first = submitted;
+                int size = count;
+                Callable<Result[]> task = () -> evalChunk(first, chunk, size);
+                if (ordered) {
+                    FutureTask<Result[]> future = new FutureTask<>(task);
+                    executor.execute(future);
+                    pending.add(future);
+                } else {
+                    completed.submit(task);
+                }
+                submitted += count;
+                inFlight++;
+            }
+        }
+
+        private Result[] take() {
+            try {
+                Future<Result[]> future = ordered ? pending.remove() : completed.take();
+                inFlight--;
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for results", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("ExpressionEval")
+@Label("Expression Eval")
+@Category("Expression")
+@Description("One evaluation of a compiled expression")
+final class ExpressionEvalEvent extends jdk.jfr.Event {
+
+    @Label("Expression")
+    String expression;
+
+    @Label("Mode")
+    String mode;
+}
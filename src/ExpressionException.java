@@ -1,5 +1,7 @@
 class ExpressionException extends Exception {
+    private static final long serialVersionUID = 1L;
+
     ExpressionException(String message) {
-        super(message);
+        super(message, null, false, false);
     }
 }
@@ -0,0 +1,246 @@
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A spreadsheet-like set of named cells, each either an input value or a formula over other cells.
+ * <p>
+ * Dependencies come from the variable slots of each formula's {@link CompiledExpression}. Cells are
+ * kept in topological levels (inputs are level 0, a formula sits one level above its deepest
+ * input). Changing a cell only marks its transitive dependents dirty, and {@link #recompute()}
+ * evaluates just those, level by level, with large levels split across the common fork-join pool.
+ * Defining a formula that would close a cycle throws {@link IllegalStateException} and leaves the
+ * graph unchanged.
+ * <p>
+ * A graph is not thread-safe; mutate and read it from one thread at a time.
+ */
+public class ExpressionGraph {
+
+    private static final int PARALLEL_THRESHOLD = 256;
+
+    private final Registry registry;
+    private final MathContext mc;
+    private final Map<String, Cell> cells = new HashMap<>();
+    private final List<Cell> dirty = new ArrayList<>();
+
+    ExpressionGraph() {
+        this(Registry.DEFAULT, MathContext.DECIMAL32);
+    }
+
+    ExpressionGraph(Registry registry, MathContext mc) {
+        this.registry = registry;
+        this.mc = mc;
+    }
+
+    ExpressionGraph set(String name, BigDecimal value) {
+        Cell cell = cell(name);
+        cell.unlink();
+        cell.value = value;
+        setLevel(cell, 0);
+        markDependents(cell);
+        return this;
+    }
+
+    ExpressionGraph define(String name, String formula) {
+        CompiledExpression compiled = ParseCache.compiled().get(formula, registry, mc,
+                () -> new CompiledExpression(ParseCache.shared().get(formula, registry,
+                        () -> Parser.parse(formula, registry)), registry.getConstants(), mc));
+        Cell existing = cells.get(name);
+        for (int i = 0; i < compiled.getVariableCount(); i++) {
+            Cell input = cells.get(compiled.getVariableName(i));
+            if (compiled.getVariableName(i).equals(name) || (input != null && input.dependsOn(existing))) {
+                throw new IllegalStateException("Circular reference through variable " + name);
+            }
+        }
+        Cell cell = cell(name);
+        Cell[] inputs = new Cell[compiled.getVariableCount()];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = cell(compiled.getVariableName(i));
+        }
+        cell.unlink();
+        cell.compiled = compiled;
+        cell.inputs = inputs;
+        int level = 0;
+        for (Cell input : inputs) {
+            input.dependents.add(cell);
+            level = Math.max(level, input.level + 1);
+        }
+        setLevel(cell, level);
+        mark(cell);
+        markDependents(cell);
+        return this;
+    }
+
+    BigDecimal get(String name) {
+        Cell cell = cells.get(name);
+        if (cell == null) {
+            throw new IllegalStateException("Unknown variable: " + name);
+        }
+        recompute();
+        if (cell.value == null) {
+            throw new IllegalStateException("Unknown variable: " + name);
+        }
+        return cell.value;
+    }
+
+    boolean contains(String name) {
+        return cells.containsKey(name);
+    }
+
+    int size() {
+        return cells.size();
+    }
+
+    int getDirtyCount() {
+        return dirty.size();
+    }
+
+    /**
+     * Evaluates every dirty formula cell in dependency order and returns how many were evaluated.
+     */
+    int recompute() {
+        if (dirty.isEmpty()) {
+            return 0;
+        }
+        int levels = 0;
+        for (Cell cell : dirty) {
+            levels = Math.max(levels, cell.level + 1);
+        }
+        int[] counts = new int[levels + 1];
+        for (Cell cell : dirty) {
+            counts[cell.level + 1]++;
+        }
+        for (int i = 1; i <= levels; i++) {
+            counts[i] += counts[i - 1];
+        }
+        Cell[] order = new Cell[dirty.size()];
+        int[] next = Arrays.copyOf(counts, levels);
+        for (Cell cell : dirty) {
+            order[next[cell.level]++] = cell;
+        }
+
+        for (int level = 0; level < levels; level++) {
+            int from = counts[level];
+            int to = counts[level + 1];
+            if (to - from >= PARALLEL_THRESHOLD) {
+                Arrays.stream(order, from, to).parallel().forEach(Cell::eval);
+            } else {
+                for (int i = from; i < to; i++) {
+                    order[i].eval();
+                }
+            }
+        }
+        for (Cell cell : order) {
+            cell.dirty = false;
+        }
+        dirty.clear();
+        return order.length;
+    }
+
+    private Cell cell(String name) {
+        Cell cell = cells.get(name);
+        if (cell == null) {
+            BigDecimal constant = registry.getConstants().get(name);
+            cell = new Cell(name, constant == null ? null : BigMath.constant(constant, mc));
+            cells.put(name, cell);
+        }
+        return cell;
+    }
+
+    private void markDependents(Cell cell) {
+        List<Cell> pending = new ArrayList<>(cell.dependents);
+        while (!pending.isEmpty()) {
+            Cell dependent = pending.remove(pending.size() - 1);
+            if (!dependent.dirty) {
+                mark(dependent);
+                pending.addAll(dependent.dependents);
+            }
+        }
+    }
+
+    private void mark(Cell cell) {
+        if (!cell.dirty && cell.compiled != null) {
+            cell.dirty = true;
+            dirty.add(cell);
+        }
+    }
+
+    private void setLevel(Cell cell, int level) {
+        if (cell.level == level) {
+            return;
+        }
+        cell.level = level;
+        List<Cell> pending = new ArrayList<>(cell.dependents);
+        while (!pending.isEmpty()) {
+            Cell dependent = pending.remove(pending.size() - 1);
+            int dependentLevel = 0;
+            for (Cell input : dependent.inputs) {
+                dependentLevel = Math.max(dependentLevel, input.level + 1);
+            }
+            if (dependent.level != dependentLevel) {
+                dependent.level = dependentLevel;
+                pending.addAll(dependent.dependents);
+            }
+        }
+    }
+
+    private static final class Cell {
+        final String name;
+        final List<Cell> dependents = new ArrayList<>();
+        CompiledExpression compiled;
+        Cell[] inputs = new Cell[0];
+        BigDecimal value;
+        int level;
+        boolean dirty;
+
+        Cell(String name, BigDecimal value) {
+            this.name = name;
+            this.value = value;
+        }
+
+        void eval() {
+            if (compiled == null) {
+                return;
+            }
+            BigDecimal[] slots = compiled.newSlots();
+            for (int i = 0; i < inputs.length; i++) {
+                if (inputs[i].value == null) {
+                    throw new IllegalStateException("Unknown variable: " + inputs[i].name);
+                }
+                slots[i] = inputs[i].value;
+            }
+            value = compiled.eval(slots);
+        }
+
+        void unlink() {
+            for (Cell input : inputs) {
+                input.dependents.remove(this);
+            }
+            inputs = new Cell[0];
+            compiled = null;
+        }
+
+        boolean dependsOn(Cell target) {
+            if (target == null) {
+                return false;
+            }
+            List<Cell> pending = new ArrayList<>(Arrays.asList(inputs));
+            Map<Cell, Boolean> seen = new IdentityHashMap<>();
+            while (!pending.isEmpty()) {
+                Cell cell = pending.remove(pending.size() - 1);
+                if (cell == target) {
+                    return true;
+                }
+                if (seen.put(cell, Boolean.TRUE) == null) {
+                    pending.addAll(Arrays.asList(cell.inputs));
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("ExpressionParse")
+@Label("Expression Parse")
+@Category("Expression")
+@Description("Parsing of one expression text into a program, including scanning and validation")
+final class ExpressionParseEvent extends jdk.jfr.Event {
+
+    @Label("Expression")
+    String expression;
+}
@@ -1,4 +1,5 @@
 import java.math.BigDecimal;
+import java.math.MathContext;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -8,13 +9,27 @@ public abstract class Function extends LazyFunction {
         super(name);
     }
 
-    public LazyNumber lazyEval(List<LazyNumber> lazyParams) {
-        final List<BigDecimal> params = new ArrayList<>();
-        for (LazyNumber lazyParam : lazyParams) {
-            params.add(lazyParam.eval());
-        }
-        return () -> Function.this.eval(params);
+    public LazyNumber lazyEval(List<LazyNumber> lazyParams, MathContext mc) {
+        return () -> {
+            List<BigDecimal> params = new ArrayList<>(lazyParams.size());
+            for (LazyNumber lazyParam : lazyParams) {
+                params.add(lazyParam.eval());
+            }
+            return Function.this.eval(params, mc);
+        };
     }
 
-    public abstract BigDecimal eval(List<BigDecimal> parameters);
+    public abstract BigDecimal eval(List<BigDecimal> parameters, MathContext mc);
+
+    @Override
+    public double eval(double[] parameters, int offset, int count) {
+        List<BigDecimal> params = new ArrayList<>(count);
+        for (int i = offset; i < offset + count; i++) {
+            if (!Double.isFinite(parameters[i])) {
+                return Double.NaN;
+            }
+            params.add(new BigDecimal(parameters[i]));
+        }
+        return eval(params, MathContext.DECIMAL64).doubleValue();
+    }
 }
@@ -0,0 +1,194 @@
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Interval arithmetic on {@code double} bounds, used by {@link IntervalExpression}.
+ * <p>
+ * An interval at position {@code i} is {@code [lo[i], hi[i]]}. Each operation widens its result
+ * only as far as rounding actually went: the exact error of a sum, product or quotient is
+ * recovered with TwoSum or {@link Math#fma} and the bound is stepped one ulp outward only if that
+ * error points the wrong way, so exact steps keep exact bounds. Library functions, which are only
+ * accurate to within a few ulps, are padded by a given number of ulps instead. Each method returns
+ * {@code false} when it cannot bound its result, for example a division by an interval that
+ * contains zero.
+ */
+final class Interval {
+
+    private static final double TINY = 0x1p-960;
+
+    private Interval() {
+    }
+
+    static boolean add(double[] lo, double[] hi, int i) {
+        double l = addDown(lo[i], lo[i + 1]);
+        double h = addUp(hi[i], hi[i + 1]);
+        lo[i] = l;
+        hi[i] = h;
+        return true;
+    }
+
+    static boolean subtract(double[] lo, double[] hi, int i) {
+        double l = addDown(lo[i], -hi[i + 1]);
+        double h = addUp(hi[i], -lo[i + 1]);
+        lo[i] = l;
+        hi[i] = h;
+        return true;
+    }
+
+    static boolean multiply(double[] lo, double[] hi, int i) {
+        multiply(lo[i], hi[i], lo[i + 1], hi[i + 1], lo, hi, i);
+        return true;
+    }
+
+    static boolean divide(double[] lo, double[] hi, int i) {
+        double a = lo[i], b = hi[i], c = lo[i + 1], d = hi[i + 1];
+        if (!(c > 0 || d < 0)) {
+            return false;
+        }
+        lo[i] = Math.min(Math.min(divideDown(a, c), divideDown(a, d)), Math.min(divideDown(b, c), divideDown(b, d)));
+        hi[i] = Math.max(Math.max(divideUp(a, c), divideUp(a, d)), Math.max(divideUp(b, c), divideUp(b, d)));
+        return true;
+    }
+
+    /**
+     * Raises the interval at {@code i} to the interval at {@code i + 1}: by repeated squaring when
+     * the exponent is a single integer, otherwise through {@link Math#pow} for positive bases.
+     */
+    static boolean power(double[] lo, double[] hi, int i) {
+        double a = lo[i], b = hi[i], c = lo[i + 1], d = hi[i + 1];
+        if (c == d && c == Math.rint(c) && Math.abs(c) <= 1024) {
+            int n = (int) Math.abs(c);
+            double rl = 1, rh = 1;
+            for (; n > 0; n >>= 1) {
+                if ((n & 1) != 0) {
+                    double l = Math.min(Math.min(multiplyDown(rl, a), multiplyDown(rl, b)),
+                            Math.min(multiplyDown(rh, a), multiplyDown(rh, b)));
+                    double h = Math.max(Math.max(multiplyUp(rl, a), multiplyUp(rl, b)),
+                            Math.max(multiplyUp(rh, a), multiplyUp(rh, b)));
+                    rl = l;
+                    rh = h;
+                }
+                if (n > 1) {
+                    double l = a >= 0 ? multiplyDown(a, a) : b <= 0 ? multiplyDown(b, b) : 0;
+                    double h = Math.max(multiplyUp(a, a), multiplyUp(b, b));
+                    a = l;
+                    b = h;
+                }
+            }
+            lo[i] = rl;
+            hi[i] = rh;
+            if (c < 0) {
+                lo[i + 1] = lo[i];
+                hi[i + 1] = hi[i];
+                lo[i] = 1;
+                hi[i] = 1;
+                return divide(lo, hi, i);
+            }
+            return true;
+        }
+        if (!(a > 0)) {
+            return false;
+        }
+        double p1 = Math.pow(a, c), p2 = Math.pow(a, d), p3 = Math.pow(b, c), p4 = Math.pow(b, d);
+        lo[i] = down(Math.min(Math.min(p1, p2), Math.min(p3, p4)), 2);
+        hi[i] = up(Math.max(Math.max(p1, p2), Math.max(p3, p4)), 2);
+        return true;
+    }
+
+    static boolean absolute(double[] lo, double[] hi, int i) {
+        double a = lo[i], b = hi[i];
+        lo[i] = a >= 0 ? a : b <= 0 ? -b : 0;
+        hi[i] = Math.max(-a, b);
+        return true;
+    }
+
+    /**
+     * Applies a non-decreasing function that is accurate to within {@code ulps} ulps over
+     * {@code [min, max]}.
+     */
+    static boolean increasing(double[] lo, double[] hi, int i, DoubleUnaryOperator f, int ulps, double min, double max) {
+        if (!(lo[i] >= min && hi[i] <= max)) {
+            return false;
+        }
+        lo[i] = down(f.applyAsDouble(lo[i]), ulps);
+        hi[i] = up(f.applyAsDouble(hi[i]), ulps);
+        return true;
+    }
+
+    /**
+     * Applies a non-increasing function that is accurate to within {@code ulps} ulps over
+     * {@code [min, max]}.
+     */
+    static boolean decreasing(double[] lo, double[] hi, int i, DoubleUnaryOperator f, int ulps, double min, double max) {
+        if (!(lo[i] >= min && hi[i] <= max)) {
+            return false;
+        }
+        double l = down(f.applyAsDouble(hi[i]), ulps);
+        hi[i] = up(f.applyAsDouble(lo[i]), ulps);
+        lo[i] = l;
+        return true;
+    }
+
+    private static void multiply(double a, double b, double c, double d, double[] lo, double[] hi, int i) {
+        lo[i] = Math.min(Math.min(multiplyDown(a, c), multiplyDown(a, d)), Math.min(multiplyDown(b, c), multiplyDown(b, d)));
+        hi[i] = Math.max(Math.max(multiplyUp(a, c), multiplyUp(a, d)), Math.max(multiplyUp(b, c), multiplyUp(b, d)));
+    }
+
+    static double addDown(double a, double b) {
+        double s = a + b;
+        return sumError(a, b, s) < 0 ? Math.nextDown(s) : s;
+    }
+
+    static double addUp(double a, double b) {
+        double s = a + b;
+        return sumError(a, b, s) > 0 ? Math.nextUp(s) : s;
+    }
+
+    static double multiplyDown(double a, double b) {
+        double p = a * b;
+        return Math.fma(a, b, -p) < 0 || tiny(p, a, b) ? Math.nextDown(p) : p;
+    }
+
+    static double multiplyUp(double a, double b) {
+        double p = a * b;
+        return Math.fma(a, b, -p) > 0 || tiny(p, a, b) ? Math.nextUp(p) : p;
+    }
+
+    static double divideDown(double a, double b) {
+        double q = a / b;
+        double r = Math.fma(-q, b, a);
+        return (r != 0 && (r < 0) != (b < 0)) || tiny(q, a, 1) ? Math.nextDown(q) : q;
+    }
+
+    static double divideUp(double a, double b) {
+        double q = a / b;
+        double r = Math.fma(-q, b, a);
+        return (r != 0 && (r < 0) == (b < 0)) || tiny(q, a, 1) ? Math.nextUp(q) : q;
+    }
+
+    static double down(double x, int ulps) {
+        for (int i = 0; i < ulps; i++) {
+            x = Math.nextDown(x);
+        }
+        return x;
+    }
+
+    static double up(double x, int ulps) {
+        for (int i = 0; i < ulps; i++) {
+            x = Math.nextUp(x);
+        }
+        return x;
+    }
+
+    private static double sumError(double a, double b, double s) {
+        double bb = s - a;
+        return (a - (s - bb)) + (b - bb);
+    }
+
+    /**
+     * Near the subnormal range the error of a product or quotient is no longer exact, so a result
+     * there is always widened.
+     */
+    private static boolean tiny(double result, double a, double b) {
+        return Math.abs(result) < TINY && a != 0 && b != 0;
+    }
+}
@@ -0,0 +1,289 @@
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Evaluates a compiled expression in {@code double} interval arithmetic and returns the result
+ * only if every value inside the final interval rounds to the same number at the requested
+ * precision and rounding mode.
+ * <p>
+ * Inputs are widened to the nearest doubles around them; each operator and function bounds its
+ * own result through {@link Operator#evalInterval} or {@link LazyFunction#evalInterval}. When a
+ * step cannot be bounded (a custom operator, a trigonometric function, a division by an interval
+ * containing zero) or the interval straddles a rounding boundary, {@link #eval} returns
+ * {@code null} and the caller falls back to {@code BigDecimal}. Only precisions of 1 to 15
+ * digits can be decided this way. Hits and misses are counted process-wide; see
+ * {@link Metrics#getAdaptiveHitRate()}.
+ */
+final class IntervalExpression {
+
+    static final int MAX_PRECISION = 15;
+
+    private static final int CONSTANT = 0;
+    private static final int VARIABLE = 1;
+    private static final int OPERATOR = 2;
+    private static final int FUNCTION = 3;
+    private static final int STORE = 4;
+    private static final int LOAD = 5;
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+
+    private final int[] code;
+    private final double[] constantsLo;
+    private final double[] constantsHi;
+    private final Operator[] operators;
+    private final LazyFunction[] functions;
+    private final int variableCount;
+    private final int maxStack;
+    private final int memoCount;
+
+    IntervalExpression(CompiledExpression compiled) {
+        Emitter emitter = new Emitter();
+        emitter.emit(compiled.getRoot());
+
+        this.code = new int[emitter.code.size()];
+        for (int i = 0; i < this.code.length; i++) {
+            this.code[i] = emitter.code.get(i);
+        }
+        this.constantsLo = new double[emitter.constants.size()];
+        this.constantsHi = new double[emitter.constants.size()];
+        for (int i = 0; i < constantsLo.length; i++) {
+            bound(emitter.constants.get(i), constantsLo, constantsHi, i);
+        }
+        this.operators = emitter.operators.toArray(new Operator[0]);
+        this.functions = emitter.functions.toArray(new LazyFunction[0]);
+        this.variableCount = compiled.getVariableCount();
+        this.maxStack = Math.max(emitter.stackMax, 1);
+        this.memoCount = emitter.memos.size();
+    }
+
+    static boolean supports(MathContext mc) {
+        return mc.getPrecision() > 0 && mc.getPrecision() <= MAX_PRECISION
+                && mc.getRoundingMode() != RoundingMode.UNNECESSARY;
+    }
+
+    static long getHits() {
+        return hits.sum();
+    }
+
+    static long getMisses() {
+        return misses.sum();
+    }
+
+    static void miss() {
+        misses.increment();
+    }
+
+    static void resetCounters() {
+        hits.reset();
+        misses.reset();
+    }
+
+    /**
+     * Returns the value of the expression rounded to {@code mc}, or {@code null} if the bounds
+     * cannot decide it. {@code values} must already be rounded to {@code mc}.
+     */
+    BigDecimal eval(BigDecimal[] values, MathContext mc) {
+        BigDecimal result = bounds(values, mc);
+        if (result == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return result;
+    }
+
+    private BigDecimal bounds(BigDecimal[] values, MathContext mc) {
+        double[] lo = new double[maxStack + memoCount + variableCount];
+        double[] hi = new double[lo.length];
+        int memo = maxStack;
+        int variables = maxStack + memoCount;
+        for (int i = 0; i < variableCount; i++) {
+            bound(values[i], lo, hi, variables + i);
+        }
+        int sp = 0;
+        for (int pc = 0; pc < code.length; ) {
+            switch (code[pc++]) {
+                case CONSTANT:
+                    lo[sp] = constantsLo[code[pc]];
+                    hi[sp++] = constantsHi[code[pc++]];
+                    break;
+                case VARIABLE:
+                    lo[sp] = lo[variables + code[pc]];
+                    hi[sp++] = hi[variables + code[pc++]];
+                    break;
+                case STORE:
+                    lo[memo + code[pc]] = lo[sp - 1];
+                    hi[memo + code[pc++]] = hi[sp - 1];
+                    break;
+                case LOAD:
+                    lo[sp] = lo[memo + code[pc]];
+                    hi[sp++] = hi[memo + code[pc++]];
+                    break;
+                case OPERATOR:
+                    sp--;
+                    if (!operators[code[pc++]].evalInterval(lo, hi, sp - 1)) {
+                        return null;
+                    }
+                    break;
+                default:
+                    LazyFunction function = functions[code[pc++]];
+                    int count = code[pc++];
+                    sp -= count;
+                    if (count == 0 || !function.evalInterval(lo, hi, sp, count)) {
+                        return null;
+                    }
+                    sp++;
+            }
+        }
+        if (!Double.isFinite(lo[0]) || !Double.isFinite(hi[0])) {
+            return null;
+        }
+        return round(lo[0], hi[0], mc);
+    }
+
+    /**
+     * Rounds both bounds to {@code mc} and returns the common result, or {@code null} if they
+     * differ. Normally both are scaled by an exact power of ten, rounding outward, so that
+     * the digits to keep form an integer, which is then rounded in {@code double}; bounds of
+     * opposite sign, different decades or extreme magnitude go through exact decimal expansion.
+     */
+    private static BigDecimal round(double lo, double hi, MathContext mc) {
+        if (lo == 0 && hi == 0) {
+            return BigDecimal.ZERO;
+        }
+        int p = mc.getPrecision();
+        int k = lo > 0 || hi < 0 ? p - 1 - (int) Math.floor(Math.log10(Math.abs(lo))) : Integer.MAX_VALUE;
+        if (Math.abs(k) < POWERS_OF_TEN.length) {
+            double sl = k >= 0 ? Interval.multiplyDown(lo, POWERS_OF_TEN[k]) : Interval.divideDown(lo, POWERS_OF_TEN[-k]);
+            double sh = k >= 0 ? Interval.multiplyUp(hi, POWERS_OF_TEN[k]) : Interval.divideUp(hi, POWERS_OF_TEN[-k]);
+            double min = Math.min(Math.abs(sl), Math.abs(sh));
+            double max = Math.max(Math.abs(sl), Math.abs(sh));
+            if (min >= POWERS_OF_TEN[p - 1] && max < POWERS_OF_TEN[p]) {
+                long low = round(sl, mc.getRoundingMode());
+                return low == round(sh, mc.getRoundingMode()) ? BigDecimal.valueOf(low, k).stripTrailingZeros() : null;
+            }
+        }
+        BigDecimal low = new BigDecimal(lo).round(mc);
+        return low.compareTo(new BigDecimal(hi).round(mc)) == 0 ? low.stripTrailingZeros() : null;
+    }
+
+    private static long round(double v, RoundingMode mode) {
+        double floor = Math.floor(v);
+        double fraction = v - floor;
+        boolean up;
+        switch (mode) {
+            case FLOOR:
+                up = false;
+                break;
+            case CEILING:
+                up = fraction > 0;
+                break;
+            case DOWN:
+                up = fraction > 0 && v < 0;
+                break;
+            case UP:
+                up = fraction > 0 && v > 0;
+                break;
+            case HALF_UP:
+                up = fraction > 0.5 || (fraction == 0.5 && v > 0);
+                break;
+            case HALF_DOWN:
+                up = fraction > 0.5 || (fraction == 0.5 && v < 0);
+                break;
+            default:
+                up = fraction > 0.5 || (fraction == 0.5 && ((long) floor & 1) != 0);
+        }
+        return (long) floor + (up ? 1 : 0);
+    }
+
+    private static void bound(BigDecimal value, double[] lo, double[] hi, int i) {
+        double d = value.doubleValue();
+        if (value.scale() <= 0 && value.precision() - value.scale() <= MAX_PRECISION) {
+            lo[i] = d;
+            hi[i] = d;
+        } else {
+            lo[i] = Math.nextDown(d);
+            hi[i] = Math.nextUp(d);
+        }
+    }
+
+    /**
+     * The program as it is being built; only used by the constructor.
+     */
+    private static final class Emitter {
+        private final List<Integer> code = new ArrayList<>();
+        private final List<BigDecimal> constants = new ArrayList<>();
+        private final List<Operator> operators = new ArrayList<>();
+        private final List<LazyFunction> functions = new ArrayList<>();
+        private final Map<CompiledExpression.Node, Integer> memos = new IdentityHashMap<>();
+        private int stackDepth;
+        private int stackMax;
+
+        void emit(CompiledExpression.Node node) {
+            if (node instanceof CompiledExpression.Constant) {
+                constants.add(((CompiledExpression.Constant) node).value);
+                code.add(CONSTANT);
+                code.add(constants.size() - 1);
+                push(1);
+            } else if (node instanceof CompiledExpression.Variable) {
+                code.add(VARIABLE);
+                code.add(((CompiledExpression.Variable) node).slot);
+                push(1);
+            } else if (node instanceof CompiledExpression.Shared) {
+                Integer memo = memos.get(node);
+                if (memo == null) {
+                    emit(((CompiledExpression.Shared) node).node);
+                    memo = memos.size();
+                    memos.put(node, memo);
+                    code.add(STORE);
+                } else {
+                    code.add(LOAD);
+                    push(1);
+                }
+                code.add(memo);
+            } else if (node instanceof CompiledExpression.Binary) {
+                CompiledExpression.Binary binary = (CompiledExpression.Binary) node;
+                emit(binary.left);
+                emit(binary.right);
+                operators.add(binary.operator);
+                code.add(OPERATOR);
+                code.add(operators.size() - 1);
+                push(-1);
+            } else {
+                CompiledExpression.Node[] params;
+                LazyFunction function;
+                if (node instanceof CompiledExpression.Call) {
+                    params = ((CompiledExpression.Call) node).params;
+                    function = ((CompiledExpression.Call) node).function;
+                } else {
+                    params = ((CompiledExpression.LazyCall) node).params;
+                    function = ((CompiledExpression.LazyCall) node).function;
+                }
+                for (CompiledExpression.Node param : params) {
+                    emit(param);
+                }
+                functions.add(function);
+                code.add(FUNCTION);
+                code.add(functions.size() - 1);
+                code.add(params.length);
+                push(1 - params.length);
+            }
+        }
+
+        private void push(int delta) {
+            stackDepth += delta;
+            stackMax = Math.max(stackMax, stackDepth);
+        }
+    }
+}
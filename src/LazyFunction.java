@@ -1,3 +1,6 @@
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 
@@ -12,5 +15,40 @@ public abstract class LazyFunction {
         return name;
     }
 
-    public abstract LazyNumber lazyEval(List<LazyNumber> lazyParams);
+    public abstract LazyNumber lazyEval(List<LazyNumber> lazyParams, MathContext mc);
+
+    /**
+     * Evaluates in {@code double} by way of {@link #lazyEval}; a NaN or infinite parameter, which
+     * {@code BigDecimal} cannot represent, gives NaN.
+     */
+    public double eval(double[] parameters, int offset, int count) {
+        List<LazyNumber> params = new ArrayList<>(count);
+        for (int i = offset; i < offset + count; i++) {
+            if (!Double.isFinite(parameters[i])) {
+                return Double.NaN;
+            }
+            BigDecimal param = new BigDecimal(parameters[i]);
+            params.add(() -> param);
+        }
+        return lazyEval(params, MathContext.DECIMAL64).eval().doubleValue();
+    }
+
+    public void eval(double[][] parameters, int offset, int count, double[] result, int length) {
+        double[] row = new double[count];
+        for (int i = 0; i < length; i++) {
+            for (int p = 0; p < count; p++) {
+                row[p] = parameters[offset + p][i];
+            }
+            result[i] = eval(row, 0, count);
+        }
+    }
+
+    /**
+     * Bounds the result of this function over the parameter intervals
+     * {@code [lo[offset + i], hi[offset + i]]}, writing it at {@code offset}; see {@link Interval}.
+     * Returns {@code false} if the function cannot bound its result, which is the default.
+     */
+    public boolean evalInterval(double[] lo, double[] hi, int offset, int count) {
+        return false;
+    }
 }
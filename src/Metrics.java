@@ -0,0 +1,169 @@
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide counters for parsing and evaluation.
+ * <p>
+ * Off by default; start the JVM with {@code -Dexpression.metrics=true} or call
+ * {@link #setEnabled(boolean)}. When off, the hot path pays one volatile read per evaluation and
+ * per operator or function call, and nothing is recorded. When on, every phase keeps a call
+ * count, total time and a histogram with power-of-two nanosecond buckets; BigDecimal evaluation
+ * also counts calls per operator and function; and {@link ExpressionParseEvent} and
+ * {@link ExpressionEvalEvent} are emitted to Flight Recorder if a recording has them enabled.
+ */
+public final class Metrics {
+
+    static final int SCAN = 0;
+    static final int PARSE = 1;
+    static final int COMPILE = 2;
+    static final int EVAL = 3;
+    static final int EVAL_DOUBLE = 4;
+    static final int EVAL_BATCH = 5;
+
+    private static final String[] PHASES = {"scan", "parse", "compile", "eval", "evalDouble", "evalBatch"};
+    private static final int BUCKETS = 64;
+
+    static volatile boolean enabled = Boolean.getBoolean("expression.metrics");
+
+    private static final LongAdder[] counts = new LongAdder[PHASES.length];
+    private static final LongAdder[] nanos = new LongAdder[PHASES.length];
+    private static final LongAdder[][] histograms = new LongAdder[PHASES.length][BUCKETS];
+    private static final Map<String, LongAdder> calls = new ConcurrentHashMap<>();
+
+    static {
+        for (int phase = 0; phase < PHASES.length; phase++) {
+            counts[phase] = new LongAdder();
+            nanos[phase] = new LongAdder();
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                histograms[phase][bucket] = new LongAdder();
+            }
+        }
+    }
+
+    private Metrics() {
+    }
+
+    static void setEnabled(boolean enabled) {
+        Metrics.enabled = enabled;
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    static void record(int phase, long start) {
+        if (start == 0) {
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+        counts[phase].increment();
+        nanos[phase].add(elapsed);
+        histograms[phase][BUCKETS - Long.numberOfLeadingZeros(Math.max(elapsed, 1))].increment();
+    }
+
+    static void call(String symbol, long times) {
+        LongAdder adder = calls.get(symbol);
+        if (adder == null) {
+            adder = calls.computeIfAbsent(symbol, k -> new LongAdder());
+        }
+        adder.add(times);
+    }
+
+    static long getCount(int phase) {
+        return counts[phase].sum();
+    }
+
+    static long getTotalNanos(int phase) {
+        return nanos[phase].sum();
+    }
+
+    /**
+     * Bucket {@code i} counts calls that took from {@code 2^(i-1)} up to {@code 2^i - 1} nanoseconds.
+     */
+    static long[] getHistogram(int phase) {
+        long[] histogram = new long[BUCKETS];
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            histogram[bucket] = histograms[phase][bucket].sum();
+        }
+        return histogram;
+    }
+
+    static Map<String, Long> getCalls() {
+        Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : calls.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().sum());
+        }
+        return result;
+    }
+
+    static double getParseCacheHitRate() {
+        return hitRate(ParseCache.shared());
+    }
+
+    static double getCompiledCacheHitRate() {
+        return hitRate(ParseCache.compiled());
+    }
+
+    /**
+     * Share of {@link Expression#evalAdaptive()} calls answered by interval arithmetic without
+     * falling back to {@code BigDecimal}.
+     */
+    static double getAdaptiveHitRate() {
+        long hits = IntervalExpression.getHits();
+        long total = hits + IntervalExpression.getMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Share of {@link Expression#evalScaled()} calls answered in scaled {@code long} arithmetic.
+     */
+    static double getScaledHitRate() {
+        long hits = ScaledExpression.getHits();
+        long total = hits + ScaledExpression.getMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    private static double hitRate(ParseCache<?> cache) {
+        long hits = cache.getHits();
+        long total = hits + cache.getMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    static void reset() {
+        for (int phase = 0; phase < PHASES.length; phase++) {
+            counts[phase].reset();
+            nanos[phase].reset();
+            for (LongAdder bucket : histograms[phase]) {
+                bucket.reset();
+            }
+        }
+        calls.clear();
+        IntervalExpression.resetCounters();
+        ScaledExpression.resetCounters();
+    }
+
+    static String report() {
+        StringBuilder report = new StringBuilder();
+        for (int phase = 0; phase < PHASES.length; phase++) {
+            long count = getCount(phase);
+            if (count > 0) {
+                report.append(PHASES[phase]).append(": ").append(count).append(" calls, ")
+                        .append(getTotalNanos(phase) / count).append(" ns avg\n");
+            }
+        }
+        report.append("parse cache hit rate: ").append(String.format("%.3f", getParseCacheHitRate())).append('\n');
+        report.append("compiled cache hit rate: ").append(String.format("%.3f", getCompiledCacheHitRate())).append('\n');
+        report.append("adaptive hit rate: ").append(String.format("%.3f", getAdaptiveHitRate())).append('\n');
+        report.append("scaled hit rate: ").append(String.format("%.3f", getScaledHitRate())).append('\n');
+        for (Map.Entry<String, Long> entry : getCalls().entrySet()) {
+            report.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        }
+        return report.toString();
+    }
+}
@@ -1,4 +1,5 @@
 import java.math.BigDecimal;
+import java.math.MathContext;
 
 public abstract class Operator {
     private String oper;
@@ -23,5 +24,31 @@ public abstract class Operator {
         return leftAssoc;
     }
 
-    public abstract BigDecimal eval(BigDecimal v1, BigDecimal v2);
+    public abstract BigDecimal eval(BigDecimal v1, BigDecimal v2, MathContext mc);
+
+    /**
+     * Evaluates in {@code double} by way of {@link #eval(BigDecimal, BigDecimal, MathContext)}; a
+     * NaN or infinite operand, which {@code BigDecimal} cannot represent, gives NaN.
+     */
+    public double eval(double v1, double v2) {
+        if (!Double.isFinite(v1) || !Double.isFinite(v2)) {
+            return Double.NaN;
+        }
+        return eval(new BigDecimal(v1), new BigDecimal(v2), MathContext.DECIMAL64).doubleValue();
+    }
+
+    public void eval(double[] v1, double[] v2, double[] result, int length) {
+        for (int i = 0; i < length; i++) {
+            result[i] = eval(v1[i], v2[i]);
+        }
+    }
+
+    /**
+     * Bounds the result of this operator over the intervals {@code [lo[index], hi[index]]} and
+     * {@code [lo[index + 1], hi[index + 1]]}, writing it at {@code index}; see {@link Interval}.
+     * Returns {@code false} if the operator cannot bound its result, which is the default.
+     */
+    public boolean evalInterval(double[] lo, double[] hi, int index) {
+        return false;
+    }
 }
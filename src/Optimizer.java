@@ -0,0 +1,317 @@
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Simplifies a compiled node tree before it is evaluated.
+ * <p>
+ * Subtrees without variables are folded into constants at the expression's {@link MathContext},
+ * and the identities {@code x*1}, {@code x+0}, {@code x-0}, {@code x^1} and double negation are
+ * removed where {@code x} is already rounded to the context; otherwise the operator stays, since
+ * it is what rounds {@code x}. Both are only applied to the built-in operators and functions, matched by identity
+ * against {@link Registry#DEFAULT}: a custom operator or function may keep state or have side
+ * effects, so it is called on every evaluation even when its arguments are constant, and replacing
+ * {@code +} or {@code *} in a {@link Registry} switches the identities off. A subtree whose folding throws is left as it
+ * is, so errors such as division by zero still surface at evaluation time.
+ * <p>
+ * {@link #share} then hash-conses structurally identical subtrees, keyed on the resolved operator
+ * or function identity and the already shared operands, turning the tree into a DAG. Calls to
+ * custom operators and functions are never merged, for the same reason they are never folded. Every
+ * computed node that ends up with more than one parent is wrapped in a
+ * {@link CompiledExpression.Shared} node that evaluates it once per call.
+ */
+final class Optimizer {
+
+    private static final Map<String, Operator> BUILT_IN = Registry.DEFAULT.getOperators();
+    private static final Map<String, LazyFunction> FUNCTIONS = Registry.DEFAULT.getFunctions();
+
+    private final MathContext mc;
+    private int removed;
+    private int shared;
+    private int reused;
+    private final Map<Key, CompiledExpression.Node> canonical = new HashMap<>();
+    private final Map<CompiledExpression.Node, Integer> uses = new IdentityHashMap<>();
+    private final Map<CompiledExpression.Node, CompiledExpression.Node> wrapped = new IdentityHashMap<>();
+
+    Optimizer(MathContext mc) {
+        this.mc = mc;
+    }
+
+    int getRemoved() {
+        return removed;
+    }
+
+    int getShared() {
+        return shared;
+    }
+
+    int getReused() {
+        return reused;
+    }
+
+    CompiledExpression.Node share(CompiledExpression.Node root, int firstMemo) {
+        root = intern(root);
+        uses.merge(root, 1, Integer::sum);
+        return wrap(root, firstMemo);
+    }
+
+    private CompiledExpression.Node intern(CompiledExpression.Node node) {
+        Object symbol;
+        boolean builtIn;
+        CompiledExpression.Node[] children = children(node);
+        if (node instanceof CompiledExpression.Constant) {
+            symbol = ((CompiledExpression.Constant) node).value;
+            builtIn = true;
+        } else if (node instanceof CompiledExpression.Variable) {
+            symbol = ((CompiledExpression.Variable) node).slot;
+            builtIn = true;
+        } else if (node instanceof CompiledExpression.Binary) {
+            Operator operator = ((CompiledExpression.Binary) node).operator;
+            symbol = operator;
+            builtIn = BUILT_IN.get(operator.getOper()) == operator;
+        } else {
+            LazyFunction function = node instanceof CompiledExpression.Call
+                    ? ((CompiledExpression.Call) node).function : ((CompiledExpression.LazyCall) node).function;
+            symbol = function;
+            builtIn = FUNCTIONS.get(function.getName()) == function;
+        }
+        for (int i = 0; i < children.length; i++) {
+            children[i] = intern(children[i]);
+        }
+        Key key = builtIn ? new Key(symbol, children) : null;
+        CompiledExpression.Node existing = key == null ? null : canonical.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        node = copy(node, children);
+        if (key != null) {
+            canonical.put(key, node);
+        }
+        for (CompiledExpression.Node child : children) {
+            uses.merge(child, 1, Integer::sum);
+        }
+        return node;
+    }
+
+    private CompiledExpression.Node wrap(CompiledExpression.Node node, int firstMemo) {
+        CompiledExpression.Node result = wrapped.get(node);
+        if (result != null) {
+            return result;
+        }
+        CompiledExpression.Node[] children = children(node);
+        for (int i = 0; i < children.length; i++) {
+            children[i] = wrap(children[i], firstMemo);
+        }
+        result = copy(node, children);
+        int count = uses.get(node);
+        if (count > 1 && children.length > 0) {
+            result = new CompiledExpression.Shared(firstMemo + shared++, result);
+            reused += count - 1;
+        }
+        wrapped.put(node, result);
+        return result;
+    }
+
+    private static CompiledExpression.Node[] children(CompiledExpression.Node node) {
+        if (node instanceof CompiledExpression.Binary) {
+            CompiledExpression.Binary binary = (CompiledExpression.Binary) node;
+            return new CompiledExpression.Node[]{binary.left, binary.right};
+        }
+        if (node instanceof CompiledExpression.Call) {
+            return ((CompiledExpression.Call) node).params.clone();
+        }
+        if (node instanceof CompiledExpression.LazyCall) {
+            return ((CompiledExpression.LazyCall) node).params.clone();
+        }
+        return new CompiledExpression.Node[0];
+    }
+
+    private static CompiledExpression.Node copy(CompiledExpression.Node node, CompiledExpression.Node[] children) {
+        if (Arrays.equals(children(node), children)) {
+            return node;
+        }
+        if (node instanceof CompiledExpression.Binary) {
+            CompiledExpression.Binary binary = (CompiledExpression.Binary) node;
+            return new CompiledExpression.Binary(binary.operator, children[0], children[1], binary.mc);
+        }
+        if (node instanceof CompiledExpression.Call) {
+            CompiledExpression.Call call = (CompiledExpression.Call) node;
+            return new CompiledExpression.Call(call.function, children, call.mc);
+        }
+        CompiledExpression.LazyCall call = (CompiledExpression.LazyCall) node;
+        return new CompiledExpression.LazyCall(call.function, children, call.mc);
+    }
+
+    CompiledExpression.Node optimize(CompiledExpression.Node node) {
+        if (node instanceof CompiledExpression.Binary) {
+            return optimize((CompiledExpression.Binary) node);
+        }
+        if (node instanceof CompiledExpression.Call) {
+            CompiledExpression.Call call = (CompiledExpression.Call) node;
+            return fold(node, optimize(call.params));
+        }
+        if (node instanceof CompiledExpression.LazyCall) {
+            CompiledExpression.LazyCall call = (CompiledExpression.LazyCall) node;
+            return fold(node, optimize(call.params));
+        }
+        return node;
+    }
+
+    private CompiledExpression.Node optimize(CompiledExpression.Binary node) {
+        CompiledExpression.Node left = optimize(node.left);
+        CompiledExpression.Node right = optimize(node.right);
+        Operator operator = node.operator;
+        if (left instanceof CompiledExpression.Constant && right instanceof CompiledExpression.Constant
+                && BUILT_IN.get(operator.getOper()) == operator) {
+            try {
+                removed += 2;
+                return new CompiledExpression.Constant(operator.eval(value(left), value(right), mc));
+            } catch (RuntimeException e) {
+                removed -= 2;
+            }
+        }
+        if ((is(operator, "+") || is(operator, "*")) && isIdentity(operator, left) && isRounded(right)) {
+            removed += 2;
+            return right;
+        }
+        if ((is(operator, "+") || is(operator, "-") || is(operator, "*") || is(operator, "^"))
+                && isIdentity(operator, right) && isRounded(left)) {
+            removed += 2;
+            return left;
+        }
+        CompiledExpression.Node result = left == node.left && right == node.right
+                ? node : new CompiledExpression.Binary(operator, left, right, mc);
+        CompiledExpression.Node negated = negated(result);
+        if (negated != null && negated(negated) != null && isRounded(negated(negated))) {
+            removed += 4;
+            return negated(negated);
+        }
+        return result;
+    }
+
+    private CompiledExpression.Node[] optimize(CompiledExpression.Node[] params) {
+        CompiledExpression.Node[] result = params.clone();
+        for (int i = 0; i < result.length; i++) {
+            result[i] = optimize(result[i]);
+        }
+        return result;
+    }
+
+    private CompiledExpression.Node fold(CompiledExpression.Node call, CompiledExpression.Node[] params) {
+        LazyFunction function;
+        if (call instanceof CompiledExpression.Call) {
+            function = ((CompiledExpression.Call) call).function;
+            call = new CompiledExpression.Call((Function) function, params, mc);
+        } else {
+            function = ((CompiledExpression.LazyCall) call).function;
+            call = new CompiledExpression.LazyCall(function, params, mc);
+        }
+        boolean constant = FUNCTIONS.get(function.getName()) == function;
+        for (CompiledExpression.Node param : params) {
+            constant &= param instanceof CompiledExpression.Constant;
+        }
+        if (constant) {
+            try {
+                BigDecimal value = call.eval(null);
+                removed += params.length;
+                return new CompiledExpression.Constant(value);
+            } catch (RuntimeException e) {
+                return call;
+            }
+        }
+        return call;
+    }
+
+    private static CompiledExpression.Node negated(CompiledExpression.Node node) {
+        if (!(node instanceof CompiledExpression.Binary)) {
+            return null;
+        }
+        CompiledExpression.Binary binary = (CompiledExpression.Binary) node;
+        if (is(binary.operator, "-") && value(binary.left, BigDecimal.ZERO)) {
+            return binary.right;
+        }
+        if (is(binary.operator, "*")) {
+            if (value(binary.left, BigDecimal.ONE.negate())) {
+                return binary.right;
+            }
+            if (value(binary.right, BigDecimal.ONE.negate())) {
+                return binary.left;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Whether {@code node} always yields a value already rounded to {@code mc}, so that dropping
+     * an identity around it loses no rounding: {@code FLOOR}, {@code CEILING} and custom functions
+     * can return more digits than the context allows.
+     */
+    private boolean isRounded(CompiledExpression.Node node) {
+        if (node instanceof CompiledExpression.Variable) {
+            return true;
+        }
+        if (node instanceof CompiledExpression.Constant) {
+            return value(node).round(mc).compareTo(value(node)) == 0;
+        }
+        if (node instanceof CompiledExpression.Binary) {
+            CompiledExpression.Binary binary = (CompiledExpression.Binary) node;
+            return BUILT_IN.get(binary.operator.getOper()) == binary.operator && binary.mc.equals(mc);
+        }
+        return false;
+    }
+
+    private static boolean isIdentity(Operator operator, CompiledExpression.Node node) {
+        return value(node, is(operator, "+") || is(operator, "-") ? BigDecimal.ZERO : BigDecimal.ONE);
+    }
+
+    private static boolean is(Operator operator, String name) {
+        return BUILT_IN.get(name) == operator;
+    }
+
+    private static boolean value(CompiledExpression.Node node, BigDecimal value) {
+        return node instanceof CompiledExpression.Constant && value(node).compareTo(value) == 0;
+    }
+
+    private static BigDecimal value(CompiledExpression.Node node) {
+        return ((CompiledExpression.Constant) node).value;
+    }
+
+    private static final class Key {
+        private final Object symbol;
+        private final CompiledExpression.Node[] children;
+        private final int hash;
+
+        Key(Object symbol, CompiledExpression.Node[] children) {
+            this.symbol = symbol;
+            this.children = children;
+            int hash = symbol.hashCode();
+            for (CompiledExpression.Node child : children) {
+                hash = 31 * hash + System.identityHashCode(child);
+            }
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key that = (Key) o;
+            if (!symbol.equals(that.symbol) || children.length != that.children.length) {
+                return false;
+            }
+            for (int i = 0; i < children.length; i++) {
+                if (children[i] != that.children[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
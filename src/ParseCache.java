@@ -0,0 +1,151 @@
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+public class ParseCache<T> {
+
+    private static final int SEGMENTS = 16;
+    private static final ParseCache<Program> SHARED =
+            new ParseCache<>(Integer.getInteger("expression.parseCache.size", 4096));
+    private static final ParseCache<CompiledExpression> COMPILED =
+            new ParseCache<>(Integer.getInteger("expression.compiledCache.size", 1024));
+
+    private final List<Segment> segments = new ArrayList<>(SEGMENTS);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    ParseCache(int capacity) {
+        int perSegment = Math.max(1, (capacity + SEGMENTS - 1) / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments.add(new Segment(perSegment));
+        }
+    }
+
+    static ParseCache<Program> shared() {
+        return SHARED;
+    }
+
+    static ParseCache<CompiledExpression> compiled() {
+        return COMPILED;
+    }
+
+    /**
+     * Returns the entry for {@code expression} parsed against {@code registry}, creating it with
+     * {@code parser} on a miss. Registries are told apart by identity: two registries with the same
+     * operator names can still hold different implementations, and a cached program keeps the
+     * objects of the registry that parsed it.
+     */
+    T get(String expression, Registry registry, Supplier<T> parser) {
+        return get(new Key(expression, registry, null), parser);
+    }
+
+    /**
+     * Returns the entry for {@code expression} parsed against {@code registry} and compiled at
+     * {@code mc}.
+     */
+    T get(String expression, Registry registry, MathContext mc, Supplier<T> parser) {
+        return get(new Key(expression, registry, mc), parser);
+    }
+
+    private T get(Key key, Supplier<T> parser) {
+        Segment segment = segments.get((key.hashCode() ^ (key.hashCode() >>> 16)) & (SEGMENTS - 1));
+        T value;
+        synchronized (segment) {
+            value = segment.get(key);
+        }
+        if (value != null) {
+            hits.increment();
+            return value;
+        }
+        misses.increment();
+        value = parser.get();
+        synchronized (segment) {
+            segment.put(key, value);
+        }
+        return value;
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+
+    long getEvictions() {
+        return evictions.sum();
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    private final class Segment extends LinkedHashMap<Key, T> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, T> eldest) {
+            if (size() > capacity) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private static final class Key {
+        private final String expression;
+        private final Registry registry;
+        private final MathContext mc;
+        private final int hash;
+
+        Key(String expression, Registry registry, MathContext mc) {
+            this.expression = expression;
+            this.registry = registry;
+            this.mc = mc;
+            this.hash = 31 * (31 * expression.hashCode() + System.identityHashCode(registry)) + Objects.hashCode(mc);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key that = (Key) o;
+            return registry == that.registry && Objects.equals(mc, that.mc)
+                    && expression.equals(that.expression);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
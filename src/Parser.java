@@ -0,0 +1,289 @@
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+final class Parser {
+
+    private static final ThreadLocal<Parser> PARSERS = ThreadLocal.withInitial(Parser::new);
+
+    private final TokenScanner scanner = new TokenScanner();
+    private final List<BigDecimal> literals = new ArrayList<>();
+    private final List<String> variables = new ArrayList<>();
+    private final List<Operator> operators = new ArrayList<>();
+    private final List<LazyFunction> functions = new ArrayList<>();
+    private int[] code = new int[16];
+    private int codeLength;
+    private int[] stack = new int[16];
+    private int sp;
+    private int[] frames = new int[8];
+    private int frame;
+    private Registry registry;
+    private List<Diagnostic> diagnostics;
+
+    static Program parse(String expression, Registry registry) {
+        if (Metrics.enabled) {
+            ExpressionParseEvent event = new ExpressionParseEvent();
+            event.begin();
+            long start = Metrics.start();
+            Program program = parse(PARSERS.get(), expression, registry);
+            Metrics.record(Metrics.PARSE, start);
+            if (event.shouldCommit()) {
+                event.expression = expression;
+                event.commit();
+            }
+            return program;
+        }
+        return parse(PARSERS.get(), expression, registry);
+    }
+
+    /**
+     * Scans and parses {@code expression} to the end, collecting every problem instead of
+     * reporting it; returns the diagnostics in order of position, empty if the expression is valid.
+     */
+    static List<Diagnostic> validate(String expression, Registry registry) {
+        Parser parser = PARSERS.get();
+        List<Diagnostic> diagnostics = new ArrayList<>();
+        parser.diagnostics = diagnostics;
+        try {
+            parser.run(expression, registry);
+        } finally {
+            parser.reset();
+        }
+        diagnostics.sort((a, b) -> Integer.compare(a.getPosition(), b.getPosition()));
+        for (int i = diagnostics.size() - 1; i > 0; i--) {
+            Diagnostic previous = diagnostics.get(i - 1);
+            if (previous.getCode() == diagnostics.get(i).getCode()
+                    && previous.getPosition() == diagnostics.get(i).getPosition()) {
+                diagnostics.remove(i);
+            }
+        }
+        return diagnostics;
+    }
+
+    private static Program parse(Parser parser, String expression, Registry registry) {
+        try {
+            return parser.run(expression, registry);
+        } finally {
+            parser.reset();
+        }
+    }
+
+    private Program run(String expression, Registry registry) {
+        this.registry = registry;
+        long start = Metrics.start();
+        scanner.scan(expression, registry, diagnostics);
+        Metrics.record(Metrics.SCAN, start);
+        int[] kinds = scanner.kinds;
+        int lastFunction = -1;
+
+        for (int i = 0; i < scanner.count; i++) {
+            int previous = i - 1;
+            switch (kinds[i]) {
+                case TokenScanner.NUMBER:
+                    emitLiteral(i);
+                    break;
+                case TokenScanner.VARIABLE:
+                    emitVariable(i);
+                    break;
+                case TokenScanner.FUNCTION:
+                    push(i);
+                    lastFunction = i;
+                    break;
+                case TokenScanner.COMMA:
+                    if (previous >= 0 && kinds[previous] == TokenScanner.OPERATOR) {
+                        error(Diagnostic.Code.MISSING_OPERAND, previous);
+                    }
+                    while (sp > 0 && kinds[stack[sp - 1]] != TokenScanner.OPEN) {
+                        emitOperator(stack[--sp]);
+                    }
+                    if (sp == 0) {
+                        error(Diagnostic.Code.MISPLACED_COMMA, position(i),
+                                lastFunction < 0 ? null : scanner.text(lastFunction));
+                    }
+                    break;
+                case TokenScanner.OPERATOR:
+                    if (previous >= 0 && (kinds[previous] == TokenScanner.COMMA || kinds[previous] == TokenScanner.OPEN)) {
+                        error(Diagnostic.Code.MISSING_OPERAND, i);
+                    }
+                    Operator o1 = registry.getOperator(scanner.symbols[i]);
+                    while (sp > 0 && kinds[stack[sp - 1]] == TokenScanner.OPERATOR) {
+                        Operator o2 = registry.getOperator(scanner.symbols[stack[sp - 1]]);
+                        if ((o1.isLeftAssoc() && o1.getPrecedence() <= o2.getPrecedence())
+                                || o1.getPrecedence() < o2.getPrecedence()) {
+                            emitOperator(stack[--sp]);
+                        } else {
+                            break;
+                        }
+                    }
+                    push(i);
+                    break;
+                case TokenScanner.OPEN:
+                    if (previous >= 0) {
+                        if (kinds[previous] == TokenScanner.NUMBER) {
+                            error(Diagnostic.Code.MISSING_OPERATOR, position(i), null);
+                        }
+                        if (kinds[previous] == TokenScanner.FUNCTION) {
+                            openFrame();
+                        }
+                    }
+                    push(i);
+                    break;
+                default:
+                    if (previous >= 0 && kinds[previous] == TokenScanner.OPERATOR) {
+                        error(Diagnostic.Code.MISSING_OPERAND, previous);
+                    }
+                    while (sp > 0 && kinds[stack[sp - 1]] != TokenScanner.OPEN) {
+                        emitOperator(stack[--sp]);
+                    }
+                    if (sp == 0) {
+                        error(Diagnostic.Code.MISMATCHED_PARENTHESES, position(i), null);
+                        break;
+                    }
+                    int open = stack[--sp];
+                    if (open > 0 && kinds[open - 1] == TokenScanner.FUNCTION
+                            && sp > 0 && stack[sp - 1] == open - 1) {
+                        emitFunction(stack[--sp]);
+                    }
+            }
+        }
+
+        while (sp > 0) {
+            int token = stack[--sp];
+            if (kinds[token] == TokenScanner.OPEN) {
+                error(Diagnostic.Code.MISMATCHED_PARENTHESES, position(token), null);
+            } else if (kinds[token] != TokenScanner.OPERATOR) {
+                error(Diagnostic.Code.UNKNOWN_FUNCTION, token);
+            } else {
+                emitOperator(token);
+            }
+        }
+
+        int end = scanner.offset + scanner.length;
+        if (frame > 0) {
+            error(Diagnostic.Code.UNCLOSED_FUNCTION, end, null);
+        } else if (frames[0] > 1) {
+            error(Diagnostic.Code.TOO_MANY_VALUES, end, null);
+        } else if (frames[0] < 1) {
+            error(Diagnostic.Code.EMPTY_EXPRESSION, end, null);
+        }
+
+        return new Program(Arrays.copyOf(code, codeLength),
+                literals.toArray(new BigDecimal[0]),
+                variables.toArray(new String[0]),
+                operators.toArray(new Operator[0]),
+                functions.toArray(new LazyFunction[0]),
+                expression, registry);
+    }
+
+    private void emitLiteral(int token) {
+        if (diagnostics != null && !scanner.isNumber(token)) {
+            error(Diagnostic.Code.INVALID_NUMBER, token);
+            literals.add(BigDecimal.ZERO);
+        } else {
+            literals.add(new BigDecimal(scanner.chars, scanner.starts[token], scanner.ends[token] - scanner.starts[token]));
+        }
+        emit(Program.LITERAL, 0, literals.size() - 1);
+        frames[frame]++;
+    }
+
+    private void emitVariable(int token) {
+        int slot = -1;
+        for (int i = 0; i < variables.size(); i++) {
+            if (scanner.matches(token, variables.get(i))) {
+                slot = i;
+                break;
+            }
+        }
+        if (slot < 0) {
+            variables.add(scanner.text(token));
+            slot = variables.size() - 1;
+        }
+        emit(Program.VARIABLE, 0, slot);
+        frames[frame]++;
+    }
+
+    private void emitOperator(int token) {
+        Operator operator = registry.getOperator(scanner.symbols[token]);
+        if (frames[frame] < 2) {
+            error(Diagnostic.Code.MISSING_OPERAND, token);
+        }
+        emit(Program.OPERATOR, 0, indexOf(operators, operator));
+        frames[frame]--;
+    }
+
+    private void emitFunction(int token) {
+        LazyFunction function = registry.getFunction(scanner.symbols[token]);
+        int arguments = frames[frame];
+        if (frame == 0) {
+            error(Diagnostic.Code.TOO_MANY_FUNCTION_CALLS, token);
+        } else {
+            frame--;
+        }
+        if (arguments > Program.MAX_ARGUMENTS) {
+            error(Diagnostic.Code.TOO_MANY_PARAMETERS, token);
+            arguments = Program.MAX_ARGUMENTS;
+        }
+        emit(Program.FUNCTION, arguments, indexOf(functions, function));
+        frames[frame]++;
+    }
+
+    private <T> int indexOf(List<T> symbols, T symbol) {
+        for (int i = 0; i < symbols.size(); i++) {
+            if (symbols.get(i) == symbol) {
+                return i;
+            }
+        }
+        symbols.add(symbol);
+        return symbols.size() - 1;
+    }
+
+    private void emit(int opcode, int arguments, int index) {
+        if (index > Program.MAX_INDEX) {
+            throw new IllegalStateException("Expression too large");
+        }
+        if (codeLength == code.length) {
+            code = Arrays.copyOf(code, code.length * 2);
+        }
+        code[codeLength++] = Program.instruction(opcode, arguments, index);
+    }
+
+    private void push(int token) {
+        if (sp == stack.length) {
+            stack = Arrays.copyOf(stack, stack.length * 2);
+        }
+        stack[sp++] = token;
+    }
+
+    private void openFrame() {
+        if (++frame == frames.length) {
+            frames = Arrays.copyOf(frames, frames.length * 2);
+        }
+        frames[frame] = 0;
+    }
+
+    private int position(int token) {
+        return scanner.offset + scanner.starts[token];
+    }
+
+    private void error(Diagnostic.Code code, int token) {
+        error(code, position(token), scanner.text(token));
+    }
+
+    private void error(Diagnostic.Code code, int position, String symbol) {
+        Diagnostic.report(diagnostics, code, position, symbol);
+    }
+
+    private void reset() {
+        literals.clear();
+        variables.clear();
+        operators.clear();
+        functions.clear();
+        codeLength = 0;
+        sp = 0;
+        frame = 0;
+        frames[0] = 0;
+        registry = null;
+        diagnostics = null;
+    }
+}
@@ -0,0 +1,263 @@
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The parsed, validated form of an expression, packed to keep millions of formulas resident.
+ * <p>
+ * The parser emits {@code int} instructions that index per-expression tables; the constructor
+ * packs them into one {@code byte[]} of variable-length integers. The stream starts with the
+ * instruction count and the variable names as ids into a process-wide symbol table, so each name
+ * is held once however many programs use it. Each instruction is then one header, its kind in the
+ * low three bits and its operand above: a variable slot, an operator or function id in the
+ * {@link Registry} (functions are followed by their argument count), or a literal. Literals of up
+ * to 18 digits are written inline as scale and unscaled value, so they cost no objects; wider
+ * ones go into a literal pool, deduplicated per program. The source text is optional, see
+ * {@link #withoutSource()}. A typical formula of half a dozen tokens then takes about 64 bytes.
+ * <p>
+ * {@link Reader} decodes the stream instruction by instruction.
+ */
+public final class Program {
+
+    static final int LITERAL = 0;
+    static final int VARIABLE = 1;
+    static final int OPERATOR = 2;
+    static final int FUNCTION = 3;
+
+    private static final int INLINE_LITERAL = 4;
+    private static final int INLINE_PRECISION = 18;
+
+    static final int MAX_INDEX = 0xfffff;
+    static final int MAX_ARGUMENTS = 0xff;
+
+    private static final BigDecimal[] NO_LITERALS = new BigDecimal[0];
+    private static final Map<String, Integer> SYMBOL_IDS = new ConcurrentHashMap<>();
+    private static volatile String[] symbols = new String[64];
+
+    final byte[] code;
+    final BigDecimal[] literals;
+    final Registry registry;
+    final String source;
+
+    Program(int[] code, BigDecimal[] literals, String[] variables, Operator[] operators, LazyFunction[] functions,
+            String source, Registry registry) {
+        List<BigDecimal> pool = new ArrayList<>();
+        Packer packer = new Packer(code.length * 2 + variables.length + 2);
+        packer.write(code.length);
+        packer.write(variables.length);
+        for (String variable : variables) {
+            packer.write(symbol(variable));
+        }
+        for (int instruction : code) {
+            int index = index(instruction);
+            switch (opcode(instruction)) {
+                case LITERAL:
+                    BigDecimal literal = literals[index];
+                    if (literal.precision() <= INLINE_PRECISION) {
+                        packer.write(zigzag(literal.scale()) << 3 | INLINE_LITERAL);
+                        packer.write(zigzag(literal.unscaledValue().longValue()));
+                    } else {
+                        int slot = pool.indexOf(literal);
+                        if (slot < 0) {
+                            pool.add(literal);
+                            slot = pool.size() - 1;
+                        }
+                        packer.write((long) slot << 3 | LITERAL);
+                    }
+                    break;
+                case VARIABLE:
+                    packer.write((long) index << 3 | VARIABLE);
+                    break;
+                case OPERATOR:
+                    packer.write((long) registry.idOf(operators[index]) << 3 | OPERATOR);
+                    break;
+                default:
+                    packer.write((long) registry.idOf(functions[index]) << 3 | FUNCTION);
+                    packer.write(arguments(instruction));
+            }
+        }
+        this.code = packer.toByteArray();
+        this.literals = pool.isEmpty() ? NO_LITERALS : pool.toArray(new BigDecimal[0]);
+        this.registry = registry;
+        this.source = source;
+    }
+
+    private Program(Program program, String source) {
+        this.code = program.code;
+        this.literals = program.literals;
+        this.registry = program.registry;
+        this.source = source;
+    }
+
+    static int instruction(int opcode, int arguments, int index) {
+        return opcode << 28 | arguments << 20 | index;
+    }
+
+    static int opcode(int instruction) {
+        return instruction >>> 28;
+    }
+
+    static int arguments(int instruction) {
+        return (instruction >>> 20) & MAX_ARGUMENTS;
+    }
+
+    static int index(int instruction) {
+        return instruction & MAX_INDEX;
+    }
+
+    /**
+     * Returns this program without its source text, sharing everything else.
+     */
+    Program withoutSource() {
+        return source == null ? this : new Program(this, null);
+    }
+
+    /**
+     * Number of instructions.
+     */
+    int length() {
+        return (int) new Reader(this).read();
+    }
+
+    String[] variables() {
+        Reader reader = new Reader(this);
+        reader.read();
+        String[] variables = new String[(int) reader.read()];
+        String[] names = symbols;
+        for (int i = 0; i < variables.length; i++) {
+            variables[i] = names[(int) reader.read()];
+        }
+        return variables;
+    }
+
+    Reader reader() {
+        Reader reader = new Reader(this);
+        reader.read();
+        for (long i = reader.read(); i > 0; i--) {
+            reader.read();
+        }
+        return reader;
+    }
+
+    private static int symbol(String name) {
+        Integer id = SYMBOL_IDS.get(name);
+        if (id != null) {
+            return id;
+        }
+        synchronized (SYMBOL_IDS) {
+            id = SYMBOL_IDS.get(name);
+            if (id == null) {
+                id = SYMBOL_IDS.size();
+                String[] names = symbols;
+                if (id == names.length) {
+                    names = Arrays.copyOf(names, names.length * 2);
+                }
+                names[id] = name;
+                symbols = names;
+                SYMBOL_IDS.put(name, id);
+            }
+            return id;
+        }
+    }
+
+    private static long zigzag(long value) {
+        return value << 1 ^ value >> 63;
+    }
+
+    private static long unzigzag(long value) {
+        return value >>> 1 ^ -(value & 1);
+    }
+
+    /**
+     * Decodes one instruction per {@link #next()} into its public fields; {@code index} is the
+     * variable slot for {@link #VARIABLE} and is unused otherwise.
+     */
+    static final class Reader {
+        private final Program program;
+        private int position;
+
+        int opcode;
+        int arguments;
+        int index;
+        BigDecimal literal;
+        Operator operator;
+        LazyFunction function;
+
+        private Reader(Program program) {
+            this.program = program;
+        }
+
+        boolean next() {
+            if (position == program.code.length) {
+                return false;
+            }
+            long header = read();
+            long operand = header >>> 3;
+            switch ((int) header & 7) {
+                case INLINE_LITERAL:
+                    opcode = LITERAL;
+                    literal = BigDecimal.valueOf(unzigzag(read()), (int) unzigzag(operand));
+                    break;
+                case LITERAL:
+                    opcode = LITERAL;
+                    literal = program.literals[(int) operand];
+                    break;
+                case VARIABLE:
+                    opcode = VARIABLE;
+                    index = (int) operand;
+                    break;
+                case OPERATOR:
+                    opcode = OPERATOR;
+                    operator = program.registry.getOperator((int) operand);
+                    break;
+                default:
+                    opcode = FUNCTION;
+                    function = program.registry.getFunction((int) operand);
+                    arguments = (int) read();
+            }
+            return true;
+        }
+
+        private long read() {
+            byte[] code = program.code;
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = code[position++];
+                value |= (long) (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+    }
+
+    private static final class Packer {
+        private byte[] bytes;
+        private int length;
+
+        Packer(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        void write(long value) {
+            while (true) {
+                if (length == bytes.length) {
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                }
+                if ((value & ~0x7fL) == 0) {
+                    bytes[length++] = (byte) value;
+                    return;
+                }
+                bytes[length++] = (byte) (value & 0x7f | 0x80);
+                value >>>= 7;
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, length);
+        }
+    }
+}
@@ -0,0 +1,304 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A versioned binary file of parsed {@link Program}s, so that a large rule set can be loaded
+ * without tokenizing and parsing its text again.
+ * <p>
+ * The file starts with a fixed header: magic, format version, the {@link Registry} fingerprint
+ * the programs were parsed against, a CRC-32 of everything after the header, and the number of
+ * programs, strings and literals. Three offset tables follow, then the data they point into.
+ * Variable, operator and function names and the source text go into one string pool and numeric
+ * literals into one literal pool, each stored once however many programs use it. A program is its
+ * opcode stream as produced by the parser followed by pool references for its literal, variable,
+ * operator and function tables, so instructions keep their indices.
+ * <p>
+ * {@link #open} memory-maps the file and checks header and checksum; programs, strings and
+ * literals are decoded straight from the mapping on first use. A file written against a different
+ * registry, even one that only replaces an implementation, is rejected with an {@link IOException},
+ * since operator precedence decides the shape of every program and operators and functions are
+ * looked up by name when it is decoded. Decoded entries are immutable, so threads racing on the
+ * same entry at worst decode it twice.
+ */
+final class ProgramFile {
+
+    static final int MAGIC = 0x45585052;
+    static final int VERSION = 1;
+
+    private static final int HEADER = 32;
+
+    private final ByteBuffer buffer;
+    private final Registry registry;
+    private final int programCount;
+    private final int stringCount;
+    private final int literalCount;
+    private final String[] strings;
+    private final BigDecimal[] literals;
+    private final Program[] programs;
+
+    private ProgramFile(ByteBuffer buffer, Registry registry) {
+        this.buffer = buffer;
+        this.registry = registry;
+        this.programCount = buffer.getInt(20);
+        this.stringCount = buffer.getInt(24);
+        this.literalCount = buffer.getInt(28);
+        this.strings = new String[stringCount];
+        this.literals = new BigDecimal[literalCount];
+        this.programs = new Program[programCount];
+    }
+
+    /**
+     * Writes {@code programs}, which must have been parsed against {@code registry}, to
+     * {@code file}, replacing it.
+     */
+    static void write(Path file, Registry registry, List<Program> programs) throws IOException {
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        Map<BigDecimal, Integer> literals = new LinkedHashMap<>();
+        int[][] codes = new int[programs.size()][];
+        int[][] refs = new int[programs.size()][];
+        for (int p = 0; p < refs.length; p++) {
+            Program program = programs.get(p);
+            List<BigDecimal> literalTable = new ArrayList<>();
+            List<Operator> operatorTable = new ArrayList<>();
+            List<LazyFunction> functionTable = new ArrayList<>();
+            codes[p] = unpack(program, literalTable, operatorTable, functionTable);
+            String[] variables = program.variables();
+            int[] ref = new int[literalTable.size() + variables.length + operatorTable.size() + functionTable.size() + 5];
+            int r = 0;
+            ref[r++] = literalTable.size();
+            for (BigDecimal literal : literalTable) {
+                ref[r++] = literals.computeIfAbsent(literal, k -> literals.size());
+            }
+            ref[r++] = variables.length;
+            for (String variable : variables) {
+                ref[r++] = strings.computeIfAbsent(variable, k -> strings.size());
+            }
+            ref[r++] = operatorTable.size();
+            for (Operator operator : operatorTable) {
+                ref[r++] = strings.computeIfAbsent(operator.getOper(), k -> strings.size());
+            }
+            ref[r++] = functionTable.size();
+            for (LazyFunction function : functionTable) {
+                ref[r++] = strings.computeIfAbsent(function.getName(), k -> strings.size());
+            }
+            ref[r] = program.source == null ? -1 : strings.computeIfAbsent(program.source, k -> strings.size());
+            refs[p] = ref;
+        }
+
+        int tables = HEADER + 4 * (strings.size() + literals.size() + programs.size());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(bytes, 1 << 16));
+        int[] offsets = new int[strings.size() + literals.size() + programs.size()];
+        int o = 0;
+        for (String string : strings.keySet()) {
+            offsets[o++] = tables + data.size();
+            byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+            data.writeInt(utf8.length);
+            data.write(utf8);
+        }
+        for (BigDecimal literal : literals.keySet()) {
+            offsets[o++] = tables + data.size();
+            byte[] unscaled = literal.unscaledValue().toByteArray();
+            data.writeInt(literal.scale());
+            data.writeInt(unscaled.length);
+            data.write(unscaled);
+        }
+        for (int p = 0; p < refs.length; p++) {
+            offsets[o++] = tables + data.size();
+            data.writeInt(codes[p].length);
+            for (int instruction : codes[p]) {
+                data.writeInt(instruction);
+            }
+            for (int ref : refs[p]) {
+                data.writeInt(ref);
+            }
+        }
+        data.flush();
+
+        ByteBuffer body = ByteBuffer.allocate(tables - HEADER + bytes.size());
+        for (int offset : offsets) {
+            body.putInt(offset);
+        }
+        body.put(bytes.toByteArray());
+        body.flip();
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putInt(MAGIC).putInt(VERSION).putLong(registry.getFingerprint()).putInt((int) crc.getValue())
+                .putInt(programs.size()).putInt(strings.size()).putInt(literals.size());
+        header.flip();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (header.hasRemaining() || body.hasRemaining()) {
+                channel.write(new ByteBuffer[]{header, body});
+            }
+        }
+    }
+
+    /**
+     * Turns the packed code of {@code program} back into the parser's instructions, filling the
+     * per-program tables they index.
+     */
+    private static int[] unpack(Program program, List<BigDecimal> literals, List<Operator> operators,
+                                List<LazyFunction> functions) {
+        int[] code = new int[program.length()];
+        int pc = 0;
+        Program.Reader reader = program.reader();
+        while (reader.next()) {
+            switch (reader.opcode) {
+                case Program.LITERAL:
+                    literals.add(reader.literal);
+                    code[pc++] = Program.instruction(Program.LITERAL, 0, literals.size() - 1);
+                    break;
+                case Program.VARIABLE:
+                    code[pc++] = Program.instruction(Program.VARIABLE, 0, reader.index);
+                    break;
+                case Program.OPERATOR:
+                    code[pc++] = Program.instruction(Program.OPERATOR, 0, indexOf(operators, reader.operator));
+                    break;
+                default:
+                    code[pc++] = Program.instruction(Program.FUNCTION, reader.arguments, indexOf(functions, reader.function));
+            }
+        }
+        return code;
+    }
+
+    private static <T> int indexOf(List<T> table, T symbol) {
+        for (int i = 0; i < table.size(); i++) {
+            if (table.get(i) == symbol) {
+                return i;
+            }
+        }
+        table.add(symbol);
+        return table.size() - 1;
+    }
+
+    /**
+     * Memory-maps {@code file} and verifies it; programs are decoded from the mapping by
+     * {@link #get(int)}.
+     */
+    static ProgramFile open(Path file, Registry registry) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Not an expression file: " + file);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not an expression file: " + file);
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported expression file version " + buffer.getInt(4) + ": " + file);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(HEADER, buffer.capacity() - HEADER));
+        if ((int) crc.getValue() != buffer.getInt(16)) {
+            throw new IOException("Checksum mismatch: " + file);
+        }
+        if (buffer.getLong(8) != registry.getFingerprint()) {
+            throw new IOException("Expression file was written for a different registry: " + file);
+        }
+        return new ProgramFile(buffer, registry);
+    }
+
+    int size() {
+        return programCount;
+    }
+
+    Program get(int index) {
+        Program program = programs[index];
+        if (program == null) {
+            program = decode(offset(stringCount + literalCount + index));
+            programs[index] = program;
+        }
+        return program;
+    }
+
+    CompiledExpression compile(int index, MathContext mc) {
+        return new CompiledExpression(get(index), registry.getConstants(), mc);
+    }
+
+    private Program decode(int position) {
+        int[] code = new int[buffer.getInt(position)];
+        position += 4;
+        for (int i = 0; i < code.length; i++, position += 4) {
+            code[i] = buffer.getInt(position);
+        }
+        BigDecimal[] literals = new BigDecimal[buffer.getInt(position)];
+        position += 4;
+        for (int i = 0; i < literals.length; i++, position += 4) {
+            literals[i] = literal(buffer.getInt(position));
+        }
+        String[] variables = new String[buffer.getInt(position)];
+        position += 4;
+        for (int i = 0; i < variables.length; i++, position += 4) {
+            variables[i] = string(buffer.getInt(position));
+        }
+        Operator[] operators = new Operator[buffer.getInt(position)];
+        position += 4;
+        for (int i = 0; i < operators.length; i++, position += 4) {
+            String name = string(buffer.getInt(position));
+            operators[i] = registry.getOperators().get(name);
+            if (operators[i] == null) {
+                throw new IllegalStateException("Unknown operator: " + name);
+            }
+        }
+        LazyFunction[] functions = new LazyFunction[buffer.getInt(position)];
+        position += 4;
+        for (int i = 0; i < functions.length; i++, position += 4) {
+            String name = string(buffer.getInt(position));
+            functions[i] = registry.getFunctions().get(name);
+            if (functions[i] == null) {
+                throw new IllegalStateException("Unknown function: " + name);
+            }
+        }
+        int source = buffer.getInt(position);
+        return new Program(code, literals, variables, operators, functions, source < 0 ? null : string(source), registry);
+    }
+
+    private String string(int index) {
+        String string = strings[index];
+        if (string == null) {
+            int position = offset(index);
+            byte[] utf8 = new byte[buffer.getInt(position)];
+            buffer.get(position + 4, utf8);
+            string = new String(utf8, StandardCharsets.UTF_8);
+            strings[index] = string;
+        }
+        return string;
+    }
+
+    private BigDecimal literal(int index) {
+        BigDecimal literal = literals[index];
+        if (literal == null) {
+            int position = offset(stringCount + index);
+            byte[] unscaled = new byte[buffer.getInt(position + 4)];
+            buffer.get(position + 8, unscaled);
+            literal = new BigDecimal(new BigInteger(unscaled), buffer.getInt(position));
+            literals[index] = literal;
+        }
+        return literal;
+    }
+
+    private int offset(int entry) {
+        return buffer.getInt(HEADER + 4 * entry);
+    }
+}
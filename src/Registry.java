@@ -0,0 +1,790 @@
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.*;
+import java.util.function.IntPredicate;
+
+public final class Registry {
+
+    private static final BigDecimal PI = BigMath.PI;
+    private static final BigDecimal e = BigMath.E;
+
+    static final Registry DEFAULT = createDefault();
+
+    private final Map<String, Operator> operators;
+    private final Map<String, LazyFunction> functions;
+    private final Map<String, BigDecimal> constants;
+    private final Operator[] operatorTable;
+    private final LazyFunction[] functionTable;
+    private final String[] operatorNames;
+    private final String[] functionNames;
+    private final int[] singleCharOperators = new int[128];
+    private final long fingerprint;
+    private final Derived derived = new Derived();
+
+    private Registry(Map<String, Operator> operators, Map<String, LazyFunction> functions,
+                     Map<String, BigDecimal> constants) {
+        this.operators = Collections.unmodifiableMap(operators);
+        this.functions = Collections.unmodifiableMap(functions);
+        this.constants = Collections.unmodifiableMap(constants);
+        this.operatorTable = operators.values().toArray(new Operator[0]);
+        this.functionTable = functions.values().toArray(new LazyFunction[0]);
+        this.operatorNames = new String[operatorTable.length];
+        this.functionNames = new String[functionTable.length];
+        Arrays.fill(singleCharOperators, -1);
+        for (int id = 0; id < operatorTable.length; id++) {
+            operatorNames[id] = operatorTable[id].getOper();
+            if (operatorNames[id].length() == 1 && operatorNames[id].charAt(0) < 128) {
+                singleCharOperators[operatorNames[id].charAt(0)] = id;
+            }
+        }
+        for (int id = 0; id < functionTable.length; id++) {
+            functionNames[id] = functionTable[id].getName();
+        }
+        this.fingerprint = fingerprint(operators, functions);
+    }
+
+    private static Registry createDefault() {
+        Map<String, Operator> operators = new HashMap<>();
+        Map<String, LazyFunction> functions = new HashMap<>();
+        Map<String, BigDecimal> constants = new HashMap<>();
+
+        addOperator(operators, new Operator("+", 2, true) {
+            @Override
+            public BigDecimal eval(BigDecimal v1, BigDecimal v2, MathContext mc) {
+                return v1.add(v2, mc);
+            }
+
+            @Override
+            public double eval(double v1, double v2) {
+                return v1 + v2;
+            }
+
+            @Override
+            public boolean evalInterval(double[] lo, double[] hi, int index) {
+                return Interval.add(lo, hi, index);
+            }
+
+            @Override
+            public void eval(double[] v1, double[] v2, double[] result, int length) {
+                for (int i = 0; i < length; i++) {
+                    result[i] = v1[i] + v2[i];
+                }
+            }
+        });
+
+        addOperator(operators, new Operator("-", 2, true) {
+            @Override
+            public BigDecimal eval(BigDecimal v1, BigDecimal v2, MathContext mc) {
+                return v1.subtract(v2, mc);
+            }
+
+            @Override
+            public double eval(double v1, double v2) {
+                return v1 - v2;
+            }
+
+            @Override
+            public boolean evalInterval(double[] lo, double[] hi, int index) {
+                return Interval.subtract(lo, hi, index);
+            }
+
+            @Override
+            public void eval(double[] v1, double[] v2, double[] result, int length) {
+                for (int i = 0; i < length; i++) {
+                    result[i] = v1[i] - v2[i];
+                }
+            }
+        });
+
+        addOperator(operators, new Operator("*", 3, true) {
+            @Override
+            public BigDecimal eval(BigDecimal v1, BigDecimal v2, MathContext mc) {
+                return v1.multiply(v2, mc);
+            }
+
+            @Override
+            public double eval(double v1, double v2) {
+                return v1 * v2;
+            }
+
+            @Override
+            public boolean evalInterval(double[] lo, double[] hi, int index) {
+                return Interval.multiply(lo, hi, index);
+            }
+
+            @Override
+            public void eval(double[] v1, double[] v2, double[] result, int length) {
+                for (int i = 0; i < length; i++) {
+                    result[i] = v1[i] * v2[i];
+                }
+            }
+        });
+
+        addOperator(operators, new Operator("/", 3, true) {
+            @Override
+            public BigDecimal eval(BigDecimal v1, BigDecimal v2, MathContext mc) {
+                return v1.divide(v2, mc);
+            }
+
+            @Override
+            public double eval(double v1, double v2) {
+                return v1 / v2;
+            }
+
+            @Override
+            public boolean evalInterval(double[] lo, double[] hi, int index) {
+                return Interval.divide(lo, hi, index);
+            }
+
+            @Override
+            public void eval(double[] v1, double[] v2, double[] result, int length) {
+                for (int i = 0; i < length; i++) {
+                    result[i] = v1[i] / v2[i];
+                }
+            }
+        });
+
+        addOperator(operators, new Operator("%", 3, true) {
+            @Override
+            public BigDecimal eval(BigDecimal v1, BigDecimal v2, MathContext mc) {
+                return v1.remainder(v2, mc);
+            }
+
+            @Override
+            public double eval(double v1, double v2) {
+                return v1 % v2;
+            }
+        });
+
+        addOperator(operators, new Operator("^", 4, false) {
+            @Override
+            public BigDecimal eval(BigDecimal v1, BigDecimal v2, MathContext mc) {
+                return BigMath.pow(v1, v2, mc);
+            }
+
+            @Override
+            public double eval(double v1, double v2) {
+                return Math.pow(v1, v2);
+            }
+
+            @Override
+            public boolean evalInterval(double[] lo, double[] hi, int index) {
+                return Interval.power(lo, hi, index);
+            }
+        });
+
+        addOperator(operators, comparison("=", order -> order == 0));
+        addOperator(operators, comparison("==", order -> order == 0));
+        addOperator(operators, comparison("!=", order -> order != 0));
+        addOperator(operators, comparison("<>", order -> order != 0));
+        addOperator(operators, comparison("<", order -> order < 0));
+        addOperator(operators, comparison("<=", order -> order <= 0));
+        addOperator(operators, comparison(">", order -> order > 0));
+        addOperator(operators, comparison(">=", order -> order >= 0));
+
+        addOperator(operators, new Operator("&&", 0, true) {
+            @Override
+            public BigDecimal eval(BigDecimal v1, BigDecimal v2, MathContext mc) {
+                return truth(isTrue(v1) && isTrue(v2));
+            }
+
+            @Override
+            public double eval(double v1, double v2) {
+                return v1 != 0 && v2 != 0 ? 1 : 0;
+            }
+        });
+
+        addOperator(operators, new Operator("||", -1, true) {
+            @Override
+            public BigDecimal eval(BigDecimal v1, BigDecimal v2, MathContext mc) {
+                return truth(isTrue(v1) || isTrue(v2));
+            }
+
+            @Override
+            public double eval(double v1, double v2) {
+                return v1 != 0 || v2 != 0 ? 1 : 0;
+            }
+        });
+
+        addFunction(functions, new Function("SIN") {
+            @Override
+            public BigDecimal eval(List<BigDecimal> parameters, MathContext mc) {
+                return BigMath.sin(parameters.get(0), mc);
+            }
+
+            @Override
+            public double eval(double[] parameters, int offset, int count) {
+                return Math.sin(Math.toRadians(parameters[offset]));
+            }
+        });
+
+        addFunction(functions, new Function("COS") {
+            @Override
+            public BigDecimal eval(List<BigDecimal> parameters, MathContext mc) {
+                return BigMath.cos(parameters.get(0), mc);
+            }
+
+            @Override
+            public double eval(double[] parameters, int offset, int count) {
+                return Math.cos(Math.toRadians(parameters[offset]));
+            }
+        });
+
+        addFunction(functions, new Function("TAN") {
+            @Override
+            public BigDecimal eval(List<BigDecimal> parameters, MathContext mc) {
+                return BigMath.tan(parameters.get(0), mc);
+            }
+
+            @Override
+            public double eval(double[] parameters, int offset, int count) {
+                return Math.tan(Math.toRadians(parameters[offset]));
+            }
+        });
+
+        addFunction(functions, new Function("ASIN") { // added by av
+            @Override
+            public BigDecimal eval(List<BigDecimal> parameters, MathContext mc) {
+                return BigMath.asin(parameters.get(0), mc);
+            }
+
+            @Override
+            public double eval(double[] parameters, int offset, int count) {
+                return Math.toDegrees(Math.asin(parameters[offset]));
+            }
+
+            @Override
+            public boolean evalInterval(double[] lo, double[] hi, int offset, int count) {
+                return Interval.increasing(lo, hi, offset, x -> Math.toDegrees(Math.asin(x)), 4, -1, 1);
+            }
+        });
+
+        addFunction(functions, new Function("ACOS") { // added by av
+            @Override
+            public BigDecimal eval(List<BigDecimal> parameters, MathContext mc) {
+                return BigMath.acos(parameters.get(0), mc);
+            }
+
+            @Override
+            public double eval(double[] parameters, int offset, int count) {
+                return Math.toDegrees(Math.acos(parameters[offset]));
+            }
+
+            @Override
+            public boolean evalInterval(double[] lo, double[] hi, int offset, int count) {
+                return Interval.decreasing(lo, hi, offset, x -> Math.toDegrees(Math.acos(x)), 4, -1, 1);
+            }
+        });
+
+        addFunction(functions, new Function("ATAN") { // added by av
+            @Override
+            public BigDecimal eval(List<BigDecimal> parameters, MathContext mc) {
+                return BigMath.atan(parameters.get(0), mc);
+            }
+
+            @Override
+            public double eval(double[] parameters, int offset, int count) {
+                return Math.toDegrees(Math.atan(parameters[offset]));
+            }
+
+            @Override
+            public boolean evalInterval(double[] lo, double[] hi, int offset, int count) {
+                return Interval.increasing(lo, hi, offset, x -> Math.toDegrees(Math.atan(x)), 4, -Double.MAX_VALUE, Double.MAX_VALUE);
+            }
+        });
+
+        addFunction(functions, new Function("SINH") {
+            @Override
+            public BigDecimal eval(List<BigDecimal> parameters, MathContext mc) {
+                return BigMath.sinh(parameters.get(0), mc);
+            }
+
+            @Override
+            public double eval(double[] parameters, int offset, int count) {
+                return Math.sinh(parameters[offset]);
+            }
+
+            @Override
+            public boolean evalInterval(double[] lo, double[] hi, int offset, int count) {
+                return Interval.increasing(lo, hi, offset, Math::sinh, 3, -Double.MAX_VALUE, Double.MAX_VALUE);
+            }
+        });
+
+        addFunction(functions, new Function("COSH") {
+            @Override
+            public BigDecimal eval(List<BigDecimal> parameters, MathContext mc) {
+                return BigMath.cosh(parameters.get(0), mc);
+            }
+
+            @Override
+            public double eval(double[] parameters, int offset, int count) {
+                return Math.cosh(parameters[offset]);
+            }
+        });
+
+        addFunction(functions, new Function("TANH") {
+            @Override
+            public BigDecimal eval(List<BigDecimal> parameters, MathContext mc) {
+                return BigMath.tanh(parameters.get(0), mc);
+            }
+
+            @Override
+            public double eval(double[] parameters, int offset, int count) {
+                return Math.tanh(parameters[offset]);
+            }
+
+            @Override
+            public boolean evalInterval(double[] lo, double[] hi, int offset, int count) {
+                return Interval.increasing(lo, hi, offset, Math::tanh, 3, -Double.MAX_VALUE, Double.MAX_VALUE);
+            }
+        });
+
+        addFunction(functions, new Function("RAD") {
+            @Override
+            public BigDecimal eval(List<BigDecimal> parameters, MathContext mc) {
+                return BigMath.radians(parameters.get(0), mc);
+            }
+
+            @Override
+            public double eval(double[] parameters, int offset, int count) {
+                return Math.toRadians(parameters[offset]);
+            }
+
+            @Override
+            public boolean evalInterval(double[] lo, double[] hi, int offset, int count) {
+                return Interval.increasing(lo, hi, offset, Math::toRadians, 2, -Double.MAX_VALUE, Double.MAX_VALUE);
+            }
+        });
+
+        addFunction(functions, new Function("DEG") {
+            @Override
+            public BigDecimal eval(List<BigDecimal> parameters, MathContext mc) {
+                return BigMath.degrees(parameters.get(0), mc);
+            }
+
+            @Override
+            public double eval(double[] parameters, int offset, int count) {
+                return Math.toDegrees(parameters[offset]);
+            }
+
+            @Override
+            public boolean evalInterval(double[] lo, double[] hi, int offset, int count) {
+                return Interval.increasing(lo, hi, offset, Math::toDegrees, 2, -Double.MAX_VALUE, Double.MAX_VALUE);
+            }
+        });
+
+        addFunction(functions, new Function("ABS") {
+            @Override
+            public BigDecimal eval(List<BigDecimal> parameters, MathContext mc) {
+                return parameters.get(0).abs(mc);
+            }
+
+            @Override
+            public double eval(double[] parameters, int offset, int count) {
+                return Math.abs(parameters[offset]);
+            }
+
+            @Override
+            public boolean evalInterval(double[] lo, double[] hi, int offset, int count) {
+                return Interval.absolute(lo, hi, offset);
+            }
+        });
+
+        addFunction(functions, new Function("LOG") {
+            @Override
+            public BigDecimal eval(List<BigDecimal> parameters, MathContext mc) {
+                return BigMath.log(parameters.get(0), mc);
+            }
+
+            @Override
+            public double eval(double[] parameters, int offset, int count) {
+                return Math.log(parameters[offset]);
+            }
+
+            @Override
+            public boolean evalInterval(double[] lo, double[] hi, int offset, int count) {
+                return Interval.increasing(lo, hi, offset, Math::log, 2, Double.MIN_VALUE, Double.MAX_VALUE);
+            }
+        });
+
+        addFunction(functions, new Function("LOG10") {
+            @Override
+            public BigDecimal eval(List<BigDecimal> parameters, MathContext mc) {
+                return BigMath.log10(parameters.get(0), mc);
+            }
+
+            @Override
+            public double eval(double[] parameters, int offset, int count) {
+                return Math.log10(parameters[offset]);
+            }
+
+            @Override
+            public boolean evalInterval(double[] lo, double[] hi, int offset, int count) {
+                return Interval.increasing(lo, hi, offset, Math::log10, 2, Double.MIN_VALUE, Double.MAX_VALUE);
+            }
+        });
+
+        addFunction(functions, new Function("FLOOR") {
+            @Override
+            public BigDecimal eval(List<BigDecimal> parameters, MathContext mc) {
+                BigDecimal toRound = parameters.get(0);
+                return toRound.setScale(0, RoundingMode.FLOOR);
+            }
+
+            @Override
+            public double eval(double[] parameters, int offset, int count) {
+                return Math.floor(parameters[offset]);
+            }
+
+            @Override
+            public boolean evalInterval(double[] lo, double[] hi, int offset, int count) {
+                return Interval.increasing(lo, hi, offset, Math::floor, 0, -Double.MAX_VALUE, Double.MAX_VALUE);
+            }
+        });
+
+        addFunction(functions, new Function("CEILING") {
+            @Override
+            public BigDecimal eval(List<BigDecimal> parameters, MathContext mc) {
+                BigDecimal toRound = parameters.get(0);
+                return toRound.setScale(0, RoundingMode.CEILING);
+            }
+
+            @Override
+            public double eval(double[] parameters, int offset, int count) {
+                return Math.ceil(parameters[offset]);
+            }
+
+            @Override
+            public boolean evalInterval(double[] lo, double[] hi, int offset, int count) {
+                return Interval.increasing(lo, hi, offset, Math::ceil, 0, -Double.MAX_VALUE, Double.MAX_VALUE);
+            }
+        });
+
+        addFunction(functions, new Function("SQRT") {
+            @Override
+            public BigDecimal eval(List<BigDecimal> parameters, MathContext mc) {
+                return BigMath.sqrt(parameters.get(0), mc);
+            }
+
+            @Override
+            public double eval(double[] parameters, int offset, int count) {
+                return Math.sqrt(parameters[offset]);
+            }
+
+            @Override
+            public boolean evalInterval(double[] lo, double[] hi, int offset, int count) {
+                return Interval.increasing(lo, hi, offset, Math::sqrt, 1, 0, Double.MAX_VALUE);
+            }
+        });
+
+        addFunction(functions, new Function("NOT") {
+            @Override
+            public BigDecimal eval(List<BigDecimal> parameters, MathContext mc) {
+                return truth(!isTrue(parameters.get(0)));
+            }
+
+            @Override
+            public double eval(double[] parameters, int offset, int count) {
+                return parameters[offset] == 0 ? 1 : 0;
+            }
+        });
+
+        addFunction(functions, new LazyFunction("IF") {
+            @Override
+            public LazyNumber lazyEval(List<LazyNumber> lazyParams, MathContext mc) {
+                return () -> lazyParams.get(isTrue(lazyParams.get(0).eval()) ? 1 : 2).eval();
+            }
+
+            @Override
+            public double eval(double[] parameters, int offset, int count) {
+                return parameters[offset] != 0 ? parameters[offset + 1] : parameters[offset + 2];
+            }
+        });
+
+        addFunction(functions, new LazyFunction("AND") {
+            @Override
+            public LazyNumber lazyEval(List<LazyNumber> lazyParams, MathContext mc) {
+                return () -> {
+                    for (LazyNumber param : lazyParams) {
+                        if (!isTrue(param.eval())) {
+                            return BigDecimal.ZERO;
+                        }
+                    }
+                    return BigDecimal.ONE;
+                };
+            }
+
+            @Override
+            public double eval(double[] parameters, int offset, int count) {
+                for (int i = offset; i < offset + count; i++) {
+                    if (parameters[i] == 0) {
+                        return 0;
+                    }
+                }
+                return 1;
+            }
+        });
+
+        addFunction(functions, new LazyFunction("OR") {
+            @Override
+            public LazyNumber lazyEval(List<LazyNumber> lazyParams, MathContext mc) {
+                return () -> {
+                    for (LazyNumber param : lazyParams) {
+                        if (isTrue(param.eval())) {
+                            return BigDecimal.ONE;
+                        }
+                    }
+                    return BigDecimal.ZERO;
+                };
+            }
+
+            @Override
+            public double eval(double[] parameters, int offset, int count) {
+                for (int i = offset; i < offset + count; i++) {
+                    if (parameters[i] != 0) {
+                        return 1;
+                    }
+                }
+                return 0;
+            }
+        });
+
+        // SWITCH(value, case1, result1, case2, result2, ..., default): only the matching result is evaluated
+        addFunction(functions, new LazyFunction("SWITCH") {
+            @Override
+            public LazyNumber lazyEval(List<LazyNumber> lazyParams, MathContext mc) {
+                return () -> {
+                    BigDecimal value = lazyParams.get(0).eval();
+                    int i = 1;
+                    for (; i + 1 < lazyParams.size(); i += 2) {
+                        if (value.compareTo(lazyParams.get(i).eval()) == 0) {
+                            return lazyParams.get(i + 1).eval();
+                        }
+                    }
+                    if (i < lazyParams.size()) {
+                        return lazyParams.get(i).eval();
+                    }
+                    throw new IllegalStateException("No SWITCH case matches " + value);
+                };
+            }
+
+            @Override
+            public double eval(double[] parameters, int offset, int count) {
+                int i = 1;
+                for (; i + 1 < count; i += 2) {
+                    if (parameters[offset] == parameters[offset + i]) {
+                        return parameters[offset + i + 1];
+                    }
+                }
+                if (i < count) {
+                    return parameters[offset + i];
+                }
+                throw new IllegalStateException("No SWITCH case matches " + parameters[offset]);
+            }
+        });
+
+        constants.put("e", e);
+        constants.put("PI", PI);
+
+        return new Registry(operators, functions, constants);
+    }
+
+    /**
+     * A comparison operator; {@code test} receives the sign of {@code v1.compareTo(v2)}. In
+     * {@code double} arithmetic a NaN operand only satisfies {@code !=}.
+     */
+    private static Operator comparison(String oper, IntPredicate test) {
+        boolean unordered = test.test(1) && test.test(-1) && !test.test(0);
+        return new Operator(oper, 1, true) {
+            @Override
+            public BigDecimal eval(BigDecimal v1, BigDecimal v2, MathContext mc) {
+                return truth(test.test(v1.compareTo(v2)));
+            }
+
+            @Override
+            public double eval(double v1, double v2) {
+                if (Double.isNaN(v1) || Double.isNaN(v2)) {
+                    return unordered ? 1 : 0;
+                }
+                return test.test(v1 < v2 ? -1 : v1 > v2 ? 1 : 0) ? 1 : 0;
+            }
+        };
+    }
+
+    /**
+     * Any non-zero value counts as true; boolean results are {@code 1} and {@code 0}.
+     */
+    static boolean isTrue(BigDecimal value) {
+        return value.signum() != 0;
+    }
+
+    private static BigDecimal truth(boolean value) {
+        return value ? BigDecimal.ONE : BigDecimal.ZERO;
+    }
+
+    private static void addOperator(Map<String, Operator> operators, Operator operator) {
+        operators.put(operator.getOper(), operator);
+    }
+
+    private static void addFunction(Map<String, LazyFunction> functions, LazyFunction function) {
+        functions.put(function.getName(), function);
+    }
+
+    /**
+     * Returns this registry with {@code operator} added. Adding the same instance again returns the
+     * same registry, so that expressions built the same way share their {@link ParseCache} entries,
+     * which tell registries apart by identity.
+     */
+    Registry withOperator(Operator operator) {
+        synchronized (derived) {
+            Registry registry = derived.get(operator);
+            if (registry == null) {
+                Map<String, Operator> operators = new HashMap<>(this.operators);
+                addOperator(operators, operator);
+                registry = new Registry(operators, functions, constants);
+                derived.put(operator, registry);
+            }
+            return registry;
+        }
+    }
+
+    /**
+     * Returns this registry with {@code function} added; see {@link #withOperator(Operator)}.
+     */
+    Registry withFunction(LazyFunction function) {
+        synchronized (derived) {
+            Registry registry = derived.get(function);
+            if (registry == null) {
+                Map<String, LazyFunction> functions = new HashMap<>(this.functions);
+                addFunction(functions, function);
+                registry = new Registry(operators, functions, constants);
+                derived.put(function, registry);
+            }
+            return registry;
+        }
+    }
+
+    Map<String, Operator> getOperators() {
+        return operators;
+    }
+
+    Map<String, LazyFunction> getFunctions() {
+        return functions;
+    }
+
+    Map<String, BigDecimal> getConstants() {
+        return constants;
+    }
+
+    int findOperator(char[] chars, int start, int end) {
+        if (end - start == 1 && chars[start] < 128) {
+            return singleCharOperators[chars[start]];
+        }
+        for (int id = 0; id < operatorNames.length; id++) {
+            String oper = operatorNames[id];
+            if (oper.length() == end - start && matches(oper, chars, start, false)) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    int findFunction(char[] chars, int start, int end) {
+        for (int id = 0; id < functionNames.length; id++) {
+            String name = functionNames[id];
+            if (name.length() == end - start && matches(name, chars, start, true)) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    Operator getOperator(int id) {
+        return operatorTable[id];
+    }
+
+    LazyFunction getFunction(int id) {
+        return functionTable[id];
+    }
+
+    int idOf(Operator operator) {
+        for (int id = 0; id < operatorTable.length; id++) {
+            if (operatorTable[id] == operator) {
+                return id;
+            }
+        }
+        throw new IllegalStateException("Operator not in registry: " + operator.getOper());
+    }
+
+    int idOf(LazyFunction function) {
+        for (int id = 0; id < functionTable.length; id++) {
+            if (functionTable[id] == function) {
+                return id;
+            }
+        }
+        throw new IllegalStateException("Function not in registry: " + function.getName());
+    }
+
+    private static boolean matches(String name, char[] chars, int start, boolean ignoreCase) {
+        for (int i = 0; i < name.length(); i++) {
+            char ch = chars[start + i];
+            if (ignoreCase) {
+                ch = Character.toUpperCase(ch);
+            }
+            if (ch != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Hashes names, precedence and associativity, and the class implementing each operator and
+     * function, so that a registry with the same names but a replaced implementation differs.
+     */
+    private static long fingerprint(Map<String, Operator> operators, Map<String, LazyFunction> functions) {
+        long h = 1125899906842597L;
+        for (String name : new TreeSet<>(operators.keySet())) {
+            Operator operator = operators.get(name);
+            h = fingerprint(h, name);
+            h = fingerprint(h, operator.getClass().getName());
+            h = 31 * h + operator.getPrecedence();
+            h = 31 * h + (operator.isLeftAssoc() ? 1 : 0);
+        }
+        for (String name : new TreeSet<>(functions.keySet())) {
+            h = fingerprint(h, name);
+            h = fingerprint(h, functions.get(name).getClass().getName());
+        }
+        return h;
+    }
+
+    static long fingerprint(long h, String name) {
+        for (int i = 0; i < name.length(); i++) {
+            h = 31 * h + name.charAt(i);
+        }
+        return h * 0x9E3779B97F4A7C15L + name.length();
+    }
+
+    /**
+     * The registries derived from this one, by the operator or function added, least recently
+     * used first.
+     */
+    private static final class Derived extends LinkedHashMap<Object, Registry> {
+        private static final long serialVersionUID = 1L;
+        private static final int CAPACITY = 64;
+
+        Derived() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, Registry> eldest) {
+            return size() > CAPACITY;
+        }
+    }
+}
@@ -0,0 +1,401 @@
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Evaluates a compiled expression of the built-in {@code + - * / %} operators on decimals held as
+ * an unscaled {@code long} and a scale, giving exactly the result {@link CompiledExpression#eval}
+ * would.
+ * <p>
+ * Every step reproduces the value the {@code BigDecimal} operation produces under the expression's
+ * {@link MathContext}: sums and products are formed exactly with {@link Math#addExact} and
+ * {@link Math#multiplyExact} and then rounded to the precision with the rounding mode, quotients
+ * are rounded from the integer quotient and remainder, and remainders follow
+ * {@link BigDecimal#remainder(BigDecimal, MathContext)}. Only the value matters between steps, so
+ * the final {@code stripTrailingZeros} makes the result identical, scale included. Any overflow,
+ * and any step {@code BigDecimal} would reject (division by zero, a non-terminating quotient at
+ * unlimited precision, a rounding under {@link RoundingMode#UNNECESSARY}), makes {@link #eval}
+ * return {@code null} so the caller can redo the evaluation in {@code BigDecimal}. Hits and
+ * misses are counted process-wide; see {@link Metrics#getScaledHitRate()}.
+ */
+final class ScaledExpression {
+
+    static final int MAX_PRECISION = 18;
+
+    private static final int CONSTANT = 0;
+    private static final int VARIABLE = 1;
+    private static final int ADD = 2;
+    private static final int SUBTRACT = 3;
+    private static final int MULTIPLY = 4;
+    private static final int DIVIDE = 5;
+    private static final int REMAINDER = 6;
+    private static final int STORE = 7;
+    private static final int LOAD = 8;
+
+    private static final String[] OPERATORS = {"+", "-", "*", "/", "%"};
+    private static final Map<String, Operator> BUILT_IN = Registry.DEFAULT.getOperators();
+
+    private static final long[] POWERS_OF_TEN = new long[MAX_PRECISION + 1];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+
+    private final int[] code;
+    private final long[] constants;
+    private final int[] constantScales;
+    private final int precision;
+    private final RoundingMode roundingMode;
+    private final MathContext mc;
+    private final int variableCount;
+    private final int maxStack;
+    private final int memoCount;
+
+    private ScaledExpression(int[] code, long[] constants, int[] constantScales, MathContext mc,
+                             int variableCount, int maxStack, int memoCount) {
+        this.code = code;
+        this.constants = constants;
+        this.constantScales = constantScales;
+        this.precision = mc.getPrecision();
+        this.roundingMode = mc.getRoundingMode();
+        this.mc = mc;
+        this.variableCount = variableCount;
+        this.maxStack = maxStack;
+        this.memoCount = memoCount;
+    }
+
+    /**
+     * Returns a scaled evaluator for {@code compiled}, or {@code null} if it uses anything but
+     * the built-in arithmetic operators, a constant too wide for a {@code long}, or a precision
+     * above {@value #MAX_PRECISION} digits.
+     */
+    static ScaledExpression compile(CompiledExpression compiled) {
+        if (compiled.getMathContext().getPrecision() > MAX_PRECISION) {
+            return null;
+        }
+        Emitter emitter = new Emitter();
+        if (!emitter.emit(compiled.getRoot())) {
+            return null;
+        }
+        int[] code = new int[emitter.code.size()];
+        for (int i = 0; i < code.length; i++) {
+            code[i] = emitter.code.get(i);
+        }
+        long[] constants = new long[emitter.constants.size()];
+        int[] constantScales = new int[constants.length];
+        for (int i = 0; i < constants.length; i++) {
+            BigDecimal constant = emitter.constants.get(i);
+            constants[i] = constant.unscaledValue().longValue();
+            constantScales[i] = constant.scale();
+        }
+        return new ScaledExpression(code, constants, constantScales, compiled.getMathContext(),
+                compiled.getVariableCount(), Math.max(emitter.stackMax, 1), emitter.memos.size());
+    }
+
+    static long getHits() {
+        return hits.sum();
+    }
+
+    static long getMisses() {
+        return misses.sum();
+    }
+
+    static void miss() {
+        misses.increment();
+    }
+
+    static void resetCounters() {
+        hits.reset();
+        misses.reset();
+    }
+
+    private static final class Emitter {
+        final List<Integer> code = new ArrayList<>();
+        final List<BigDecimal> constants = new ArrayList<>();
+        final Map<CompiledExpression.Node, Integer> memos = new IdentityHashMap<>();
+        int stackDepth;
+        int stackMax;
+
+        boolean emit(CompiledExpression.Node node) {
+            if (node instanceof CompiledExpression.Constant) {
+                BigDecimal value = ((CompiledExpression.Constant) node).value;
+                if (value.precision() > MAX_PRECISION) {
+                    return false;
+                }
+                constants.add(value);
+                code.add(CONSTANT);
+                code.add(constants.size() - 1);
+                push(1);
+            } else if (node instanceof CompiledExpression.Variable) {
+                code.add(VARIABLE);
+                code.add(((CompiledExpression.Variable) node).slot);
+                push(1);
+            } else if (node instanceof CompiledExpression.Shared) {
+                Integer memo = memos.get(node);
+                if (memo == null) {
+                    if (!emit(((CompiledExpression.Shared) node).node)) {
+                        return false;
+                    }
+                    memo = memos.size();
+                    memos.put(node, memo);
+                    code.add(STORE);
+                } else {
+                    code.add(LOAD);
+                    push(1);
+                }
+                code.add(memo);
+            } else if (node instanceof CompiledExpression.Binary) {
+                CompiledExpression.Binary binary = (CompiledExpression.Binary) node;
+                int op = opcode(binary.operator);
+                if (op < 0 || !emit(binary.left) || !emit(binary.right)) {
+                    return false;
+                }
+                code.add(op);
+                push(-1);
+            } else {
+                return false;
+            }
+            return true;
+        }
+
+        private void push(int delta) {
+            stackDepth += delta;
+            stackMax = Math.max(stackMax, stackDepth);
+        }
+
+        private static int opcode(Operator operator) {
+            for (int i = 0; i < OPERATORS.length; i++) {
+                if (BUILT_IN.get(OPERATORS[i]) == operator) {
+                    return ADD + i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the value of the expression with trailing zeros stripped, or {@code null} if it
+     * has to be evaluated in {@code BigDecimal}.
+     */
+    BigDecimal eval(BigDecimal[] values) {
+        long[] unscaled = new long[maxStack + memoCount + variableCount];
+        int[] scales = new int[unscaled.length];
+        int memo = maxStack;
+        int variables = maxStack + memoCount;
+        try {
+            for (int i = 0; i < variableCount; i++) {
+                BigDecimal value = values[i].round(mc);
+                if (value.precision() > MAX_PRECISION) {
+                    misses.increment();
+                    return null;
+                }
+                unscaled[variables + i] = value.unscaledValue().longValue();
+                scales[variables + i] = value.scale();
+            }
+            int sp = 0;
+            for (int pc = 0; pc < code.length; ) {
+                int op = code[pc++];
+                switch (op) {
+                    case CONSTANT:
+                        unscaled[sp] = constants[code[pc]];
+                        scales[sp++] = constantScales[code[pc++]];
+                        break;
+                    case VARIABLE:
+                        unscaled[sp] = unscaled[variables + code[pc]];
+                        scales[sp++] = scales[variables + code[pc++]];
+                        break;
+                    case STORE:
+                        unscaled[memo + code[pc]] = unscaled[sp - 1];
+                        scales[memo + code[pc++]] = scales[sp - 1];
+                        break;
+                    case LOAD:
+                        unscaled[sp] = unscaled[memo + code[pc]];
+                        scales[sp++] = scales[memo + code[pc++]];
+                        break;
+                    case DIVIDE:
+                        divide(unscaled, scales, --sp - 1);
+                        break;
+                    case REMAINDER:
+                        remainder(unscaled, scales, --sp - 1);
+                        break;
+                    case MULTIPLY:
+                        sp--;
+                        unscaled[sp - 1] = Math.multiplyExact(unscaled[sp - 1], unscaled[sp]);
+                        scales[sp - 1] = Math.addExact(scales[sp - 1], scales[sp]);
+                        round(unscaled, scales, sp - 1);
+                        break;
+                    default:
+                        sp--;
+                        if (op == SUBTRACT) {
+                            unscaled[sp] = Math.negateExact(unscaled[sp]);
+                        }
+                        align(unscaled, scales, sp - 1);
+                        unscaled[sp - 1] = Math.addExact(unscaled[sp - 1], unscaled[sp]);
+                        round(unscaled, scales, sp - 1);
+                }
+            }
+        } catch (ArithmeticException e) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return BigDecimal.valueOf(unscaled[0], scales[0]).stripTrailingZeros();
+    }
+
+    /**
+     * Brings the operands at {@code i} and {@code i + 1} to the larger of their two scales.
+     */
+    private static void align(long[] unscaled, int[] scales, int i) {
+        long shift = (long) scales[i] - scales[i + 1];
+        if (shift < 0) {
+            unscaled[i] = Math.multiplyExact(unscaled[i], powerOfTen(-shift));
+            scales[i] = scales[i + 1];
+        } else if (shift > 0) {
+            unscaled[i + 1] = Math.multiplyExact(unscaled[i + 1], powerOfTen(shift));
+            scales[i + 1] = scales[i];
+        }
+    }
+
+    /**
+     * Rounds the value at {@code i} to the precision, as {@link BigDecimal#round} does.
+     */
+    private void round(long[] unscaled, int[] scales, int i) {
+        if (precision == 0) {
+            return;
+        }
+        long magnitude = Math.absExact(unscaled[i]);
+        int drop = digits(magnitude) - precision;
+        if (drop <= 0) {
+            return;
+        }
+        long divisor = POWERS_OF_TEN[drop];
+        long q = increment(magnitude / divisor, magnitude % divisor, divisor, unscaled[i] < 0);
+        unscaled[i] = unscaled[i] < 0 ? -q : q;
+        scales[i] = Math.subtractExact(scales[i], drop);
+    }
+
+    /**
+     * Divides as {@link BigDecimal#divide(BigDecimal, MathContext)} does: the magnitudes are
+     * scaled so that the integer quotient has exactly {@code precision} digits, which is then
+     * rounded on its remainder.
+     */
+    private void divide(long[] unscaled, int[] scales, int i) {
+        long dividend = unscaled[i];
+        long divisor = unscaled[i + 1];
+        if (precision == 0 || divisor == 0) {
+            throw new ArithmeticException("Division undecided");
+        }
+        if (dividend == 0) {
+            scales[i] = 0;
+            return;
+        }
+        boolean negative = (dividend < 0) != (divisor < 0);
+        long a = Math.absExact(dividend);
+        long b = Math.absExact(divisor);
+        int shift = precision - digits(a) + digits(b);
+        long q;
+        long r;
+        long d;
+        while (true) {
+            if (shift >= 0) {
+                long n = Math.multiplyExact(a, powerOfTen(shift));
+                d = b;
+                q = n / d;
+                r = n % d;
+            } else {
+                d = Math.multiplyExact(b, powerOfTen(-shift));
+                q = a / d;
+                r = a % d;
+            }
+            if (q < POWERS_OF_TEN[precision]) {
+                break;
+            }
+            shift--;
+        }
+        q = increment(q, r, d, negative);
+        unscaled[i] = negative ? -q : q;
+        scales[i] = Math.toIntExact((long) scales[i] - scales[i + 1] + shift);
+    }
+
+    /**
+     * Takes the remainder as {@link BigDecimal#remainder(BigDecimal, MathContext)} does, which
+     * is exact but fails when the integer quotient does not fit the precision.
+     */
+    private void remainder(long[] unscaled, int[] scales, int i) {
+        align(unscaled, scales, i);
+        long quotient = unscaled[i] / unscaled[i + 1];
+        if (precision > 0 && quotient != 0) {
+            long magnitude = Math.absExact(quotient);
+            while (magnitude % 10 == 0) {
+                magnitude /= 10;
+            }
+            if (digits(magnitude) > precision) {
+                throw new ArithmeticException("Division impossible");
+            }
+        }
+        unscaled[i] = unscaled[i] % unscaled[i + 1];
+    }
+
+    /**
+     * Applies the rounding mode to a truncated magnitude {@code q} given the remainder {@code r}
+     * of a division by {@code d}.
+     */
+    private long increment(long q, long r, long d, boolean negative) {
+        if (r == 0) {
+            return q;
+        }
+        boolean up;
+        switch (roundingMode) {
+            case UP:
+                up = true;
+                break;
+            case DOWN:
+                up = false;
+                break;
+            case CEILING:
+                up = !negative;
+                break;
+            case FLOOR:
+                up = negative;
+                break;
+            case HALF_UP:
+                up = r >= d - r;
+                break;
+            case HALF_DOWN:
+                up = r > d - r;
+                break;
+            case HALF_EVEN:
+                up = r > d - r || (r == d - r && (q & 1) != 0);
+                break;
+            default:
+                throw new ArithmeticException("Rounding necessary");
+        }
+        return up ? q + 1 : q;
+    }
+
+    private static long powerOfTen(long n) {
+        if (n >= POWERS_OF_TEN.length) {
+            throw new ArithmeticException("Overflow");
+        }
+        return POWERS_OF_TEN[(int) n];
+    }
+
+    private static int digits(long magnitude) {
+        int digits = 1;
+        while (digits < POWERS_OF_TEN.length && magnitude >= POWERS_OF_TEN[digits]) {
+            digits++;
+        }
+        return digits;
+    }
+}
@@ -0,0 +1,320 @@
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Finds a root of a compiled expression in one of its variables: a value of that variable for
+ * which the expression is zero. An equation {@code l = r} or {@code l == r} is solved as
+ * {@code l - r}.
+ * <p>
+ * The first and second derivatives are built by {@link Derivative} when the solver is created, and
+ * all three are compiled once, as {@link CompiledExpression} and as {@link DoubleExpression}. A
+ * solve runs Halley's method in {@code double}, which usually converges in three or four steps,
+ * then polishes the result with Newton steps at the expression's precision: one step up to about
+ * 26 digits, since each step doubles the correct digits, and two for {@code DECIMAL128}. When a
+ * bracket with a sign change is given, or found by widening around the guess after Halley fails,
+ * every step stays inside it and bisection takes over when one would leave it. If the
+ * {@code double} phase cannot get anywhere (overflow, a NaN, a value beyond the range of
+ * {@code double}), Newton and bisection run at full precision instead.
+ * <p>
+ * Instances are immutable and can be shared between threads; each solve allocates its own frames.
+ */
+final class Solver {
+
+    private static final int MAX_ITERATIONS = 100;
+    private static final int MAX_EXPANSIONS = 64;
+    private static final int MAX_BISECTIONS = 4000;
+    private static final double DOUBLE_TOLERANCE = 1e-7;
+    private static final BigDecimal TWO = BigDecimal.valueOf(2);
+
+    private final CompiledExpression f;
+    private final CompiledExpression df;
+    private final DoubleExpression fDouble;
+    private final DoubleExpression dfDouble;
+    private final DoubleExpression d2fDouble;
+    private final String variable;
+    private final int slot;
+    private final MathContext mc;
+    private final BigDecimal tolerance;
+    private final int frameSize;
+    private final int stackSize;
+
+    /**
+     * Prepares to solve {@code expression} for {@code variable}; throws
+     * {@link IllegalArgumentException} if the variable does not occur in it or the expression
+     * cannot be differentiated.
+     */
+    Solver(CompiledExpression expression, String variable) {
+        this.slot = expression.indexOf(variable);
+        if (slot < 0) {
+            throw new IllegalArgumentException("Unknown variable: " + variable);
+        }
+        this.mc = expression.getMathContext();
+        if (mc.getPrecision() == 0) {
+            throw new IllegalArgumentException("Cannot solve at unlimited precision");
+        }
+        this.variable = variable;
+        this.f = equation(expression);
+        this.df = Derivative.of(f, slot);
+        this.fDouble = new DoubleExpression(f);
+        this.dfDouble = new DoubleExpression(df);
+        this.d2fDouble = new DoubleExpression(Derivative.of(df, slot));
+        // a Newton step this small leaves an error around its square, well below the last digit
+        this.tolerance = BigDecimal.ONE.movePointLeft(mc.getPrecision() / 2 + 2);
+        this.frameSize = Math.max(f.newSlots().length, df.newSlots().length);
+        this.stackSize = Math.max(fDouble.newStack().length,
+                Math.max(dfDouble.newStack().length, d2fDouble.newStack().length));
+    }
+
+    private static CompiledExpression equation(CompiledExpression expression) {
+        CompiledExpression.Node root = expression.getRoot();
+        if (root instanceof CompiledExpression.Binary) {
+            CompiledExpression.Binary binary = (CompiledExpression.Binary) root;
+            Operator operator = binary.operator;
+            Map<String, Operator> builtIn = Registry.DEFAULT.getOperators();
+            if (builtIn.get("=") == operator || builtIn.get("==") == operator) {
+                return new CompiledExpression(Derivative.unshare(new CompiledExpression.Binary(builtIn.get("-"),
+                        binary.left, binary.right, binary.mc)), expression);
+            }
+        }
+        return expression;
+    }
+
+    String getVariable() {
+        return variable;
+    }
+
+    /**
+     * The function whose root is found, after turning an equation into a difference.
+     */
+    CompiledExpression getFunction() {
+        return f;
+    }
+
+    CompiledExpression getDerivative() {
+        return df;
+    }
+
+    BigDecimal solve(BigDecimal guess) {
+        return solve(f.newSlots(), guess);
+    }
+
+    BigDecimal solve(BigDecimal low, BigDecimal high) {
+        return solve(f.newSlots(), low, high);
+    }
+
+    /**
+     * Returns a root near {@code guess}; the other variables are taken from {@code slots}, laid
+     * out as {@link CompiledExpression#newSlots()} of the expression. Throws
+     * {@link ArithmeticException} if no root is found.
+     */
+    BigDecimal solve(BigDecimal[] slots, BigDecimal guess) {
+        BigDecimal[] frame = Arrays.copyOf(slots, frameSize);
+        double[] values = values(frame);
+        double[] stack = new double[stackSize];
+        double root;
+        try {
+            double x = guess.doubleValue();
+            root = halley(values, stack, x, Double.NaN, Double.NaN, Double.NaN);
+            if (Double.isNaN(root)) {
+                root = expand(values, stack, x);
+            }
+        } catch (RuntimeException e) {
+            root = Double.NaN;
+        }
+        BigDecimal result = null;
+        if (Double.isFinite(root)) {
+            result = newton(frame, new BigDecimal(root).round(mc));
+        }
+        if (result == null) {
+            result = newton(frame, guess.round(mc));
+        }
+        if (result == null) {
+            throw new ArithmeticException("No root found for " + variable + " near " + guess);
+        }
+        return result;
+    }
+
+    /**
+     * Returns a root between {@code low} and {@code high}, where the function must change sign;
+     * throws {@link IllegalArgumentException} if it does not.
+     */
+    BigDecimal solve(BigDecimal[] slots, BigDecimal low, BigDecimal high) {
+        if (low.compareTo(high) > 0) {
+            return solve(slots, high, low);
+        }
+        BigDecimal[] frame = Arrays.copyOf(slots, frameSize);
+        double[] values = values(frame);
+        double[] stack = new double[stackSize];
+        double root;
+        try {
+            double a = low.doubleValue();
+            double b = high.doubleValue();
+            double fa = eval(fDouble, values, stack, a);
+            double fb = eval(fDouble, values, stack, b);
+            root = Double.isFinite(fa) && Double.isFinite(fb) && (fa < 0) != (fb < 0) && fa != 0 && fb != 0
+                    ? halley(values, stack, a + (b - a) / 2, a, b, fa) : Double.NaN;
+        } catch (RuntimeException e) {
+            root = Double.NaN;
+        }
+        if (Double.isFinite(root)) {
+            BigDecimal result = newton(frame, new BigDecimal(root).round(mc));
+            if (result != null && result.compareTo(low) >= 0 && result.compareTo(high) <= 0) {
+                return result;
+            }
+        }
+        return bisect(frame, low, high);
+    }
+
+    private double[] values(BigDecimal[] frame) {
+        double[] values = new double[f.getVariableCount()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = frame[i] == null ? Double.NaN : frame[i].doubleValue();
+        }
+        return values;
+    }
+
+    /**
+     * Halley's method in {@code double} from {@code x}. When {@code low} is a number,
+     * {@code [low, high]} brackets a sign change, {@code fLow} is the function at {@code low},
+     * and steps that would leave the bracket bisect it instead. Returns NaN if it does not
+     * converge.
+     */
+    private double halley(double[] values, double[] stack, double x, double low, double high, double fLow) {
+        boolean bracketed = !Double.isNaN(low);
+        for (int i = 0; i < MAX_ITERATIONS; i++) {
+            double fx = eval(fDouble, values, stack, x);
+            if (fx == 0) {
+                return x;
+            }
+            if (!Double.isFinite(fx)) {
+                return Double.NaN;
+            }
+            if (bracketed) {
+                if ((fx < 0) == (fLow < 0)) {
+                    low = x;
+                    fLow = fx;
+                } else {
+                    high = x;
+                }
+            }
+            double d1 = eval(dfDouble, values, stack, x);
+            double step = fx / d1;
+            double correction = 1 - step * eval(d2fDouble, values, stack, x) / (2 * d1);
+            if (correction > 0.5 && correction < 2) {
+                step /= correction;
+            }
+            double next = x - step;
+            if (bracketed && !(next > Math.min(low, high) && next < Math.max(low, high))) {
+                next = low + (high - low) / 2;
+            }
+            if (!Double.isFinite(next)) {
+                return Double.NaN;
+            }
+            double change = Math.abs(next - x);
+            if (change <= DOUBLE_TOLERANCE * Math.abs(next) || change <= 4 * Math.ulp(next)) {
+                return next;
+            }
+            if (bracketed && Math.abs(high - low) <= 4 * Math.ulp(next)) {
+                return next;
+            }
+            x = next;
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Widens an interval around {@code x} until the function changes sign across one of its
+     * halves, then runs Halley inside that half.
+     */
+    private double expand(double[] values, double[] stack, double x) {
+        double fx = eval(fDouble, values, stack, x);
+        if (!Double.isFinite(fx)) {
+            return Double.NaN;
+        }
+        double width = Math.max(Math.abs(x) / 16, 1.0 / 16);
+        for (int i = 0; i < MAX_EXPANSIONS; i++, width *= 2) {
+            for (double end : new double[]{x - width, x + width}) {
+                double fEnd = eval(fDouble, values, stack, end);
+                if (fEnd == 0) {
+                    return end;
+                }
+                if (Double.isFinite(fEnd) && (fEnd < 0) != (fx < 0)) {
+                    return halley(values, stack, x + (end - x) / 2, x, end, fx);
+                }
+            }
+        }
+        return Double.NaN;
+    }
+
+    private double eval(DoubleExpression expression, double[] values, double[] stack, double x) {
+        values[slot] = x;
+        return expression.eval(values, stack);
+    }
+
+    /**
+     * Newton's method at the expression's precision; returns {@code null} if it does not
+     * converge, or if a step cannot be evaluated, such as the derivative of {@code ABS(u)} at
+     * {@code u = 0}.
+     */
+    private BigDecimal newton(BigDecimal[] frame, BigDecimal x) {
+        try {
+            for (int i = 0; i < MAX_ITERATIONS; i++) {
+                BigDecimal fx = eval(f, frame, x);
+                if (fx.signum() == 0) {
+                    return x.stripTrailingZeros();
+                }
+                BigDecimal d = eval(df, frame, x);
+                if (d.signum() == 0) {
+                    return null;
+                }
+                BigDecimal step = fx.divide(d, mc);
+                BigDecimal next = x.subtract(step, mc);
+                if (next.compareTo(x) == 0 || step.abs().compareTo(tolerance.multiply(next.abs())) <= 0) {
+                    return next.stripTrailingZeros();
+                }
+                x = next;
+            }
+        } catch (ArithmeticException e) {
+            return null;
+        }
+        return null;
+    }
+
+    private BigDecimal bisect(BigDecimal[] frame, BigDecimal low, BigDecimal high) {
+        BigDecimal fLow = eval(f, frame, low);
+        if (fLow.signum() == 0) {
+            return low;
+        }
+        BigDecimal fHigh = eval(f, frame, high);
+        if (fHigh.signum() == 0) {
+            return high;
+        }
+        if (fLow.signum() == fHigh.signum()) {
+            throw new IllegalArgumentException("No sign change for " + variable + " between " + low + " and " + high);
+        }
+        BigDecimal mid = low;
+        for (int i = 0; i < MAX_BISECTIONS; i++) {
+            mid = low.add(high, mc).divide(TWO, mc);
+            if (mid.compareTo(low) <= 0 || mid.compareTo(high) >= 0) {
+                break;
+            }
+            BigDecimal fMid = eval(f, frame, mid);
+            if (fMid.signum() == 0) {
+                break;
+            }
+            if (fMid.signum() == fLow.signum()) {
+                low = mid;
+            } else {
+                high = mid;
+            }
+        }
+        return mid.stripTrailingZeros();
+    }
+
+    private BigDecimal eval(CompiledExpression expression, BigDecimal[] frame, BigDecimal x) {
+        frame[slot] = x;
+        return expression.eval(frame);
+    }
+}
@@ -0,0 +1,192 @@
+import java.util.Arrays;
+import java.util.List;
+
+final class TokenScanner {
+
+    static final int NUMBER = 0;
+    static final int VARIABLE = 1;
+    static final int FUNCTION = 2;
+    static final int OPERATOR = 3;
+    static final int OPEN = 4;
+    static final int CLOSE = 5;
+    static final int COMMA = 6;
+
+    private static final char decimalSeparator = '.';
+    private static final char minusSign = '-';
+
+    char[] chars = new char[64];
+    int[] kinds = new int[16];
+    int[] starts = new int[16];
+    int[] ends = new int[16];
+    int[] symbols = new int[16];
+    int count;
+    int offset;
+    int length;
+
+    private Registry registry;
+    private List<Diagnostic> diagnostics;
+    private int pos;
+
+    void scan(CharSequence input, Registry registry, List<Diagnostic> diagnostics) {
+        int from = 0;
+        int to = input.length();
+        while (from < to && isWhitespace(input.charAt(from))) from++;
+        while (to > from && isWhitespace(input.charAt(to - 1))) to--;
+        if (chars.length < to - from) {
+            chars = new char[Math.max(chars.length * 2, to - from)];
+        }
+        for (int i = from; i < to; i++) {
+            chars[i - from] = input.charAt(i);
+        }
+        this.registry = registry;
+        this.diagnostics = diagnostics;
+        this.offset = from;
+        this.length = to - from;
+        this.pos = 0;
+        this.count = 0;
+
+        while (pos < length) {
+            next();
+        }
+        this.registry = null;
+        this.diagnostics = null;
+    }
+
+    private void next() {
+        while (pos < length && isWhitespace(chars[pos])) pos++;
+        int start = pos;
+        char ch = chars[pos];
+
+        if (isDigit(ch) || (ch == minusSign && pos + 1 < length && isDigit(chars[pos + 1])
+                && (count == 0 || kinds[count - 1] == OPEN || kinds[count - 1] == COMMA
+                || kinds[count - 1] == OPERATOR))) {
+            pos++;
+            while (pos < length) {
+                ch = chars[pos];
+                char last = chars[pos - 1];
+                if (isDigit(ch) || ch == decimalSeparator || ch == 'e' || ch == 'E'
+                        || ((ch == minusSign || ch == '+') && (last == 'e' || last == 'E'))) {
+                    pos++;
+                } else {
+                    break;
+                }
+            }
+            add(NUMBER, start, -1);
+        } else if (isLetter(ch) || ch == '_') {
+            while (pos < length && (isLetterOrDigit(chars[pos]) || chars[pos] == '_')) {
+                pos++;
+            }
+            int function = registry.findFunction(chars, start, pos);
+            add(function < 0 ? VARIABLE : FUNCTION, start, function);
+        } else if (ch == '(' || ch == ')' || ch == ',') {
+            pos++;
+            add(ch == '(' ? OPEN : ch == ')' ? CLOSE : COMMA, start, -1);
+        } else {
+            while (pos < length) {
+                ch = chars[pos];
+                if (isLetterOrDigit(ch) || ch == '_' || isWhitespace(ch)
+                        || ch == '(' || ch == ')' || ch == ',') {
+                    break;
+                }
+                pos++;
+                if (pos < length && chars[pos] == minusSign) {
+                    break;
+                }
+            }
+            int operator = registry.findOperator(chars, start, pos);
+            if (operator < 0) {
+                Diagnostic.report(diagnostics, Diagnostic.Code.UNKNOWN_OPERATOR, offset + start,
+                        new String(chars, start, pos - start));
+            } else {
+                add(OPERATOR, start, operator);
+            }
+        }
+    }
+
+    private void add(int kind, int start, int symbol) {
+        if (count + 1 >= kinds.length) {
+            int size = kinds.length * 2;
+            kinds = Arrays.copyOf(kinds, size);
+            starts = Arrays.copyOf(starts, size);
+            ends = Arrays.copyOf(ends, size);
+            symbols = Arrays.copyOf(symbols, size);
+        }
+        kinds[count] = kind;
+        starts[count] = start;
+        ends[count] = pos;
+        symbols[count] = symbol;
+        count++;
+    }
+
+    private static boolean isDigit(char ch) {
+        return ch < 128 ? ch >= '0' && ch <= '9' : Character.isDigit(ch);
+    }
+
+    private static boolean isLetter(char ch) {
+        return ch < 128 ? (ch | 0x20) >= 'a' && (ch | 0x20) <= 'z' : Character.isLetter(ch);
+    }
+
+    private static boolean isLetterOrDigit(char ch) {
+        return isLetter(ch) || isDigit(ch);
+    }
+
+    private static boolean isWhitespace(char ch) {
+        return ch < 128 ? ch == ' ' || (ch >= 9 && ch <= 13) || (ch >= 28 && ch <= 31) : Character.isWhitespace(ch);
+    }
+
+    boolean matches(int token, String text) {
+        if (ends[token] - starts[token] != text.length()) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (chars[starts[token] + i] != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether a NUMBER token is something {@code BigDecimal} accepts: digits with at most one
+     * decimal separator, then an optional exponent of at most nine digits.
+     */
+    boolean isNumber(int token) {
+        int p = starts[token];
+        int end = ends[token];
+        if (chars[p] == minusSign) {
+            p++;
+        }
+        int digits = 0;
+        boolean point = false;
+        for (; p < end && chars[p] != 'e' && chars[p] != 'E'; p++) {
+            if (chars[p] == decimalSeparator && !point) {
+                point = true;
+            } else if (isDigit(chars[p])) {
+                digits++;
+            } else {
+                return false;
+            }
+        }
+        if (digits == 0) {
+            return false;
+        }
+        if (p == end) {
+            return true;
+        }
+        p++;
+        if (p < end && (chars[p] == minusSign || chars[p] == '+')) {
+            p++;
+        }
+        int exponent = 0;
+        for (; p < end; p++) {
+            if (!isDigit(chars[p]) || ++exponent > 9) {
+                return false;
+            }
+        }
+        return exponent > 0;
+    }
+
+    String text(int token) {
+        return new String(chars, starts[token], ends[token] - starts[token]);
+    }
+}
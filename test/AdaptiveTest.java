@@ -0,0 +1,126 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class AdaptiveTest {
+
+    private static final Operator AVERAGE = new Operator("@", 3, true) {
+        @Override
+        public BigDecimal eval(BigDecimal v1, BigDecimal v2, MathContext mc) {
+            return v1.add(v2, mc).divide(BigDecimal.valueOf(2), mc);
+        }
+    };
+
+    @AfterEach
+    void resetCounters() {
+        IntervalExpression.resetCounters();
+    }
+
+    /**
+     * The exact value rounded once, which is what evalAdaptive promises: eval with plenty of guard
+     * digits, then rounded to the requested precision.
+     */
+    private static BigDecimal reference(String formula, int precision, RoundingMode mode, BigDecimal a, BigDecimal b) {
+        return new Expression(formula).setPrecision(precision + 25).setRoundingMode(mode).with("a", a).with("b", b)
+                .eval().round(new MathContext(precision, mode));
+    }
+
+    private static BigDecimal adaptive(String formula, int precision, RoundingMode mode, BigDecimal a, BigDecimal b) {
+        return new Expression(formula).setPrecision(precision).setRoundingMode(mode).with("a", a).with("b", b)
+                .evalAdaptive();
+    }
+
+    private static void assertSame(BigDecimal expected, BigDecimal actual, String message) {
+        assertEquals(0, expected.compareTo(actual), message + ": expected " + expected + " but was " + actual);
+    }
+
+    @Test
+    void matchesTheCorrectlyRoundedValue() {
+        String[] formulas = {"a * b + 1", "(a - b) / (a + b)", "a ^ 2 - SQRT(ABS(b))", "a / 3 + b / 7",
+                "(a + b) * (a + b) - a * b", "IF(a > b, a / b, b / a)", "LOG(ABS(a) + 1) * b"};
+        RoundingMode[] modes = {RoundingMode.HALF_UP, RoundingMode.HALF_EVEN};
+        for (String formula : formulas) {
+            for (int precision : new int[]{3, 7, 15}) {
+                for (RoundingMode mode : modes) {
+                    for (int i = 1; i <= 12; i++) {
+                        BigDecimal a = BigDecimal.valueOf(i * 37 - 200, 2);
+                        BigDecimal b = BigDecimal.valueOf(i * 11 + 3, 1);
+                        assertSame(reference(formula, precision, mode, a, b), adaptive(formula, precision, mode, a, b),
+                                formula + " at " + precision + " digits " + mode + ", a=" + a + ", b=" + b);
+                    }
+                }
+            }
+        }
+        assertEquals(true, IntervalExpression.getHits() > 0);
+    }
+
+    @Test
+    void fallsBackOnTiesAndRoundingBoundaries() {
+        BigDecimal a = new BigDecimal("1");
+        BigDecimal b = new BigDecimal("8");
+        assertEquals(new BigDecimal("0.13"), adaptive("a / b", 2, RoundingMode.HALF_UP, a, b));
+        assertEquals(new BigDecimal("0.12"), adaptive("a / b", 2, RoundingMode.HALF_EVEN, a, b));
+        // the interval around (1/3)*3/8 straddles the tie at 0.125, so only BigDecimal can decide
+        IntervalExpression.resetCounters();
+        assertSame(reference("a / 3 * 3 / b", 2, RoundingMode.HALF_UP, a, b),
+                adaptive("a / 3 * 3 / b", 2, RoundingMode.HALF_UP, a, b), "near a tie");
+        assertEquals(1, IntervalExpression.getMisses());
+        assertEquals(new BigDecimal("0.167"), adaptive("a / 2", 3, RoundingMode.HALF_UP, new BigDecimal("0.333"), b));
+        assertEquals(new BigDecimal("0.166"), adaptive("a / 2", 3, RoundingMode.HALF_EVEN, new BigDecimal("0.333"), b));
+    }
+
+    @Test
+    void directedRoundingModesEvaluateLikeEval() {
+        assertEquals(new BigDecimal("0.999"), adaptive("a / 3 * 3", 3, RoundingMode.FLOOR, BigDecimal.ONE, BigDecimal.ONE));
+        RoundingMode[] modes = {RoundingMode.FLOOR, RoundingMode.CEILING, RoundingMode.DOWN, RoundingMode.UP,
+                RoundingMode.HALF_DOWN};
+        for (RoundingMode mode : modes) {
+            for (int i = 1; i <= 12; i++) {
+                BigDecimal a = BigDecimal.valueOf(i * 37 - 200, 2);
+                BigDecimal b = BigDecimal.valueOf(i * 11 + 3, 1);
+                Expression expression = new Expression("a / 3 * 3 + (a - b) / (a + b)").setPrecision(7)
+                        .setRoundingMode(mode).with("a", a).with("b", b);
+                assertEquals(expression.eval(), expression.evalAdaptive(), mode + ", a=" + a + ", b=" + b);
+            }
+        }
+    }
+
+    @Test
+    void fallsBackWhenDoubleOverflows() {
+        IntervalExpression.resetCounters();
+        BigDecimal huge = new BigDecimal("1e400");
+        BigDecimal tiny = new BigDecimal("1e-400");
+        assertSame(reference("a * b", 7, RoundingMode.HALF_UP, huge, new BigDecimal("3")),
+                adaptive("a * b", 7, RoundingMode.HALF_UP, huge, new BigDecimal("3")), "huge");
+        assertSame(reference("a / b", 7, RoundingMode.HALF_UP, new BigDecimal("2"), tiny),
+                adaptive("a / b", 7, RoundingMode.HALF_UP, new BigDecimal("2"), tiny), "tiny divisor");
+        assertSame(reference("a ^ 2 / b", 7, RoundingMode.HALF_UP, new BigDecimal("1e200"), new BigDecimal("1e100")),
+                adaptive("a ^ 2 / b", 7, RoundingMode.HALF_UP, new BigDecimal("1e200"), new BigDecimal("1e100")),
+                "intermediate overflow");
+        assertEquals(0, IntervalExpression.getHits());
+    }
+
+    @Test
+    void fallsBackForWhatIntervalsCannotBound() {
+        Expression custom = new Expression("(a @ b) / 3").addOperator(AVERAGE).setPrecision(7)
+                .with("a", BigDecimal.ONE).with("b", BigDecimal.valueOf(2));
+        assertSame(new Expression("(a + b) / 2 / 3").setPrecision(30).with("a", BigDecimal.ONE)
+                .with("b", BigDecimal.valueOf(2)).eval().round(new MathContext(7)), custom.evalAdaptive(), "custom operator");
+        assertSame(reference("SIN(a) * b", 7, RoundingMode.HALF_UP, new BigDecimal("12.5"), BigDecimal.TEN),
+                adaptive("SIN(a) * b", 7, RoundingMode.HALF_UP, new BigDecimal("12.5"), BigDecimal.TEN), "sine");
+        assertSame(reference("a * b", 20, RoundingMode.HALF_UP, new BigDecimal("1.1"), new BigDecimal("1.3")),
+                adaptive("a * b", 20, RoundingMode.HALF_UP, new BigDecimal("1.1"), new BigDecimal("1.3")), "20 digits");
+    }
+
+    @Test
+    void errorsStillSurface() {
+        assertThrows(ArithmeticException.class,
+                () -> adaptive("a / (b - b)", 7, RoundingMode.HALF_UP, BigDecimal.ONE, BigDecimal.ONE));
+    }
+}
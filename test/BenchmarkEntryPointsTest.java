@@ -0,0 +1,93 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * The benchmark module reaches the engine by reflection (see {@code bench.Engine}), so a renamed
+ * or re-typed member would only fail there at run time. These tests pin those members and check
+ * that each measured path computes what {@link Expression#eval()} does, for the shapes and
+ * precisions of {@code bench.EvalBenchmark}.
+ */
+class BenchmarkEntryPointsTest {
+
+    private static final String[] SHAPES = {
+            "a + b * 2",
+            "((((a + 1) * (b - 2)) / ((c + 3) * (a - 4))) + (((b * 5) - (c / 6)) * ((a + 7) - (b * 8))))"
+                    + " * (((a - c) / (b + 9)) - ((c * a) / (b - 10)))",
+            "SQRT(ABS(SIN(a) * COS(b))) + LOG(ABS(c) + 1) - TAN(RAD(a)) * FLOOR(b / 3) + CEILING(c)",
+            variables(32),
+    };
+
+    private static final int[] PRECISIONS = {7, 16, 34, 128};
+
+    private static String variables(int count) {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            names.add("v" + i);
+        }
+        return String.join(" + ", names);
+    }
+
+    @Test
+    void reflectedMembersExist() throws ReflectiveOperationException {
+        Registry.class.getDeclaredField("DEFAULT");
+        Registry.class.getDeclaredMethod("getConstants");
+        TokenScanner.class.getDeclaredConstructor();
+        TokenScanner.class.getDeclaredMethod("scan", CharSequence.class, Registry.class, List.class);
+        Parser.class.getDeclaredMethod("parse", String.class, Registry.class);
+        CompiledExpression.class.getDeclaredConstructor(Program.class, Map.class, MathContext.class);
+        CompiledExpression.class.getDeclaredMethod("newBindings");
+        Bindings.class.getDeclaredMethod("with", String.class, BigDecimal.class);
+        Bindings.class.getDeclaredMethod("eval");
+        Expression.class.getDeclaredConstructor(String.class);
+        Expression.class.getDeclaredMethod("setPrecision", int.class);
+        Expression.class.getDeclaredMethod("with", String.class, BigDecimal.class);
+        Expression.class.getDeclaredMethod("eval");
+        Expression.class.getDeclaredMethod("evalDouble");
+        Expression.class.getDeclaredMethod("solve", String.class, BigDecimal.class);
+    }
+
+    @Test
+    void parsingBypassesTheSharedCache() {
+        ParseCache<Program> cache = ParseCache.shared();
+        for (String text : SHAPES) {
+            new TokenScanner().scan(text, Registry.DEFAULT, null);
+            long hits = cache.getHits();
+            long misses = cache.getMisses();
+            assertNotSame(Parser.parse(text, Registry.DEFAULT), Parser.parse(text, Registry.DEFAULT));
+            assertEquals(hits, cache.getHits());
+            assertEquals(misses, cache.getMisses());
+        }
+    }
+
+    @Test
+    void everyMeasuredPathMatchesEval() {
+        for (String text : SHAPES) {
+            Program program = Parser.parse(text, Registry.DEFAULT);
+            for (int precision : PRECISIONS) {
+                Expression expression = new Expression(text).setPrecision(precision);
+                Bindings bindings = new CompiledExpression(program, Registry.DEFAULT.getConstants(),
+                        new MathContext(precision)).newBindings();
+                String[] names = expression.getCompiled().getVariableNames();
+                for (int i = 0; i < names.length; i++) {
+                    BigDecimal value = new BigDecimal("1.25").add(BigDecimal.valueOf(i));
+                    expression.with(names[i], value);
+                    bindings.with(names[i], value);
+                }
+                BigDecimal expected = expression.eval();
+                assertEquals(expected, bindings.eval(), text + " at " + precision + " digits");
+                // rounding at each step leaves the last few digits uncertain
+                double tolerance = Math.pow(10, 3 - Math.min(precision, 15));
+                assertEquals(expected.doubleValue(), expression.evalDouble(),
+                        tolerance * Math.max(1, Math.abs(expected.doubleValue())), text + " at " + precision + " digits");
+            }
+        }
+    }
+}
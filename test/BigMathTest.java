@@ -0,0 +1,67 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+import org.junit.jupiter.api.Test;
+
+class BigMathTest {
+
+    private static final String SQRT2 = "1.41421356237309504880168872420969807856967187537694807317668";
+
+    private static BigDecimal eval(String formula, int precision) {
+        return new Expression(formula).setPrecision(precision).eval();
+    }
+
+    @Test
+    void matchesReferenceValuesBeyondKnownDigits() {
+        assertEquals(new BigDecimal("3.14159265358979323846264338327950288419716939937510582097494"), eval("PI", 60));
+        assertEquals(new BigDecimal("2.71828182845904523536028747135266249775724709369995957496697"), eval("e", 60));
+        assertEquals(new BigDecimal(SQRT2), eval("SQRT(2)", 60));
+        assertEquals(new BigDecimal(SQRT2), eval("2 ^ 0.5", 60));
+        assertEquals(new BigDecimal("2.30258509299404568401799145468436420760110148862877297603333"), eval("LOG(10)", 60));
+        assertEquals(new BigDecimal("0.845098040014256830712216258592636193483572396323965406503635"), eval("LOG10(7)", 60));
+        assertEquals(new BigDecimal("0.866025403784438646763723170752936183471402626905190314027903"), eval("SIN(60)", 60));
+    }
+
+    @Test
+    void exactAnglesStayExact() {
+        for (int precision : new int[]{7, 16, 34, 60}) {
+            assertEquals(new BigDecimal("0.5"), eval("SIN(30)", precision));
+            assertEquals(new BigDecimal("0.5"), eval("COS(60)", precision));
+            assertEquals(BigDecimal.ONE, eval("TAN(45)", precision));
+            assertEquals(new BigDecimal("-1"), eval("COS(180)", precision));
+            assertEquals(new BigDecimal("3E+1"), eval("ASIN(0.5)", precision));
+            assertEquals(new BigDecimal("1E+3"), eval("10 ^ 3", precision));
+        }
+    }
+
+    @Test
+    void higherPrecisionAgreesWithLowerPrecision() {
+        String[] formulas = {"SQRT(3.7)", "LOG(0.37)", "LOG10(123.4)", "SIN(17.5)", "COS(-212)", "TAN(89)",
+                "ATAN(2.5)", "ACOS(-0.3)", "SINH(1.7)", "COSH(-2)", "TANH(0.4)", "1.7 ^ 2.3", "2 ^ -10", "RAD(57)"};
+        for (String formula : formulas) {
+            for (int precision : new int[]{7, 16, 25, 40}) {
+                BigDecimal reference = eval(formula, precision + 20).round(new MathContext(precision));
+                BigDecimal value = eval(formula, precision);
+                BigDecimal ulp = reference.ulp();
+                assertTrue(value.subtract(reference).abs().compareTo(ulp) <= 0,
+                        formula + " at " + precision + " digits: " + value + " vs " + reference);
+            }
+        }
+    }
+
+    @Test
+    void powersOutsideTheDomainOrRangeOfDouble() {
+        for (int precision : new int[]{7, 16, 40}) {
+            Expression negative = new Expression("a ^ 0.5").setPrecision(precision).with("a", new BigDecimal("-8"));
+            assertThrows(ArithmeticException.class, negative::eval);
+            Expression zero = new Expression("a ^ -0.5").setPrecision(precision).with("a", BigDecimal.ZERO);
+            assertThrows(ArithmeticException.class, zero::eval);
+        }
+        assertEquals(new BigDecimal("3.162278E+400"), eval("10 ^ 400.5", 7));
+        assertEquals(new BigDecimal("3.162278E-401"), eval("10 ^ -400.5", 7));
+    }
+}
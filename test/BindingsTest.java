@@ -0,0 +1,65 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class BindingsTest {
+
+    private static CompiledExpression compile(String text) {
+        return new CompiledExpression(Parser.parse(text, Registry.DEFAULT), Registry.DEFAULT.getConstants(),
+                MathContext.DECIMAL64);
+    }
+
+    @Test
+    void matchesExpressionEvaluation() {
+        String text = "(a + b) * (a - b) / PI";
+        CompiledExpression compiled = compile(text);
+        Bindings bindings = compiled.newBindings();
+        for (int a = -3; a <= 3; a++) {
+            for (int b = -3; b <= 3; b++) {
+                BigDecimal expected = new Expression(text).setPrecision(16)
+                        .with("a", BigDecimal.valueOf(a)).with("b", BigDecimal.valueOf(b)).eval();
+                assertEquals(expected, bindings.with("a", BigDecimal.valueOf(a)).and("b", BigDecimal.valueOf(b)).eval());
+            }
+        }
+    }
+
+    @Test
+    void bindingsAreIndependent() {
+        CompiledExpression compiled = compile("a * 2");
+        Bindings first = compiled.newBindings().with("a", BigDecimal.ONE);
+        Bindings second = compiled.newBindings().with("a", BigDecimal.TEN);
+        assertEquals(new BigDecimal("2"), first.eval());
+        assertEquals(new BigDecimal("2E+1"), second.eval());
+    }
+
+    @Test
+    void rejectsUnknownVariables() {
+        Bindings bindings = compile("a + 1").newBindings();
+        assertThrows(IllegalArgumentException.class, () -> bindings.with("b", BigDecimal.ONE));
+    }
+
+    @Test
+    void rejectsUnboundVariablesBeforeEvaluating() {
+        Bindings bindings = compile("a + b").newBindings().with("a", BigDecimal.ONE);
+        IllegalStateException e = assertThrows(IllegalStateException.class, bindings::eval);
+        assertEquals("Unknown variable: b", e.getMessage());
+    }
+
+    @Test
+    void rejectsBindingsOfAnotherExpression() {
+        Bindings bindings = compile("a").newBindings().with("a", BigDecimal.ONE);
+        assertThrows(IllegalArgumentException.class, () -> compile("a").eval(bindings));
+    }
+
+    @Test
+    void startsWithTheCompiledDefaults() {
+        CompiledExpression compiled = new CompiledExpression(Parser.parse("a + 1", Registry.DEFAULT),
+                Map.of("a", BigDecimal.ONE), MathContext.DECIMAL64);
+        assertEquals(new BigDecimal("2"), compiled.newBindings().eval());
+    }
+}
@@ -0,0 +1,94 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+import org.junit.jupiter.api.Test;
+
+class BytecodeCompilerTest {
+
+    private static final String[] FORMULAS = {
+            "a + b * 2", "(a - b) / (a + b)", "a ^ 2 - SQRT(b)", "SIN(a) * COS(b) + TAN(a / 2)",
+            "LOG(a) + LOG10(b) - ABS(a - b)", "IF(a > b, a, b) - (a <= b)", "(a + b) * (a + b) / (a * b + 1)",
+            "ABS(a - 5) + CEILING(b / 4) * PI", "a % b + FLOOR(a / 3)",
+            "SQRT(ABS(a - SQRT(ABS(b - 4)))) + LOG(ABS(a - b) + SQRT(a))",
+    };
+
+    private static final Operator AVERAGE = new Operator("@", 3, true) {
+        @Override
+        public BigDecimal eval(BigDecimal v1, BigDecimal v2, MathContext mc) {
+            return v1.add(v2, mc).divide(BigDecimal.valueOf(2), mc);
+        }
+    };
+
+    @Test
+    void matchesExpressionEvaluation() {
+        for (String formula : FORMULAS) {
+            Expression expression = new Expression(formula).setPrecision(16);
+            DoubleEvaluator bytecode = expression.getBytecode();
+            String[] names = expression.getCompiled().getVariableNames();
+            for (int a = 1; a <= 9; a++) {
+                for (int b = 1; b <= 9; b++) {
+                    expression.with("a", BigDecimal.valueOf(a)).with("b", BigDecimal.valueOf(b));
+                    double[] values = new double[names.length];
+                    for (int i = 0; i < names.length; i++) {
+                        values[i] = names[i].equals("a") ? a : names[i].equals("b") ? b : Math.PI;
+                    }
+                    double expected = expression.eval().doubleValue();
+                    double actual = bytecode.evaluate(values);
+                    assertEquals(expected, actual, 1e-12 * Math.max(1, Math.abs(expected)),
+                            formula + " at a=" + a + ", b=" + b);
+                    assertEquals(expression.evalDouble(), actual, formula + " at a=" + a + ", b=" + b);
+                }
+            }
+        }
+    }
+
+    @Test
+    void customOperatorsFallBackToBigDecimal() {
+        Expression expression = new Expression("(a @ 4) * 2").addOperator(AVERAGE).with("a", BigDecimal.valueOf(3));
+        assertEquals(expression.eval().doubleValue(), expression.getBytecode().evaluate(new double[]{3}));
+        assertTrue(expression.getBytecode().getClass().getName().startsWith("GeneratedFormula"));
+        assertTrue(Double.isNaN(expression.getBytecode().evaluate(new double[]{Double.NaN})));
+    }
+
+    @Test
+    void manyVariablesAndConstants() {
+        StringBuilder formula = new StringBuilder("0");
+        double[] values = new double[300];
+        for (int i = 0; i < values.length; i++) {
+            formula.append(" + v").append(i).append(" * ").append(i + 0.5);
+        }
+        Expression expression = new Expression(formula.toString()).setPrecision(16);
+        String[] names = expression.getCompiled().getVariableNames();
+        for (int i = 0; i < names.length; i++) {
+            values[i] = Integer.parseInt(names[i].substring(1)) % 7;
+            expression.with(names[i], BigDecimal.valueOf(values[i]));
+        }
+        assertEquals(expression.eval().doubleValue(), expression.getBytecode().evaluate(values), 1e-9);
+    }
+
+    @Test
+    void oversizedExpressionsFallBackToTheInterpreter() {
+        Expression expression = new Expression(sum(0, 8192)).setPrecision(16).with("x", new BigDecimal("0.25"));
+        DoubleEvaluator evaluator = expression.getBytecode();
+        assertFalse(evaluator.getClass().getName().startsWith("GeneratedFormula"), evaluator.getClass().getName());
+        double[] values = {0.25};
+        assertEquals(expression.evalDouble(), evaluator.evaluate(values));
+        assertEquals(expression.eval().doubleValue(), evaluator.evaluate(values), 1e-9);
+    }
+
+    /**
+     * A balanced sum of {@code (x + k.5)} for {@code k} from {@code from} to {@code to - 1}, each
+     * with a constant of its own.
+     */
+    private static String sum(int from, int to) {
+        if (to - from == 1) {
+            return "(x + " + from + ".5)";
+        }
+        int middle = (from + to) / 2;
+        return "(" + sum(from, middle) + " + " + sum(middle, to) + ")";
+    }
+}
@@ -0,0 +1,140 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class CompiledExpressionTest {
+
+    @Test
+    void evaluatesTheSampleFormulas() {
+        assertEquals(new BigDecimal("1.3"), new Expression("1+(1/3)").setPrecision(2).eval());
+        assertEquals(new BigDecimal("-0.35"), new Expression("(3.4 + -4.1)/2").eval());
+        assertEquals(new BigDecimal("9.541762"), new Expression("SQRT(a^2 + b^2)")
+                .with("a", new BigDecimal("2.4")).and("b", new BigDecimal("9.235")).eval());
+        assertEquals(new BigDecimal("0.7639437268410977"), new Expression("2.4/PI").setPrecision(16).eval());
+        // PI is rounded to the context like any other value: 3.2 when rounding up to two digits
+        assertEquals(new BigDecimal("0.75"), new Expression("2.4/PI").setPrecision(2).setRoundingMode(RoundingMode.UP).eval());
+    }
+
+    @Test
+    void reusedTreeMatchesAFreshExpression() {
+        String text = "a * (b + 3) / 7 - SQRT(a) + b ^ 2";
+        Expression reused = new Expression(text);
+        for (int a = 1; a <= 20; a++) {
+            for (int b = -5; b <= 5; b++) {
+                BigDecimal expected = new Expression(text)
+                        .with("a", BigDecimal.valueOf(a)).with("b", BigDecimal.valueOf(b)).eval();
+                reused.with("a", BigDecimal.valueOf(a)).with("b", BigDecimal.valueOf(b));
+                assertEquals(expected, reused.eval(), text + " at a=" + a + ", b=" + b);
+            }
+        }
+    }
+
+    @Test
+    void recompilesWhenThePrecisionChanges() {
+        Expression expression = new Expression("1/3");
+        assertEquals(new BigDecimal("0.3333333"), expression.eval());
+        assertEquals(new BigDecimal("0.333"), expression.setPrecision(3).eval());
+    }
+
+    @Test
+    void rejectsUnknownVariables() {
+        assertThrows(IllegalStateException.class, () -> new Expression("a + 1").eval());
+    }
+
+    @Test
+    void sharedSubexpressionsMatchAFreshExpression() {
+        String text = "(a + b) * (a + b) - SQRT(a + b) / (a * b + 1) + (a * b + 1)";
+        Expression reused = new Expression(text).setPrecision(20);
+        assertTrue(reused.getCompiled().getSharedNodes() > 0);
+        for (int a = 1; a <= 9; a++) {
+            for (int b = 1; b <= 9; b++) {
+                BigDecimal expected = new Expression(text).setPrecision(20)
+                        .with("a", BigDecimal.valueOf(a)).with("b", BigDecimal.valueOf(b)).eval();
+                reused.with("a", BigDecimal.valueOf(a)).with("b", BigDecimal.valueOf(b));
+                assertEquals(expected, reused.eval(), text + " at a=" + a + ", b=" + b);
+                assertEquals(expected, reused.getCompiled().newBindings()
+                        .with("a", BigDecimal.valueOf(a)).with("b", BigDecimal.valueOf(b)).eval());
+            }
+        }
+    }
+
+    @Test
+    void repeatedCustomCallsAreNotShared() {
+        AtomicInteger calls = new AtomicInteger();
+        Function counter = new Function("COUNTER") {
+            @Override
+            public BigDecimal eval(List<BigDecimal> parameters, MathContext mc) {
+                return BigDecimal.valueOf(calls.incrementAndGet());
+            }
+        };
+        Operator tick = new Operator("#", 20, true) {
+            @Override
+            public BigDecimal eval(BigDecimal v1, BigDecimal v2, MathContext mc) {
+                return v1.add(v2, mc).add(BigDecimal.valueOf(calls.incrementAndGet()), mc);
+            }
+        };
+        Expression expression = new Expression("COUNTER(a) * 10 + COUNTER(a) + (a # a) * 10 + (a # a) + (a + 1) * (a + 1)")
+                .addFunction(counter).addOperator(tick).with("a", BigDecimal.ZERO);
+        // COUNTER gives 1, 2; # gives 3, 4; only a + 1 is shared
+        assertEquals(new BigDecimal("47"), expression.eval());
+        assertEquals(1, expression.getCompiled().getSharedNodes());
+        assertEquals(4, calls.get());
+    }
+
+    @Test
+    void evalWithDefaultsLeavesTheSharedFrameUntouched() throws Exception {
+        CompiledExpression compiled = new Expression("(a + b) * (a + b) + SQRT(a + b)")
+                .with("a", new BigDecimal("1.5")).with("b", new BigDecimal("2.5")).getCompiled();
+        assertTrue(compiled.getSharedNodes() > 0);
+        BigDecimal expected = compiled.eval();
+        BigDecimal[] slots = compiled.newSlots();
+        for (int i = compiled.getVariableCount(); i < slots.length; i++) {
+            assertNull(slots[i]);
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<BigDecimal>> results = new ArrayList<>();
+            for (int i = 0; i < 2000; i++) {
+                results.add(pool.submit(() -> compiled.eval()));
+            }
+            for (Future<BigDecimal> result : results) {
+                assertEquals(expected, result.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void slotArraysMatchNamedBinding() {
+        String text = "x * y - z / 4 + x ^ 2";
+        CompiledExpression compiled = new Expression(text).getCompiled();
+        int x = compiled.indexOf("x");
+        int y = compiled.indexOf("y");
+        int z = compiled.indexOf("z");
+        assertEquals(-1, compiled.indexOf("w"));
+        assertEquals("y", compiled.getVariableName(y));
+        BigDecimal[] slots = compiled.newSlots();
+        for (int i = -4; i <= 4; i++) {
+            slots[x] = BigDecimal.valueOf(i);
+            slots[y] = BigDecimal.valueOf(i * 3 + 1, 1);
+            slots[z] = BigDecimal.valueOf(7 - i);
+            BigDecimal expected = new Expression(text).with("x", slots[x]).with("y", slots[y]).with("z", slots[z]).eval();
+            assertEquals(expected, compiled.eval(slots), text + " at i=" + i);
+            assertEquals(expected, compiled.newBindings().with(x, slots[x]).with(y, slots[y]).with(z, slots[z]).eval());
+        }
+    }
+}
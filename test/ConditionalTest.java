@@ -0,0 +1,91 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class ConditionalTest {
+
+    private static BigDecimal eval(String formula, int a, int b) {
+        return new Expression(formula).with("a", BigDecimal.valueOf(a)).with("b", BigDecimal.valueOf(b)).eval();
+    }
+
+    private static void assertValue(int expected, BigDecimal actual) {
+        assertEquals(0, BigDecimal.valueOf(expected).compareTo(actual), expected + " but was " + actual);
+    }
+
+    @Test
+    void comparisonsAndLogicGiveOneOrZero() {
+        for (int a = -2; a <= 2; a++) {
+            for (int b = -2; b <= 2; b++) {
+                assertValue(a < b ? 1 : 0, eval("a < b", a, b));
+                assertValue(a >= b ? 1 : 0, eval("a >= b", a, b));
+                assertValue(a == b ? 1 : 0, eval("a == b", a, b));
+                assertValue(a != b ? 1 : 0, eval("a <> b", a, b));
+                assertValue(a != 0 && b != 0 ? 1 : 0, eval("a && b", a, b));
+                assertValue(a != 0 || b != 0 ? 1 : 0, eval("OR(a, b)", a, b));
+                assertValue(a == 0 ? 1 : 0, eval("NOT(a)", a, b));
+                assertValue(a > b ? a : b, eval("IF(a > b, a, b)", a, b));
+                assertValue(a == 1 ? 10 : a == 2 ? 20 : -b, eval("SWITCH(a, 1, 10, 2, 20, 0 - b)", a, b));
+            }
+        }
+    }
+
+    @Test
+    void untakenBranchesAreNotEvaluated() {
+        assertEquals(BigDecimal.ZERO, eval("IF(a > 0, SQRT(b) / a, 0)", 0, -4));
+        assertEquals(BigDecimal.ZERO, eval("AND(a, 1 / a)", 0, 0));
+        assertEquals(BigDecimal.ONE, eval("OR(b, 1 / a)", 0, 3));
+        assertEquals(new BigDecimal("7"), eval("SWITCH(b, 3, 7, 1 / a)", 0, 3));
+        // the quotient is shared by both uses but only needed on the taken side
+        assertEquals(BigDecimal.ZERO, eval("IF(a != 0, (b / a) * (b / a), 0)", 0, 5));
+        assertEquals(new BigDecimal("6.25"), eval("IF(a != 0, (b / a) * (b / a), 0)", 2, 5));
+    }
+
+    @Test
+    void customFunctionsInUntakenBranchesAreNotCalled() {
+        AtomicInteger calls = new AtomicInteger();
+        Function counter = new Function("COUNT") {
+            @Override
+            public BigDecimal eval(List<BigDecimal> parameters, MathContext mc) {
+                calls.incrementAndGet();
+                return parameters.get(0);
+            }
+        };
+        Expression expression = new Expression("IF(a > 0, COUNT(a), AND(a, COUNT(b)))").addFunction(counter)
+                .with("a", BigDecimal.ZERO).with("b", BigDecimal.ONE);
+        assertEquals(BigDecimal.ZERO, expression.eval());
+        assertEquals(0, calls.get());
+        Map<String, BigDecimal[]> columns = new HashMap<>();
+        columns.put("a", new BigDecimal[]{BigDecimal.ZERO, BigDecimal.ONE, BigDecimal.ZERO});
+        BigDecimal[] results = expression.evalBatch(columns, 3);
+        assertEquals(1, calls.get());
+        assertEquals(BigDecimal.ONE, results[1]);
+    }
+
+    @Test
+    void doubleEvaluationAgrees() {
+        String[] formulas = {"IF(a > b, a - b, b - a)", "AND(a, b) + OR(a, 0) * 2", "SWITCH(a, 1, b, 2, 0 - b, 0)",
+                "(a <= b) + (a == b) * 4 + NOT(b)", "a && b || a > 1"};
+        for (String formula : formulas) {
+            for (int a = -2; a <= 2; a++) {
+                for (int b = -2; b <= 2; b++) {
+                    Expression expression = new Expression(formula).with("a", BigDecimal.valueOf(a))
+                            .with("b", BigDecimal.valueOf(b));
+                    assertEquals(expression.eval().doubleValue(), expression.evalDouble(), formula + " at " + a + ", " + b);
+                }
+            }
+        }
+    }
+
+    @Test
+    void switchWithoutMatchOrDefaultFails() {
+        assertThrows(IllegalStateException.class, () -> eval("SWITCH(a, 1, 10, 2, 20)", 3, 0));
+    }
+}
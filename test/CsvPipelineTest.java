@@ -0,0 +1,75 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CsvPipelineTest {
+
+    @TempDir
+    Path dir;
+
+    private List<String> run(CsvPipeline pipeline, String csv) throws IOException {
+        Path input = dir.resolve("in.csv");
+        Path output = dir.resolve("out.csv");
+        Files.write(input, csv.getBytes(StandardCharsets.UTF_8));
+        pipeline.run(input, output);
+        return Files.readAllLines(output, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void resultsMatchExpressionEvaluation() throws IOException {
+        StringBuilder csv = new StringBuilder("id,a,b\n");
+        for (int i = 0; i < 100; i++) {
+            csv.append(i).append(',').append(i % 13 - 6).append(".25,").append(i % 7 + 1).append('\n');
+        }
+        List<String> lines = run(new CsvPipeline(new Expression("a * b + SQRT(b) / 3")).chunkSize(16), csv.toString());
+        assertEquals("id,a,b,result", lines.get(0));
+        for (int i = 0; i < 100; i++) {
+            String[] fields = lines.get(i + 1).split(",");
+            BigDecimal expected = new Expression("a * b + SQRT(b) / 3")
+                    .with("a", new BigDecimal(fields[1])).with("b", new BigDecimal(fields[2])).eval();
+            assertEquals(expected.toString(), fields[3]);
+        }
+    }
+
+    @Test
+    void followsFormulaLinks() throws IOException {
+        Expression expression = new Expression("y * 2").with("y", "x + 1");
+        List<String> lines = run(new CsvPipeline(expression), "x\n1.5\n-4\n");
+        assertEquals(List.of("x,result", "1.5,5", "-4,-6"), lines);
+    }
+
+    @Test
+    void quotedFieldsKeepSeparatorsAndLineBreaks() throws IOException {
+        String csv = "\"note, first\",a,\"b\"\n"
+                + "\"plain, with comma\",2,3\n"
+                + "\"two\nlines \"\"quoted\"\"\",\"4\",5\n";
+        List<String> lines = run(new CsvPipeline(new Expression("a * b")), csv);
+        assertEquals(List.of("\"note, first\",a,\"b\",result", "\"plain, with comma\",2,3,6",
+                "\"two", "lines \"\"quoted\"\"\",\"4\",5," + new Expression("4 * 5").eval()), lines);
+    }
+
+    @Test
+    void writesUtf8() throws IOException {
+        List<String> lines = run(new CsvPipeline(new Expression("a + 1")).separator(';').resultColumn("résultat; €"),
+                "nom;a\nJosé;2\n");
+        assertEquals(List.of("nom;a;\"résultat; €\"", "José;2;3"), lines);
+    }
+
+    @Test
+    void rejectsBadInput() {
+        assertThrows(IllegalArgumentException.class, () -> new CsvPipeline(new Expression("a")).separator('€'));
+        assertThrows(IllegalArgumentException.class, () -> new CsvPipeline(new Expression("a")).separator('"'));
+        assertThrows(IllegalStateException.class, () -> run(new CsvPipeline(new Expression("a + b")), "a\n1\n"));
+        assertThrows(IllegalStateException.class, () -> run(new CsvPipeline(new Expression("a + b")), "a,b\n1,\n"));
+        assertThrows(NumberFormatException.class, () -> run(new CsvPipeline(new Expression("a")), "a\n1x\n"));
+    }
+}
@@ -0,0 +1,74 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class DoubleExpressionTest {
+
+    private static final String[] FORMULAS = {
+            "a + b * 2", "(a - b) / (a + b)", "a ^ 2 - SQRT(b)", "SIN(a) * COS(b) + TAN(a / 2)",
+            "LOG(a) + LOG10(b) - ABS(a - b)", "FLOOR(a / 3) + CEILING(b / 3)", "IF(a > b, a, b) - (a <= b)",
+    };
+
+    private static final Operator AVERAGE = new Operator("@", 3, true) {
+        @Override
+        public BigDecimal eval(BigDecimal v1, BigDecimal v2, MathContext mc) {
+            return v1.add(v2, mc).divide(BigDecimal.valueOf(2), mc);
+        }
+    };
+
+    private static final Function HALF = new Function("HALF") {
+        @Override
+        public BigDecimal eval(List<BigDecimal> parameters, MathContext mc) {
+            return parameters.get(0).divide(BigDecimal.valueOf(2), mc);
+        }
+    };
+
+    @Test
+    void matchesBigDecimalEvaluation() {
+        for (String formula : FORMULAS) {
+            for (int a = 1; a <= 9; a++) {
+                for (int b = 1; b <= 9; b++) {
+                    Expression expression = new Expression(formula).setPrecision(16)
+                            .with("a", BigDecimal.valueOf(a)).with("b", BigDecimal.valueOf(b));
+                    double expected = expression.eval().doubleValue();
+                    assertEquals(expected, expression.evalDouble(), 1e-12 * Math.max(1, Math.abs(expected)),
+                            formula + " at a=" + a + ", b=" + b);
+                }
+            }
+        }
+    }
+
+    @Test
+    void customOperatorsAndFunctionsFallBackToBigDecimal() {
+        assertEquals(3.5, new Expression("HALF(3 @ 4) * 2").addOperator(AVERAGE).addFunction(HALF).evalDouble());
+    }
+
+    @Test
+    void nonFiniteValuesGiveNaNInsteadOfThrowing() {
+        assertTrue(Double.isNaN(new Expression("(1 / 0) @ 2").addOperator(AVERAGE).evalDouble()));
+        assertTrue(Double.isNaN(new Expression("2 @ SQRT(-1)").addOperator(AVERAGE).evalDouble()));
+        assertTrue(Double.isNaN(new Expression("HALF(1 / 0)").addFunction(HALF).evalDouble()));
+        assertTrue(Double.isNaN(new Expression("HALF(0 / 0)").addFunction(HALF).evalDouble()));
+    }
+
+    @Test
+    void reboundVariablesAndLinksAreSeenByTheNextCall() {
+        Expression expression = new Expression("a * b + c").with("a", BigDecimal.valueOf(2))
+                .with("b", BigDecimal.valueOf(3)).with("c", "a - b");
+        assertEquals(5.0, expression.evalDouble());
+        assertEquals(5.0, expression.evalDouble());
+        expression.with("a", BigDecimal.valueOf(4));
+        assertEquals(13.0, expression.evalDouble());
+        expression.with("c", "a + b");
+        assertEquals(19.0, expression.evalDouble());
+        expression.with("c", BigDecimal.ONE);
+        assertEquals(13.0, expression.evalDouble());
+        expression.setPrecision(16).with("a", new BigDecimal("0.5"));
+        assertEquals(2.5, expression.evalDouble());
+    }
+}
@@ -0,0 +1,78 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class EvalBatchTest {
+
+    private static final String[] FORMULAS = {
+            "a * b + 1", "(a + b) * (a + b) - SQRT(ABS(a + b))", "IF(b != 0, a / b, 0)", "a ^ 2 / PI",
+            "SIN(a) + COS(b) * LOG(ABS(a) + 10)",
+    };
+
+    private static final int ROWS = 64;
+
+    private static BigDecimal a(int row) {
+        return BigDecimal.valueOf(row * 3 - 40, 1);
+    }
+
+    private static BigDecimal b(int row) {
+        return BigDecimal.valueOf(row % 9 - 4);
+    }
+
+    @Test
+    void columnsMatchRowByRowEvaluation() {
+        Map<String, BigDecimal[]> columns = new HashMap<>();
+        columns.put("a", new BigDecimal[ROWS]);
+        columns.put("b", new BigDecimal[ROWS]);
+        for (int row = 0; row < ROWS; row++) {
+            columns.get("a")[row] = a(row);
+            columns.get("b")[row] = b(row);
+        }
+        for (String formula : FORMULAS) {
+            BigDecimal[] results = new Expression(formula).evalBatch(columns, ROWS);
+            for (int row = 0; row < ROWS; row++) {
+                assertEquals(new Expression(formula).with("a", a(row)).with("b", b(row)).eval(), results[row],
+                        formula + " at row " + row);
+            }
+        }
+    }
+
+    @Test
+    void doubleColumnsMatchEvalDouble() {
+        Map<String, double[]> columns = new HashMap<>();
+        columns.put("a", new double[ROWS]);
+        columns.put("b", new double[ROWS]);
+        for (int row = 0; row < ROWS; row++) {
+            columns.get("a")[row] = a(row).doubleValue();
+            columns.get("b")[row] = b(row).doubleValue();
+        }
+        for (String formula : FORMULAS) {
+            double[] results = new Expression(formula).setPrecision(16).evalDoubleBatch(columns, ROWS);
+            for (int row = 0; row < ROWS; row++) {
+                double expected = new Expression(formula).setPrecision(16).with("a", a(row)).with("b", b(row))
+                        .evalDouble();
+                assertEquals(expected, results[row], formula + " at row " + row);
+            }
+        }
+    }
+
+    @Test
+    void unboundColumnsTakeValuesAndLinks() {
+        Map<String, BigDecimal[]> columns = new HashMap<>();
+        columns.put("a", new BigDecimal[ROWS]);
+        for (int row = 0; row < ROWS; row++) {
+            columns.get("a")[row] = a(row);
+        }
+        Expression expression = new Expression("a * y + b").with("b", new BigDecimal("2.5")).with("y", "a - b");
+        BigDecimal[] results = expression.evalBatch(columns, ROWS);
+        for (int row = 0; row < ROWS; row++) {
+            BigDecimal expected = new Expression("a * y + b").with("b", new BigDecimal("2.5")).with("y", "a - b")
+                    .with("a", a(row)).eval();
+            assertEquals(expected, results[row], "row " + row);
+        }
+    }
+}
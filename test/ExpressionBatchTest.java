@@ -0,0 +1,89 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+class ExpressionBatchTest {
+
+    private static final String[] FORMULAS = {"a * b + 1", "SQRT(a) - b / 3", "IF(a > b, a, b) * PI"};
+
+    private static List<BigDecimal[]> rows(int count) {
+        List<BigDecimal[]> rows = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            rows.add(new BigDecimal[]{BigDecimal.valueOf(i % 17 + 1), BigDecimal.valueOf(i % 5 - 2, 1)});
+        }
+        return rows;
+    }
+
+    private static List<Expression> expressions(String... formulas) {
+        return Arrays.stream(formulas).map(Expression::new).collect(Collectors.toList());
+    }
+
+    @Test
+    void resultsMatchExpressionEvaluation() {
+        ExpressionBatch batch = new ExpressionBatch(expressions(FORMULAS)).chunkSize(7);
+        assertArrayEquals(new String[]{"a", "b", "PI"}, batch.getVariableNames());
+        List<BigDecimal[]> rows = rows(100);
+        Iterator<ExpressionBatch.Result> results = batch.eval(rows.iterator());
+        for (BigDecimal[] row : rows) {
+            ExpressionBatch.Result result = results.next();
+            for (int e = 0; e < FORMULAS.length; e++) {
+                assertEquals(new Expression(FORMULAS[e]).with("a", row[0]).with("b", row[1]).eval(), result.getValue(e));
+            }
+        }
+    }
+
+    @Test
+    void unorderedResultsCoverEveryRow() {
+        ExpressionBatch batch = new ExpressionBatch(expressions(FORMULAS)).chunkSize(3).unordered();
+        List<BigDecimal[]> rows = rows(50);
+        List<ExpressionBatch.Result> results = batch.eval(rows.stream()).sorted(Comparator.comparingLong(
+                ExpressionBatch.Result::getRow)).collect(Collectors.toList());
+        assertEquals(rows.size(), results.size());
+        for (int r = 0; r < rows.size(); r++) {
+            assertEquals(r, results.get(r).getRow());
+            assertEquals(new Expression(FORMULAS[0]).with("a", rows.get(r)[0]).with("b", rows.get(r)[1]).eval(),
+                    results.get(r).getValue(0));
+        }
+    }
+
+    @Test
+    void followsFormulaLinks() {
+        Expression linked = new Expression("y * 2 + z").with("y", "x + 1").with("z", "y ^ 2");
+        ExpressionBatch batch = new ExpressionBatch(List.of(linked));
+        assertArrayEquals(new String[]{"x"}, batch.getVariableNames());
+        List<BigDecimal[]> rows = rows(20);
+        Iterator<ExpressionBatch.Result> results = batch.eval(rows.iterator());
+        for (BigDecimal[] row : rows) {
+            BigDecimal expected = new Expression("y * 2 + z").with("y", "x + 1").with("z", "y ^ 2")
+                    .with("x", row[0]).eval();
+            assertEquals(expected, results.next().getValue(0));
+        }
+    }
+
+    @Test
+    void rejectsCircularLinks() {
+        Expression circular = new Expression("y + 1").with("y", "z * 2").with("z", "y - 1");
+        assertThrows(IllegalStateException.class, () -> new ExpressionBatch(List.of(circular)));
+    }
+
+    @Test
+    void missingValuesFallBackOrFail() {
+        ExpressionBatch batch = new ExpressionBatch(expressions("a + PI"));
+        Stream<BigDecimal[]> rows = Stream.<BigDecimal[]>of(new BigDecimal[]{BigDecimal.ONE});
+        assertEquals(new Expression("a + PI").with("a", BigDecimal.ONE).eval(),
+                batch.eval(rows).findFirst().get().getValue(0));
+        assertThrows(IllegalStateException.class,
+                () -> batch.eval(List.<BigDecimal[]>of(new BigDecimal[]{null}).iterator()).next());
+    }
+}
@@ -0,0 +1,78 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+import org.junit.jupiter.api.Test;
+
+class ExpressionGraphTest {
+
+    private static final Operator PLUS_AS_TIMES = new Operator("+", 2, true) {
+        @Override
+        public BigDecimal eval(BigDecimal v1, BigDecimal v2, MathContext mc) {
+            return v1.multiply(v2, mc);
+        }
+    };
+
+    @Test
+    void formulaCellsMatchExpressionEvaluation() {
+        ExpressionGraph graph = new ExpressionGraph()
+                .set("a", new BigDecimal("1.5"))
+                .set("b", new BigDecimal("-2"))
+                .define("c", "a * b + SQRT(a)")
+                .define("d", "c / 3 - a ^ 2");
+        BigDecimal c = new Expression("a * b + SQRT(a)").with("a", new BigDecimal("1.5")).with("b", new BigDecimal("-2")).eval();
+        assertEquals(c, graph.get("c"));
+        assertEquals(new Expression("c / 3 - a ^ 2").with("c", c).with("a", new BigDecimal("1.5")).eval(), graph.get("d"));
+    }
+
+    @Test
+    void recomputesOnlyDependents() {
+        ExpressionGraph graph = new ExpressionGraph()
+                .set("a", BigDecimal.ONE).set("b", BigDecimal.ONE)
+                .define("x", "a + 1").define("y", "b + 1").define("z", "x + y");
+        assertEquals(new BigDecimal("4"), graph.get("z"));
+        graph.set("a", BigDecimal.TEN);
+        assertEquals(2, graph.getDirtyCount());
+        assertEquals(new BigDecimal("13"), graph.get("z"));
+        assertEquals(0, graph.recompute());
+    }
+
+    @Test
+    void wideLevelsEvaluateInParallelWithTheSameResults() {
+        ExpressionGraph graph = new ExpressionGraph().set("a", new BigDecimal("0.5"));
+        for (int i = 0; i < 1000; i++) {
+            graph.define("c" + i, "a * " + i + " + 1");
+        }
+        assertEquals(1000, graph.recompute());
+        for (int i = 0; i < 1000; i += 97) {
+            assertEquals(new Expression("a * " + i + " + 1").with("a", new BigDecimal("0.5")).eval(), graph.get("c" + i));
+        }
+    }
+
+    @Test
+    void rejectsCyclesAndLeavesTheGraphUnchanged() {
+        ExpressionGraph graph = new ExpressionGraph().set("a", BigDecimal.ONE).define("b", "a + 1").define("c", "b * 2");
+        assertThrows(IllegalStateException.class, () -> graph.define("d", "d + 1"));
+        assertThrows(IllegalStateException.class, () -> graph.define("a", "c - 1"));
+        assertEquals(BigDecimal.ONE, graph.get("a"));
+        assertEquals(new BigDecimal("4"), graph.get("c"));
+    }
+
+    @Test
+    void rejectsUnboundInputs() {
+        ExpressionGraph graph = new ExpressionGraph().define("b", "a + 1");
+        assertThrows(IllegalStateException.class, () -> graph.get("b"));
+        assertThrows(IllegalStateException.class, () -> graph.get("missing"));
+    }
+
+    @Test
+    void graphsWithDifferentRegistriesDoNotShareFormulas() {
+        ExpressionGraph custom = new ExpressionGraph(Registry.DEFAULT.withOperator(PLUS_AS_TIMES), MathContext.DECIMAL32)
+                .set("a", new BigDecimal("3")).define("b", "a + 4");
+        ExpressionGraph plain = new ExpressionGraph().set("a", new BigDecimal("3")).define("b", "a + 4");
+        assertEquals(new BigDecimal("12"), custom.get("b"));
+        assertEquals(new BigDecimal("7"), plain.get("b"));
+    }
+}
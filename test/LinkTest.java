@@ -0,0 +1,49 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+import org.junit.jupiter.api.Test;
+
+class LinkTest {
+
+    private static final Operator PLUS_AS_TIMES = new Operator("+", 2, true) {
+        @Override
+        public BigDecimal eval(BigDecimal v1, BigDecimal v2, MathContext mc) {
+            return v1.multiply(v2, mc);
+        }
+    };
+
+    @Test
+    void linkedFormulasMatchTheInlinedText() {
+        for (int b = -4; b <= 4; b++) {
+            BigDecimal expected = new Expression("((b + 1) * (b + 1) + 2) * 3").with("b", BigDecimal.valueOf(b)).eval();
+            Expression linked = new Expression("c * 3").with("c", "a * a + 2").with("a", "b + 1")
+                    .with("b", BigDecimal.valueOf(b));
+            assertEquals(expected, linked.eval());
+        }
+    }
+
+    @Test
+    void linkedFormulasUseTheExpressionsRegistry() {
+        // same formula text and precision, parsed against registries whose + differs
+        assertEquals(new BigDecimal("8E+1"), new Expression("x").addOperator(PLUS_AS_TIMES)
+                .with("x", "b + 40").with("b", new BigDecimal("2")).eval());
+        assertEquals(new BigDecimal("42"), new Expression("x")
+                .with("x", "b + 40").with("b", new BigDecimal("2")).eval());
+    }
+
+    @Test
+    void linkedFormulasUseTheExpressionsPrecision() {
+        assertEquals(new BigDecimal("0.333"), new Expression("x").with("x", "1 / 3").setPrecision(3).eval());
+        assertEquals(new BigDecimal("0.33333"), new Expression("x").with("x", "1 / 3").setPrecision(5).eval());
+        assertEquals(new BigDecimal("0.333"), new Expression("x").with("x", "1 / 3").setPrecision(3).eval());
+    }
+
+    @Test
+    void rejectsCircularLinks() {
+        Expression expression = new Expression("a + 1").with("a", "b * 2").with("b", "a - 1");
+        assertThrows(IllegalStateException.class, expression::eval);
+    }
+}
@@ -0,0 +1,65 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class MetricsTest {
+
+    private static final String TEXT = "a * b + SQRT(a) - b";
+
+    @AfterEach
+    void disable() {
+        Metrics.setEnabled(false);
+        Metrics.reset();
+    }
+
+    @Test
+    void recordingDoesNotChangeResults() {
+        BigDecimal[] expected = new BigDecimal[10];
+        double[] expectedDouble = new double[10];
+        for (int i = 0; i < expected.length; i++) {
+            Expression expression = new Expression(TEXT).with("a", BigDecimal.valueOf(i)).with("b", BigDecimal.valueOf(3));
+            expected[i] = expression.eval();
+            expectedDouble[i] = expression.evalDouble();
+        }
+        Metrics.setEnabled(true);
+        for (int i = 0; i < expected.length; i++) {
+            Expression expression = new Expression(TEXT).with("a", BigDecimal.valueOf(i)).with("b", BigDecimal.valueOf(3));
+            assertEquals(expected[i], expression.eval());
+            assertEquals(expectedDouble[i], expression.evalDouble());
+        }
+    }
+
+    @Test
+    void countsEvaluationsAndCalls() {
+        Expression expression = new Expression(TEXT).with("a", BigDecimal.ONE).with("b", BigDecimal.TEN);
+        expression.eval();
+        Metrics.reset();
+        Metrics.setEnabled(true);
+        for (int i = 0; i < 5; i++) {
+            expression.eval();
+        }
+        expression.evalDouble();
+        assertEquals(5, Metrics.getCount(Metrics.EVAL));
+        assertEquals(1, Metrics.getCount(Metrics.EVAL_DOUBLE));
+        assertEquals(5, Arrays.stream(Metrics.getHistogram(Metrics.EVAL)).sum());
+        assertTrue(Metrics.getTotalNanos(Metrics.EVAL) > 0);
+        Map<String, Long> calls = Metrics.getCalls();
+        assertEquals(5L, calls.get("*"));
+        assertEquals(5L, calls.get("SQRT"));
+        assertTrue(Metrics.report().contains("eval: 5 calls"));
+    }
+
+    @Test
+    void recordsNothingWhenDisabled() {
+        Metrics.reset();
+        new Expression(TEXT).with("a", BigDecimal.ONE).with("b", BigDecimal.TEN).eval();
+        assertEquals(0, Metrics.getCount(Metrics.EVAL));
+        assertTrue(Metrics.getCalls().isEmpty());
+    }
+}
@@ -0,0 +1,105 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class OptimizerTest {
+
+    @Test
+    void foldedConstantsMatchUnfoldedEvaluation() {
+        String[][] cases = {
+                {"2 * 3 + a", "x * y + a"},
+                {"SQRT(16) * a - 1 / 3", "SQRT(x) * a - 1 / y"},
+                {"IF(2 > 3, a, 0.5) + a ^ 1 * 1 + 0", "IF(x > y, a, 0.5) + a"},
+                {"0 - (0 - a) + COS(60) * 2", "0 - (0 - a) + COS(x) * y"},
+        };
+        String[] constants = {"x", "y"};
+        BigDecimal[][] values = {{BigDecimal.valueOf(2), BigDecimal.valueOf(3)}, {BigDecimal.valueOf(16), BigDecimal.valueOf(3)},
+                {BigDecimal.valueOf(2), BigDecimal.valueOf(3)}, {BigDecimal.valueOf(60), BigDecimal.valueOf(2)}};
+        for (int i = 0; i < cases.length; i++) {
+            Expression folded = new Expression(cases[i][0]).setPrecision(16);
+            assertTrue(folded.getCompiled().getRemovedNodes() > 0, cases[i][0]);
+            for (int a = -3; a <= 3; a++) {
+                Expression plain = new Expression(cases[i][1]).setPrecision(16).with("a", BigDecimal.valueOf(a));
+                for (int c = 0; c < constants.length; c++) {
+                    plain.with(constants[c], values[i][c]);
+                }
+                assertEquals(plain.eval(), folded.with("a", BigDecimal.valueOf(a)).eval(), cases[i][0] + " at a=" + a);
+            }
+        }
+    }
+
+    @Test
+    void errorsInConstantSubtreesSurfaceAtEvaluation() {
+        Expression expression = new Expression("a + 1 / 0");
+        expression.getCompiled();
+        assertThrows(ArithmeticException.class, () -> expression.with("a", BigDecimal.ONE).eval());
+    }
+
+    @Test
+    void customFunctionsAreNotFolded() {
+        AtomicInteger calls = new AtomicInteger();
+        Function counter = new Function("COUNTER") {
+            @Override
+            public BigDecimal eval(List<BigDecimal> parameters, MathContext mc) {
+                return BigDecimal.valueOf(calls.incrementAndGet());
+            }
+        };
+        Expression expression = new Expression("COUNTER() + 10").addFunction(counter);
+        assertEquals(new BigDecimal("11"), expression.eval());
+        assertEquals(new BigDecimal("12"), expression.eval());
+        Expression withArguments = new Expression("COUNTER(1, 2) * 2").addFunction(counter);
+        assertEquals(new BigDecimal("6"), withArguments.eval());
+        assertEquals(new BigDecimal("8"), withArguments.eval());
+    }
+
+    @Test
+    void customOperatorsAreNotFolded() {
+        AtomicInteger calls = new AtomicInteger();
+        Operator tick = new Operator("#", 20, true) {
+            @Override
+            public BigDecimal eval(BigDecimal v1, BigDecimal v2, MathContext mc) {
+                return v1.add(v2, mc).add(BigDecimal.valueOf(calls.incrementAndGet()), mc);
+            }
+        };
+        Expression expression = new Expression("1 # 2").addOperator(tick);
+        assertEquals(new BigDecimal("4"), expression.eval());
+        assertEquals(new BigDecimal("5"), expression.eval());
+    }
+
+    @Test
+    void identitiesKeepTheRoundingOfUnroundedOperands() {
+        // returns one more digit than the context allows
+        Function nudge = new Function("NUDGE") {
+            @Override
+            public BigDecimal eval(List<BigDecimal> parameters, MathContext mc) {
+                return parameters.get(0).add(new BigDecimal("0.01"));
+            }
+        };
+        String[][] cases = {
+                {"NUDGE(x) * 1", "NUDGE(x) * y"},
+                {"1 * NUDGE(x)", "y * NUDGE(x)"},
+                {"NUDGE(x) + 0", "NUDGE(x) + (y - 1)"},
+                {"0 + NUDGE(x)", "(y - 1) + NUDGE(x)"},
+                {"NUDGE(x) - 0", "NUDGE(x) - (y - 1)"},
+                {"NUDGE(x) ^ 1", "NUDGE(x) ^ y"},
+                {"0 - (0 - NUDGE(x))", "(y - 1) - ((y - 1) - NUDGE(x))"},
+                {"FLOOR(NUDGE(x)) * 1", "FLOOR(NUDGE(x)) * y"},
+        };
+        BigDecimal x = new BigDecimal("123456.7");
+        assertEquals(new BigDecimal("123456.71"), new Expression("NUDGE(x)").addFunction(nudge).with("x", x).eval());
+        for (String[] pair : cases) {
+            BigDecimal expected = new Expression(pair[1]).addFunction(nudge)
+                    .with("x", x).with("y", BigDecimal.ONE).eval();
+            assertTrue(expected.precision() <= 7, pair[1] + " = " + expected);
+            assertEquals(expected, new Expression(pair[0]).addFunction(nudge).with("x", x).eval(), pair[0]);
+        }
+        assertEquals(2, new Expression("a * 1").getCompiled().getRemovedNodes());
+    }
+}
@@ -0,0 +1,87 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class ParseCacheTest {
+
+    // same name, precedence and associativity as the built-in +
+    private static final Operator PLUS_AS_TIMES = new Operator("+", 2, true) {
+        @Override
+        public BigDecimal eval(BigDecimal v1, BigDecimal v2, MathContext mc) {
+            return v1.multiply(v2, mc);
+        }
+    };
+
+    private static final Function NEGATIVE_SQRT = new Function("SQRT") {
+        @Override
+        public BigDecimal eval(List<BigDecimal> parameters, MathContext mc) {
+            return parameters.get(0).sqrt(mc).negate();
+        }
+    };
+
+    @Test
+    void parsesEachTextOnce() {
+        ParseCache<Program> cache = new ParseCache<>(64);
+        Program first = cache.get("a + b", Registry.DEFAULT, () -> Parser.parse("a + b", Registry.DEFAULT));
+        Program second = cache.get("a + b", Registry.DEFAULT, () -> Parser.parse("a + b", Registry.DEFAULT));
+        assertSame(first, second);
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedEntries() {
+        ParseCache<Program> cache = new ParseCache<>(16);
+        for (int i = 0; i < 1000; i++) {
+            String text = "x + " + i;
+            cache.get(text, Registry.DEFAULT, () -> Parser.parse(text, Registry.DEFAULT));
+        }
+        assertEquals(16, cache.size(), "one entry per segment");
+        assertEquals(1000 - cache.size(), cache.getEvictions());
+    }
+
+    @Test
+    void keepsRegistriesWithTheSameNamesApart() {
+        Registry custom = Registry.DEFAULT.withOperator(PLUS_AS_TIMES);
+        ParseCache<Program> cache = new ParseCache<>(64);
+        Program builtIn = cache.get("a + b", Registry.DEFAULT, () -> Parser.parse("a + b", Registry.DEFAULT));
+        assertNotSame(builtIn, cache.get("a + b", custom, () -> Parser.parse("a + b", custom)));
+    }
+
+    @Test
+    void overridingExpressionsDoNotShareProgramsWithDefaultOnes() {
+        // custom registry parses first, then the default one, and the other way round
+        assertEquals(new BigDecimal("7"), new Expression("7+1").addOperator(PLUS_AS_TIMES).eval());
+        assertEquals(new BigDecimal("8"), new Expression("7+1").eval());
+        assertEquals(new BigDecimal("8"), new Expression("7+1.0").eval());
+        assertEquals(new BigDecimal("7"), new Expression("7+1.0").addOperator(PLUS_AS_TIMES).eval());
+
+        assertEquals(new BigDecimal("-5"), new Expression("SQRT(25)").addFunction(NEGATIVE_SQRT).eval());
+        assertEquals(new BigDecimal("5"), new Expression("SQRT(25)").eval());
+        assertEquals(new BigDecimal("6"), new Expression("SQRT(36)").eval());
+        assertEquals(new BigDecimal("-6"), new Expression("SQRT(36)").addFunction(NEGATIVE_SQRT).eval());
+    }
+
+    @Test
+    void expressionsWithTheSameCustomFunctionShareEntries() {
+        assertSame(Registry.DEFAULT.withFunction(NEGATIVE_SQRT), Registry.DEFAULT.withFunction(NEGATIVE_SQRT));
+        assertSame(Registry.DEFAULT.withFunction(NEGATIVE_SQRT).withOperator(PLUS_AS_TIMES),
+                Registry.DEFAULT.withFunction(NEGATIVE_SQRT).withOperator(PLUS_AS_TIMES));
+        ParseCache<Program> cache = ParseCache.shared();
+        long misses = cache.getMisses();
+        long hits = cache.getHits();
+        for (int i = 1; i <= 100; i++) {
+            BigDecimal x = BigDecimal.valueOf(i * i);
+            assertEquals(0, BigDecimal.valueOf(-i).compareTo(new Expression("SQRT(x) + 0 * 731").addFunction(NEGATIVE_SQRT)
+                    .with("x", x).eval()));
+        }
+        assertEquals(1, cache.getMisses() - misses);
+        assertEquals(99, cache.getHits() - hits);
+    }
+}
@@ -0,0 +1,103 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ProgramFileTest {
+
+    private static final String[] FORMULAS = {
+            "a + b * 2", "(a - b) / (a + b) + 0.125", "SQRT(a ^ 2 + b ^ 2)", "IF(a > b, ABS(a - 3), b / 2)",
+            "1 + 2 + 3 + 0.125", "x", "été * 2",
+    };
+
+    private static final Operator PLUS = new Operator("+", 20, true) {
+        @Override
+        public BigDecimal eval(BigDecimal v1, BigDecimal v2, MathContext mc) {
+            return v1.multiply(v2, mc);
+        }
+    };
+
+    @TempDir
+    Path dir;
+
+    private Path write(Registry registry) throws IOException {
+        List<Program> programs = new ArrayList<>();
+        for (String formula : FORMULAS) {
+            programs.add(Parser.parse(formula, registry));
+        }
+        Path file = dir.resolve("rules.bin");
+        ProgramFile.write(file, registry, programs);
+        return file;
+    }
+
+    @Test
+    void programsReadBackMatchExpressionEvaluation() throws IOException {
+        ProgramFile file = ProgramFile.open(write(Registry.DEFAULT), Registry.DEFAULT);
+        assertEquals(FORMULAS.length, file.size());
+        for (int i = 0; i < FORMULAS.length; i++) {
+            CompiledExpression compiled = file.compile(i, MathContext.DECIMAL64);
+            Expression expression = new Expression(FORMULAS[i]).setPrecision(16);
+            for (String name : compiled.getVariableNames()) {
+                BigDecimal value = BigDecimal.valueOf(name.length() * 7 + name.charAt(0), 1);
+                expression.with(name, value);
+            }
+            Bindings bindings = compiled.newBindings();
+            for (String name : compiled.getVariableNames()) {
+                bindings.with(name, BigDecimal.valueOf(name.length() * 7 + name.charAt(0), 1));
+            }
+            assertEquals(expression.eval(), bindings.eval(), FORMULAS[i]);
+        }
+    }
+
+    @Test
+    void rejectsCorruptFiles() throws IOException {
+        Path path = write(Registry.DEFAULT);
+        byte[] bytes = Files.readAllBytes(path);
+        bytes[bytes.length - 3] ^= 0x40;
+        Files.write(path, bytes);
+        assertThrows(IOException.class, () -> ProgramFile.open(path, Registry.DEFAULT));
+    }
+
+    @Test
+    void rejectsOtherFilesAndVersions() throws IOException {
+        Path path = write(Registry.DEFAULT);
+        byte[] bytes = Files.readAllBytes(path);
+        bytes[7]++;
+        Files.write(path, bytes);
+        assertThrows(IOException.class, () -> ProgramFile.open(path, Registry.DEFAULT));
+        bytes[0]++;
+        Files.write(path, bytes);
+        assertThrows(IOException.class, () -> ProgramFile.open(path, Registry.DEFAULT));
+        Files.write(path, new byte[8]);
+        assertThrows(IOException.class, () -> ProgramFile.open(path, Registry.DEFAULT));
+    }
+
+    @Test
+    void rejectsFilesWrittenForAnotherRegistry() throws IOException {
+        Registry custom = Registry.DEFAULT.withOperator(PLUS);
+        assertThrows(IOException.class, () -> ProgramFile.open(write(custom), Registry.DEFAULT));
+        assertThrows(IOException.class, () -> ProgramFile.open(write(Registry.DEFAULT), custom));
+    }
+
+    @Test
+    void fingerprintCoversImplementations() {
+        Operator plus = Registry.DEFAULT.getOperators().get("+");
+        Operator replaced = new Operator("+", plus.getPrecedence(), plus.isLeftAssoc()) {
+            @Override
+            public BigDecimal eval(BigDecimal v1, BigDecimal v2, MathContext mc) {
+                return v1.subtract(v2, mc);
+            }
+        };
+        assertNotEquals(Registry.DEFAULT.getFingerprint(), Registry.DEFAULT.withOperator(replaced).getFingerprint());
+    }
+}
@@ -0,0 +1,82 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class ProgramTest {
+
+    private static List<BigDecimal> literals(Program program) {
+        List<BigDecimal> literals = new ArrayList<>();
+        Program.Reader reader = program.reader();
+        while (reader.next()) {
+            if (reader.opcode == Program.LITERAL) {
+                literals.add(reader.literal);
+            }
+        }
+        return literals;
+    }
+
+    @Test
+    void literalsSurviveInlineAndPooled() {
+        String[] texts = {"0", "7", "-0.000125", "922337203685477580", "123456789012345678", "1234567890123456789",
+                "123456789012345678901234567890.5", "0.00000000000000000000000000001"};
+        StringBuilder formula = new StringBuilder("0");
+        for (String text : texts) {
+            formula.append(" + ").append(text);
+        }
+        Program program = Parser.parse(formula.toString(), Registry.DEFAULT);
+        List<BigDecimal> literals = literals(program);
+        assertEquals(texts.length + 1, literals.size());
+        BigDecimal sum = BigDecimal.ZERO;
+        for (int i = 0; i < texts.length; i++) {
+            assertEquals(new BigDecimal(texts[i]), literals.get(i + 1), texts[i]);
+            sum = sum.add(new BigDecimal(texts[i]));
+        }
+        assertEquals(0, sum.compareTo(new Expression(formula.toString()).setPrecision(0).eval()));
+    }
+
+    @Test
+    void wideLiteralsArePooledOncePerProgram() {
+        Program program = Parser.parse("a * 1234567890123456789012 + 1234567890123456789012 - 5", Registry.DEFAULT);
+        assertEquals(1, program.literals.length);
+        assertEquals(0, Parser.parse("a * 2.5 - 5", Registry.DEFAULT).literals.length);
+    }
+
+    @Test
+    void typicalFormulasStaySmall() {
+        Program program = Parser.parse("(a + b) * c / 2 - SQRT(d)", Registry.DEFAULT);
+        assertTrue(program.code.length <= 24, program.code.length + " bytes");
+        assertArrayEquals(new String[]{"a", "b", "c", "d"}, program.variables());
+        assertEquals(10, program.length());
+    }
+
+    @Test
+    void decodedProgramsEvaluateLikeExpressions() {
+        StringBuilder formula = new StringBuilder("0");
+        for (int i = 0; i < 200; i++) {
+            formula.append(i % 2 == 0 ? " + " : " - ").append("v").append(i).append(" * ").append(i).append(".5");
+        }
+        String text = formula.toString();
+        Program program = Parser.parse(text, Registry.DEFAULT);
+        Program stripped = program.withoutSource();
+        assertNull(stripped.source);
+        assertSame(program.code, stripped.code);
+        Expression expression = new Expression(text).setPrecision(16);
+        CompiledExpression compiled = new CompiledExpression(stripped, Registry.DEFAULT.getConstants(), MathContext.DECIMAL64);
+        Bindings bindings = compiled.newBindings();
+        for (String name : program.variables()) {
+            BigDecimal value = BigDecimal.valueOf(Integer.parseInt(name.substring(1)) % 13 - 6, 1);
+            expression.with(name, value);
+            bindings.with(name, value);
+        }
+        assertEquals(expression.eval(), bindings.eval());
+    }
+}
@@ -0,0 +1,94 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class RegistryTest {
+
+    private static final Operator MAX = new Operator(">>", 5, true) {
+        @Override
+        public BigDecimal eval(BigDecimal v1, BigDecimal v2, MathContext mc) {
+            return v1.max(v2).round(mc);
+        }
+    };
+
+    private static final Function TWICE = new Function("TWICE") {
+        @Override
+        public BigDecimal eval(List<BigDecimal> parameters, MathContext mc) {
+            return parameters.get(0).multiply(BigDecimal.valueOf(2), mc);
+        }
+    };
+
+    @Test
+    void expressionsShareTheDefaultBuiltIns() {
+        Operator plus = Registry.DEFAULT.getOperators().get("+");
+        for (int precision : new int[]{3, 7, 34}) {
+            CompiledExpression.Binary root = (CompiledExpression.Binary) new Expression("a + b")
+                    .setPrecision(precision).getCompiled().getRoot();
+            assertSame(plus, root.operator);
+        }
+    }
+
+    @Test
+    void builtInsTakeThePrecisionOfEachCall() {
+        Operator divide = Registry.DEFAULT.getOperators().get("/");
+        assertEquals(new BigDecimal("0.333"), divide.eval(BigDecimal.ONE, BigDecimal.valueOf(3), new MathContext(3)));
+        assertEquals(new BigDecimal("0.3333333"), divide.eval(BigDecimal.ONE, BigDecimal.valueOf(3), MathContext.DECIMAL32));
+        assertEquals(new BigDecimal("0.333"), new Expression("1 / 3").setPrecision(3).eval());
+        assertEquals(new BigDecimal("0.33333"), new Expression("1 / 3").setPrecision(5).eval());
+    }
+
+    @Test
+    void theDefaultRegistryCannotBeChanged() {
+        Map<String, Operator> operators = Registry.DEFAULT.getOperators();
+        Map<String, LazyFunction> functions = Registry.DEFAULT.getFunctions();
+        Map<String, BigDecimal> constants = Registry.DEFAULT.getConstants();
+        assertThrows(UnsupportedOperationException.class, () -> operators.put(">>", MAX));
+        assertThrows(UnsupportedOperationException.class, () -> functions.put("TWICE", TWICE));
+        assertThrows(UnsupportedOperationException.class, () -> constants.put("PI", BigDecimal.ONE));
+    }
+
+    @Test
+    void customEntriesAreLayeredOverTheDefaults() {
+        Registry custom = Registry.DEFAULT.withOperator(MAX).withFunction(TWICE);
+        assertNotSame(Registry.DEFAULT, custom);
+        assertNull(Registry.DEFAULT.getOperators().get(">>"));
+        assertNull(Registry.DEFAULT.getFunctions().get("TWICE"));
+        assertSame(MAX, custom.getOperators().get(">>"));
+        assertSame(TWICE, custom.getFunctions().get("TWICE"));
+        for (Map.Entry<String, Operator> entry : Registry.DEFAULT.getOperators().entrySet()) {
+            assertSame(entry.getValue(), custom.getOperators().get(entry.getKey()), entry.getKey());
+        }
+        for (Map.Entry<String, LazyFunction> entry : Registry.DEFAULT.getFunctions().entrySet()) {
+            assertSame(entry.getValue(), custom.getFunctions().get(entry.getKey()), entry.getKey());
+        }
+        assertSame(Registry.DEFAULT.getConstants(), custom.getConstants());
+    }
+
+    @Test
+    void customEntriesOnlyReachTheirOwnExpression() {
+        assertEquals(new BigDecimal("14"), new Expression("TWICE(3 >> 7)").addOperator(MAX).addFunction(TWICE).eval());
+        assertTrue(new Expression("TWICE(3 >> 7)").addOperator(MAX).addFunction(TWICE).validate().isEmpty());
+        assertFalse(new Expression("3 >> 7").validate().isEmpty());
+        assertFalse(new Expression("TWICE(3)").addOperator(MAX).validate().isEmpty());
+    }
+
+    @Test
+    void variablesDoNotLeakIntoTheSharedConstants() {
+        assertEquals(BigDecimal.ONE, new Expression("PI").with("PI", BigDecimal.ONE).eval());
+        assertEquals(new BigDecimal("3.141593"), new Expression("PI").eval());
+        assertNull(Registry.DEFAULT.getConstants().get("a"));
+        new Expression("a").with("a", BigDecimal.TEN).eval();
+        assertNull(Registry.DEFAULT.getConstants().get("a"));
+    }
+}
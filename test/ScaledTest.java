@@ -0,0 +1,98 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class ScaledTest {
+
+    private static final String[] FORMULAS = {
+            "a + b", "a - b * 3", "a * b + 0.125", "a / b", "(a + b) / (a - b + 1000)", "a % b",
+            "(a * b) * (a * b) - a / 7", "a / b / b * 1.5",
+    };
+
+    @AfterEach
+    void resetCounters() {
+        ScaledExpression.resetCounters();
+    }
+
+    private static Expression expression(String formula, int precision, RoundingMode mode, BigDecimal a, BigDecimal b) {
+        return new Expression(formula).setPrecision(precision).setRoundingMode(mode).with("a", a).with("b", b);
+    }
+
+    @Test
+    void matchesExpressionEvaluationExactly() {
+        Random random = new Random(42);
+        RoundingMode[] modes = {RoundingMode.HALF_UP, RoundingMode.HALF_EVEN, RoundingMode.HALF_DOWN,
+                RoundingMode.UP, RoundingMode.DOWN, RoundingMode.CEILING, RoundingMode.FLOOR};
+        for (String formula : FORMULAS) {
+            for (int precision : new int[]{1, 3, 7, 16, 18}) {
+                for (RoundingMode mode : modes) {
+                    for (int i = 0; i < 20; i++) {
+                        BigDecimal a = BigDecimal.valueOf(random.nextInt(2_000_001) - 1_000_000, random.nextInt(5));
+                        BigDecimal b = BigDecimal.valueOf(random.nextInt(20_001) - 10_000, random.nextInt(3));
+                        if (b.signum() == 0) {
+                            b = BigDecimal.ONE;
+                        }
+                        String message = formula + " at " + precision + " digits " + mode + ", a=" + a + ", b=" + b;
+                        Expression scaled = expression(formula, precision, mode, a, b);
+                        BigDecimal expected;
+                        try {
+                            expected = expression(formula, precision, mode, a, b).eval();
+                        } catch (ArithmeticException e) {
+                            // a divisor that rounds to zero at low precision
+                            assertThrows(ArithmeticException.class, scaled::evalScaled, message);
+                            continue;
+                        }
+                        assertEquals(expected, scaled.evalScaled(), message);
+                    }
+                }
+            }
+        }
+        assertTrue(ScaledExpression.getHits() > 0);
+    }
+
+    @Test
+    void fallsBackOnOverflow() {
+        BigDecimal big = new BigDecimal("9.2e18");
+        for (String formula : new String[]{"a * b", "a + b", "a * a * a", "a / 0.0000000000000000001"}) {
+            BigDecimal expected = expression(formula, 18, RoundingMode.HALF_UP, big, big).eval();
+            assertEquals(expected, expression(formula, 18, RoundingMode.HALF_UP, big, big).evalScaled(), formula);
+        }
+        BigDecimal wide = new BigDecimal("123456789012345678901234567890");
+        assertEquals(expression("a + b", 7, RoundingMode.HALF_UP, wide, BigDecimal.ONE).eval(),
+                expression("a + b", 7, RoundingMode.HALF_UP, wide, BigDecimal.ONE).evalScaled());
+        assertTrue(ScaledExpression.getMisses() > 0);
+    }
+
+    @Test
+    void fallsBackForOtherOperatorsAndPrecisions() {
+        assertNull(ScaledExpression.compile(new Expression("SQRT(a) + 1").getCompiled()));
+        assertNull(ScaledExpression.compile(new Expression("a + 1").setPrecision(19).getCompiled()));
+        BigDecimal a = new BigDecimal("2.25");
+        assertEquals(expression("SQRT(a) + b ^ 2", 7, RoundingMode.HALF_UP, a, a).eval(),
+                expression("SQRT(a) + b ^ 2", 7, RoundingMode.HALF_UP, a, a).evalScaled());
+        assertEquals(expression("a / b", 25, RoundingMode.HALF_UP, a, BigDecimal.valueOf(7)).eval(),
+                expression("a / b", 25, RoundingMode.HALF_UP, a, BigDecimal.valueOf(7)).evalScaled());
+    }
+
+    @Test
+    void errorsMatchBigDecimal() {
+        assertThrows(ArithmeticException.class,
+                () -> expression("a / b", 7, RoundingMode.HALF_UP, BigDecimal.ONE, BigDecimal.ZERO).evalScaled());
+        assertThrows(ArithmeticException.class,
+                () -> expression("a / b", 0, RoundingMode.HALF_UP, BigDecimal.ONE, BigDecimal.valueOf(3)).evalScaled());
+        assertThrows(ArithmeticException.class,
+                () -> expression("a / b", 7, RoundingMode.UNNECESSARY, BigDecimal.ONE, BigDecimal.valueOf(3)).evalScaled());
+        assertEquals(new BigDecimal("0.25"),
+                expression("a / b", 7, RoundingMode.UNNECESSARY, BigDecimal.ONE, BigDecimal.valueOf(4)).evalScaled());
+        assertEquals(new BigDecimal("0.25"),
+                expression("a / b", 0, RoundingMode.HALF_UP, BigDecimal.ONE, BigDecimal.valueOf(4)).evalScaled());
+    }
+}
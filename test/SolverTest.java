@@ -0,0 +1,85 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class SolverTest {
+
+    private static final Function HALF = new Function("HALF") {
+        @Override
+        public BigDecimal eval(List<BigDecimal> parameters, MathContext mc) {
+            return parameters.get(0).divide(BigDecimal.valueOf(2), mc);
+        }
+    };
+
+    private static void assertRoot(String formula, BigDecimal expected, BigDecimal root) {
+        assertEquals(0, expected.compareTo(root), formula + ": " + root);
+    }
+
+    @Test
+    void rootsMatchExpressionEvaluation() {
+        assertRoot("x ^ 2 - 2", new Expression("SQRT(2)").setPrecision(20).eval(),
+                new Expression("x ^ 2 - 2").setPrecision(20).solve("x", BigDecimal.ONE));
+        // LOG itself is only correct to the last digit, so its root may be one unit off
+        BigDecimal e = new Expression("e").setPrecision(16).eval();
+        BigDecimal log = new Expression("LOG(x) - 1").setPrecision(16).solve("x", BigDecimal.ONE);
+        assertTrue(log.subtract(e).abs().compareTo(e.ulp()) <= 0, log.toString());
+        assertRoot("SIN(x) - 0.5", new BigDecimal("30"),
+                new Expression("SIN(x) - 0.5").solve("x", BigDecimal.TEN));
+        BigDecimal root = new Expression("x ^ 3 + a * x - 7").setPrecision(16).with("a", new BigDecimal("2.5"))
+                .solve("x", BigDecimal.ZERO);
+        BigDecimal residual = new Expression("x ^ 3 + a * x - 7").setPrecision(16)
+                .with("a", new BigDecimal("2.5")).with("x", root).eval();
+        assertTrue(residual.abs().compareTo(new BigDecimal("1e-14")) <= 0, residual.toString());
+    }
+
+    @Test
+    void solvesEquationsAsDifferences() {
+        assertRoot("x * x = a", new BigDecimal("3"), new Expression("x * x = a").with("a", new BigDecimal("9"))
+                .solve("x", BigDecimal.ONE));
+        assertRoot("2 * x == x + 5", new BigDecimal("5"), new Expression("2 * x == x + 5").solve("x", BigDecimal.ZERO));
+    }
+
+    @Test
+    void failsWithoutARoot() {
+        assertThrows(ArithmeticException.class, () -> new Expression("x ^ 2 + 1").solve("x", BigDecimal.ZERO));
+    }
+
+    @Test
+    void bracketsKeepTheRootInside() {
+        Solver solver = new Solver(new Expression("x ^ 3 - x").setPrecision(16).getCompiled(), "x");
+        assertRoot("x ^ 3 - x", BigDecimal.ONE, solver.solve(new BigDecimal("0.5"), new BigDecimal("3")));
+        assertRoot("x ^ 3 - x", BigDecimal.ONE.negate(), solver.solve(new BigDecimal("-0.5"), new BigDecimal("-3")));
+        assertRoot("x ^ 3 - x", BigDecimal.ZERO, solver.solve(new BigDecimal("-0.25"), new BigDecimal("0.75")));
+    }
+
+    @Test
+    void derivativesThatCannotBeEvaluatedFallBackToBisection() {
+        // ABS(x - x) is zero everywhere, so its derivative divides by zero at every point
+        Solver solver = new Solver(new Expression("3 * x - 1 + ABS(x - x)").getCompiled(), "x");
+        BigDecimal root = solver.solve(BigDecimal.ZERO, BigDecimal.ONE);
+        assertTrue(root.subtract(new BigDecimal("0.3333333")).abs().compareTo(new BigDecimal("1E-7")) <= 0, root.toString());
+        ArithmeticException e = assertThrows(ArithmeticException.class, () -> solver.solve(BigDecimal.ZERO));
+        assertTrue(e.getMessage().startsWith("No root found"), e.getMessage());
+    }
+
+    @Test
+    void rejectsBracketsWithoutASignChange() {
+        Solver solver = new Solver(new Expression("x ^ 2 + 1").getCompiled(), "x");
+        assertThrows(IllegalArgumentException.class, () -> solver.solve(BigDecimal.ONE.negate(), BigDecimal.ONE));
+    }
+
+    @Test
+    void rejectsWhatCannotBeSolved() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new Expression("HALF(x) - 1").addFunction(HALF).solve("x", BigDecimal.ONE));
+        assertThrows(IllegalArgumentException.class,
+                () -> new Expression("x - 1").setPrecision(0).solve("x", BigDecimal.ONE));
+        assertThrows(IllegalArgumentException.class, () -> new Expression("x - 1").solve("y", BigDecimal.ONE));
+    }
+}
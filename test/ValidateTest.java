@@ -0,0 +1,63 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+class ValidateTest {
+
+    private static String summary(String formula) {
+        return new Expression(formula).validate().stream()
+                .map(d -> d.getCode() + "@" + d.getPosition()).collect(Collectors.joining(" "));
+    }
+
+    @Test
+    void validFormulasHaveNoDiagnosticsAndEvaluate() {
+        String[] formulas = {"1 + 2 * 3", "SQRT(a ^ 2 + b ^ 2)", "IF(a > b, a, b) - PI", "(a + b) * -1.5e3", "a && b || NOT(a)"};
+        for (String formula : formulas) {
+            assertEquals(List.of(), new Expression(formula).validate(), formula);
+        }
+        assertEquals(new BigDecimal("7"), new Expression("1 + 2 * 3").eval());
+        assertEquals(new BigDecimal("5"), new Expression("SQRT(a ^ 2 + b ^ 2)")
+                .with("a", BigDecimal.valueOf(3)).with("b", BigDecimal.valueOf(4)).eval());
+    }
+
+    @Test
+    void reportsCodeAndPosition() {
+        assertEquals("MISSING_OPERAND@2 EMPTY_EXPRESSION@3", summary("1 +"));
+        assertEquals("INVALID_NUMBER@0", summary("1.2.3 + a"));
+        assertEquals("MISMATCHED_PARENTHESES@0", summary("(1 + 2"));
+        assertEquals("MISMATCHED_PARENTHESES@5", summary("1 + 2)"));
+        assertEquals("TOO_MANY_VALUES@3", summary("1 2"));
+        assertEquals("EMPTY_EXPRESSION@0", summary(""));
+    }
+
+    @Test
+    void collectsEveryProblemInOrder() {
+        assertEquals("UNKNOWN_OPERATOR@7 INVALID_NUMBER@14 MISMATCHED_PARENTHESES@21 TOO_MANY_VALUES@23",
+                summary("1 + (2 $ 3) + 1..5 + (4"));
+        Diagnostic unknown = new Expression("2 $ 3").validate().get(0);
+        assertEquals("$", unknown.getSymbol());
+        assertEquals("Unknown operator '$' at character position 2", unknown.getMessage());
+    }
+
+    @Test
+    void printsNothing() {
+        PrintStream err = System.err;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(captured));
+        try {
+            for (String formula : new String[]{"1 +", "2 $ 3", "(1 + 2", "1.2.3"}) {
+                assertTrue(!new Expression(formula).validate().isEmpty(), formula);
+            }
+        } finally {
+            System.setErr(err);
+        }
+        assertEquals("", captured.toString());
+    }
+}